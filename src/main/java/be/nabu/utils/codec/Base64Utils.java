@@ -0,0 +1,234 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.utils.codec;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import be.nabu.utils.codec.impl.Base64Decoder;
+import be.nabu.utils.codec.impl.Base64Encoder;
+import be.nabu.utils.io.IOUtils;
+import be.nabu.utils.io.api.ByteBuffer;
+
+/**
+ * Encodes and decodes base64 payloads that are already in memory on multiple cores
+ * The input is split into segments that are transcoded by the regular streaming transcoders, so the result is identical to a single pass
+ * - for encoding the segments are aligned to both full quanta and full lines so each segment starts on a new line
+ * - for decoding the segments are aligned to full quanta (ignoring line feeds)
+ */
+public class Base64Utils {
+	
+	/**
+	 * The default amount of input bytes per segment, smaller payloads are simply transcoded on the calling thread
+	 */
+	public static final int DEFAULT_SEGMENT_SIZE = 1024 * 1024;
+	
+	public static byte [] encode(byte [] bytes, boolean useBase64Url, int bytesPerLine) throws IOException {
+		return encode(bytes, 0, bytes.length, useBase64Url, bytesPerLine, ForkJoinPool.commonPool(), DEFAULT_SEGMENT_SIZE);
+	}
+	
+	public static byte [] encode(byte [] bytes, int offset, int length, boolean useBase64Url, int bytesPerLine, ForkJoinPool pool, int segmentSize) throws IOException {
+		// the amount of input bytes that encode into a whole number of lines made up of full quanta
+		int unit = 3;
+		if (bytesPerLine > 0) {
+			int characters = (4 * bytesPerLine) / gcd(4, bytesPerLine);
+			unit = (characters / 4) * 3;
+		}
+		segmentSize = Math.max(unit, segmentSize - (segmentSize % unit));
+		
+		byte [] result = new byte[(int) newEncoder(useBase64Url, bytesPerLine).getExactOutputSize(length)];
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		int outputOffset = 0;
+		for (int start = 0; start < length; start += segmentSize) {
+			final int segmentOffset = offset + start;
+			final int segmentLength = Math.min(segmentSize, length - start);
+			final int segmentOutputOffset = outputOffset;
+			final int segmentOutputLength = (int) newEncoder(useBase64Url, bytesPerLine).getExactOutputSize(segmentLength);
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() throws IOException {
+					ByteBuffer output = IOUtils.wrap(result, segmentOutputOffset, segmentOutputLength, false);
+					Base64Encoder encoder = newEncoder(useBase64Url, bytesPerLine);
+					encoder.transcode(IOUtils.wrap(bytes, segmentOffset, segmentLength, true), output);
+					encoder.flush(output);
+					if (output.remainingData() != segmentOutputLength)
+						throw new IOException("Encoded segment does not have the expected size: " + output.remainingData() + " != " + segmentOutputLength);
+					return null;
+				}
+			});
+			outputOffset += segmentOutputLength;
+			// each segment ends on a full line, the line break before the next line is added here
+			if (bytesPerLine > 0 && start + segmentSize < length) {
+				result[outputOffset++] = '\r';
+				result[outputOffset++] = '\n';
+			}
+		}
+		run(pool, tasks);
+		return result;
+	}
+	
+	public static byte [] decode(byte [] bytes, boolean useBase64Url) throws IOException {
+		return decode(bytes, 0, bytes.length, useBase64Url, ForkJoinPool.commonPool(), DEFAULT_SEGMENT_SIZE);
+	}
+	
+	public static byte [] decode(byte [] bytes, int offset, int length, boolean useBase64Url, ForkJoinPool pool, int segmentSize) throws IOException {
+		segmentSize = Math.max(4, segmentSize);
+		if (length <= segmentSize)
+			return decodeSegment(bytes, offset, length, useBase64Url);
+		
+		// first count the characters (excluding line feeds) in each segment
+		final int segments = (length + segmentSize - 1) / segmentSize;
+		final int [] counts = new int[segments];
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for (int i = 0; i < segments; i++) {
+			final int segment = i;
+			final int segmentOffset = offset + (i * segmentSize);
+			final int segmentLength = Math.min(segmentSize, length - (i * segmentSize));
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() {
+					counts[segment] = countCharacters(bytes, segmentOffset, segmentOffset + segmentLength);
+					return null;
+				}
+			});
+		}
+		run(pool, tasks);
+		
+		// move each boundary forward until the characters before it form full quanta
+		int [] boundaries = new int[segments + 1];
+		int [] characters = new int[segments + 1];
+		boundaries[0] = offset;
+		boundaries[segments] = offset + length;
+		int total = 0;
+		for (int i = 1; i <= segments; i++) {
+			total += counts[i - 1];
+			if (i == segments) {
+				characters[i] = total;
+				break;
+			}
+			int boundary = offset + (i * segmentSize);
+			int before = total;
+			// a long run of line feeds can push the previous boundary past this one
+			if (boundaries[i - 1] > boundary) {
+				boundary = boundaries[i - 1];
+				before = characters[i - 1];
+			}
+			while (before % 4 != 0 && boundary < offset + length) {
+				if (bytes[boundary] != '\r' && bytes[boundary] != '\n')
+					before++;
+				boundary++;
+			}
+			boundaries[i] = boundary;
+			characters[i] = before;
+		}
+		
+		// except for the last segment, each segment decodes into exactly 3 bytes per 4 characters
+		final byte [] result = new byte[((total + 3) / 4) * 3];
+		final int [] decoded = new int[segments];
+		tasks.clear();
+		for (int i = 0; i < segments; i++) {
+			final int segment = i;
+			final int segmentOffset = boundaries[i];
+			final int segmentLength = boundaries[i + 1] - boundaries[i];
+			final int outputOffset = (characters[i] / 4) * 3;
+			final int outputLength = result.length - outputOffset;
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() throws IOException {
+					ByteBuffer output = IOUtils.wrap(result, outputOffset, outputLength, false);
+					Base64Decoder decoder = new Base64Decoder();
+					decoder.setUseBase64Url(useBase64Url);
+					decoder.transcode(IOUtils.wrap(bytes, segmentOffset, segmentLength, true), output);
+					decoder.flush(output);
+					decoded[segment] = (int) output.remainingData();
+					return null;
+				}
+			});
+		}
+		run(pool, tasks);
+		
+		for (int i = 0; i < segments - 1; i++) {
+			// padding in the middle of the data, the output positions are off so we have to do it in one go
+			if (decoded[i] != ((characters[i + 1] - characters[i]) / 4) * 3)
+				return decodeSegment(bytes, offset, length, useBase64Url);
+		}
+		int size = ((characters[segments - 1] / 4) * 3) + decoded[segments - 1];
+		return size == result.length ? result : Arrays.copyOf(result, size);
+	}
+	
+	private static byte [] decodeSegment(byte [] bytes, int offset, int length, boolean useBase64Url) throws IOException {
+		Base64Decoder decoder = new Base64Decoder();
+		decoder.setUseBase64Url(useBase64Url);
+		return IOUtils.toBytes(TranscoderUtils.transcodeBytes(IOUtils.wrap(bytes, offset, length, true), decoder));
+	}
+	
+	private static int countCharacters(byte [] bytes, int start, int end) {
+		int count = 0;
+		for (int i = start; i < end; i++) {
+			if (bytes[i] != '\r' && bytes[i] != '\n')
+				count++;
+		}
+		return count;
+	}
+	
+	private static Base64Encoder newEncoder(boolean useBase64Url, int bytesPerLine) {
+		Base64Encoder encoder = new Base64Encoder();
+		encoder.setUseBase64Url(useBase64Url);
+		encoder.setBytesPerLine(bytesPerLine);
+		return encoder;
+	}
+	
+	private static void run(ForkJoinPool pool, List<Callable<Void>> tasks) throws IOException {
+		// not worth the overhead
+		if (tasks.size() == 1) {
+			try {
+				tasks.get(0).call();
+			}
+			catch (IOException e) {
+				throw e;
+			}
+			catch (Exception e) {
+				throw new IOException(e);
+			}
+			return;
+		}
+		for (Future<Void> future : pool.invokeAll(tasks)) {
+			try {
+				future.get();
+			}
+			catch (InterruptedException e) {
+				throw new IOException(e);
+			}
+			catch (ExecutionException e) {
+				if (e.getCause() instanceof IOException)
+					throw (IOException) e.getCause();
+				throw new IOException(e.getCause());
+			}
+		}
+	}
+	
+	private static int gcd(int a, int b) {
+		return b == 0 ? a : gcd(b, a % b);
+	}
+}
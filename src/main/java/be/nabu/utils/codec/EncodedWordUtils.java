@@ -0,0 +1,195 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.utils.codec;
+
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import be.nabu.utils.codec.api.Transcoder;
+import be.nabu.utils.codec.impl.Base64Decoder;
+import be.nabu.utils.codec.impl.Base64Encoder;
+import be.nabu.utils.codec.impl.QuotedPrintableCharacterSet;
+import be.nabu.utils.codec.impl.QuotedPrintableDecoder;
+import be.nabu.utils.codec.impl.QuotedPrintableEncoder;
+import be.nabu.utils.codec.impl.QuotedPrintableEncoding;
+import be.nabu.utils.io.IOUtils;
+import be.nabu.utils.io.api.ByteBuffer;
+
+/**
+ * Encodes and decodes the encoded words of rfc2047 that are used in mail headers: =?charset?Q?...?= or =?charset?B?...?=
+ * When encoding, the shortest of both forms is used
+ * Encoded words are at most 75 characters long, longer text is split into multiple words, always on character boundaries and each word can be decoded on its own
+ */
+public class EncodedWordUtils {
+
+	/**
+	 * The maximum length of a single encoded word
+	 */
+	public static final int MAX_WORD_LENGTH = 75;
+	
+	private static final Pattern ENCODED_WORD = Pattern.compile("=\\?([^?\\s]+)\\?([bBqQ])\\?([^?\\s]*)\\?=");
+	
+	public static String encode(String text, Charset charset) throws IOException {
+		return encode(text, charset, "\r\n ");
+	}
+	
+	/**
+	 * Encodes the text into one or more encoded words, they are separated by the given whitespace (e.g. "\r\n " to fold the header)
+	 */
+	public static String encode(String text, Charset charset, String separator) throws IOException {
+		QuotedPrintableCharacterSet characterSet = QuotedPrintableEncoding.WORD.getCharacterSet();
+		CharsetEncoder encoder = charset.newEncoder();
+		
+		// pick the shortest encoding for the text as a whole
+		byte [] bytes = encode(encoder, text, 0, text.length());
+		boolean useQ = getQLength(characterSet, bytes) <= getBLength(bytes);
+		String prefix = "=?" + charset.name() + (useQ ? "?Q?" : "?B?");
+		int available = MAX_WORD_LENGTH - prefix.length() - 2;
+		
+		StringBuilder builder = new StringBuilder();
+		int start = 0;
+		while (start < text.length()) {
+			// add characters as long as the word fits, a word always has at least one character
+			int end = next(text, start);
+			byte [] word = encode(encoder, text, start, end);
+			while (end < text.length()) {
+				int next = next(text, end);
+				byte [] candidate = encode(encoder, text, start, next);
+				if ((useQ ? getQLength(characterSet, candidate) : getBLength(candidate)) > available)
+					break;
+				word = candidate;
+				end = next;
+			}
+			if (builder.length() > 0)
+				builder.append(separator);
+			builder.append(prefix);
+			Transcoder<ByteBuffer> transcoder;
+			if (useQ)
+				transcoder = new QuotedPrintableEncoder(characterSet);
+			else {
+				Base64Encoder base64 = new Base64Encoder();
+				base64.setBytesPerLine(0);
+				transcoder = base64;
+			}
+			builder.append(new String(transcode(word, 0, word.length, transcoder), "ASCII"));
+			builder.append("?=");
+			start = end;
+		}
+		return builder.toString();
+	}
+	
+	/**
+	 * Every word is encoded on its own (the encoder is reset and flushed) so stateful charsets (e.g. ISO-2022-JP) start and end each word in their initial state
+	 */
+	private static byte [] encode(CharsetEncoder encoder, String text, int start, int end) throws CharacterCodingException {
+		java.nio.ByteBuffer encoded = encoder.encode(CharBuffer.wrap(text, start, end));
+		byte [] bytes = new byte[encoded.remaining()];
+		encoded.get(bytes);
+		return bytes;
+	}
+	
+	private static int next(String text, int index) {
+		return index + Character.charCount(text.codePointAt(index));
+	}
+	
+	private static int getQLength(QuotedPrintableCharacterSet characterSet, byte [] bytes) {
+		int length = 0;
+		// escaped bytes take 3 characters, all the others (including spaces which become "_") take 1
+		for (byte single : bytes)
+			length += characterSet.classify(single) == QuotedPrintableCharacterSet.ESCAPE ? 3 : 1;
+		return length;
+	}
+	
+	private static int getBLength(byte [] bytes) {
+		return ((bytes.length + 2) / 3) * 4;
+	}
+	
+	/**
+	 * Decodes all the encoded words in the text, the rest of the text is left as is
+	 * The whitespace between adjacent encoded words is dropped, if they have the same charset they are decoded together so characters that were split over words are decoded correctly
+	 * Encoded words with an unknown charset are left as is
+	 */
+	public static String decode(String text) throws IOException {
+		StringBuilder builder = new StringBuilder();
+		Matcher matcher = ENCODED_WORD.matcher(text);
+		int last = 0;
+		// the decoded bytes of the adjacent encoded words we have so far
+		byte [] pending = new byte[0];
+		int pendingLength = 0;
+		Charset pendingCharset = null;
+		while (matcher.find()) {
+			Charset charset = getCharset(matcher.group(1));
+			if (charset == null)
+				continue;
+			String between = text.substring(last, matcher.start());
+			// whitespace between adjacent encoded words is ignored (rfc2047 section 6.2)
+			boolean adjacent = pendingCharset != null && between.trim().isEmpty();
+			// we can only merge the bytes if the charset is the same
+			if (pendingCharset != null && (!adjacent || !charset.equals(pendingCharset))) {
+				builder.append(new String(pending, 0, pendingLength, pendingCharset));
+				pendingLength = 0;
+				pendingCharset = null;
+			}
+			if (!adjacent)
+				builder.append(between);
+			byte [] encoded = matcher.group(3).getBytes("ASCII");
+			Transcoder<ByteBuffer> transcoder;
+			if (matcher.group(2).equalsIgnoreCase("Q"))
+				transcoder = new QuotedPrintableDecoder(QuotedPrintableEncoding.WORD);
+			else {
+				Base64Decoder base64 = new Base64Decoder();
+				base64.setValidation(Base64Decoder.Validation.LENIENT);
+				transcoder = base64;
+			}
+			byte [] decoded = transcode(encoded, 0, encoded.length, transcoder);
+			if (pendingLength + decoded.length > pending.length)
+				pending = Arrays.copyOf(pending, Math.max(pending.length * 2, pendingLength + decoded.length));
+			System.arraycopy(decoded, 0, pending, pendingLength, decoded.length);
+			pendingLength += decoded.length;
+			pendingCharset = charset;
+			last = matcher.end();
+		}
+		if (pendingCharset != null)
+			builder.append(new String(pending, 0, pendingLength, pendingCharset));
+		builder.append(text.substring(last));
+		return builder.toString();
+	}
+	
+	private static Charset getCharset(String name) {
+		// rfc2231 allows a language to be added to the charset
+		int index = name.indexOf('*');
+		if (index >= 0)
+			name = name.substring(0, index);
+		try {
+			return Charset.forName(name);
+		}
+		catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+	
+	private static byte [] transcode(byte [] bytes, int offset, int length, Transcoder<ByteBuffer> transcoder) throws IOException {
+		return IOUtils.toBytes(TranscoderUtils.transcodeBytes(IOUtils.wrap(bytes, offset, length, true), transcoder));
+	}
+}
@@ -0,0 +1,104 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.utils.codec;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import be.nabu.utils.codec.api.ResettableTranscoder;
+
+/**
+ * A bounded pool of transcoders that all have the same configuration
+ * A released transcoder is reset and handed to the next borrower, if the pool is already full it is discarded instead
+ * Only release a transcoder once you no longer use it (or any container wrapped around it)
+ */
+public abstract class TranscoderPool<T extends ResettableTranscoder> {
+
+	private int maximumSize;
+	
+	private Deque<T> available = new ArrayDeque<T>();
+	
+	public TranscoderPool(int maximumSize) {
+		this.maximumSize = maximumSize;
+	}
+	
+	/**
+	 * Creates a new transcoder when the pool is empty
+	 */
+	protected abstract T create();
+	
+	/**
+	 * Applies the configuration of the pool, called for new transcoders and again for every released one so settings changed by a borrower do not carry over
+	 */
+	protected void configure(T transcoder) {
+		// nothing by default
+	}
+	
+	/**
+	 * Called for a released transcoder that does not fit in the pool, by default it is closed if possible
+	 */
+	protected void discard(T transcoder) {
+		if (transcoder instanceof Closeable) {
+			try {
+				((Closeable) transcoder).close();
+			}
+			catch (IOException e) {
+				// nothing to be done
+			}
+		}
+	}
+	
+	public T borrow() {
+		T transcoder;
+		synchronized(available) {
+			transcoder = available.pollFirst();
+		}
+		if (transcoder == null) {
+			transcoder = create();
+			configure(transcoder);
+		}
+		return transcoder;
+	}
+	
+	public void release(T transcoder) {
+		transcoder.reset();
+		configure(transcoder);
+		synchronized(available) {
+			if (available.size() < maximumSize) {
+				available.offerFirst(transcoder);
+				return;
+			}
+		}
+		discard(transcoder);
+	}
+	
+	/**
+	 * The amount of transcoders currently waiting in the pool
+	 */
+	public int getAvailable() {
+		synchronized(available) {
+			return available.size();
+		}
+	}
+	
+	public int getMaximumSize() {
+		return maximumSize;
+	}
+}
@@ -18,8 +18,22 @@
 package be.nabu.utils.codec;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+import be.nabu.utils.codec.api.ResettableTranscoder;
+import be.nabu.utils.codec.api.SizePredictingTranscoder;
 import be.nabu.utils.codec.api.Transcoder;
+import be.nabu.utils.codec.impl.Base64Decoder;
+import be.nabu.utils.codec.impl.Base64Decoder.Validation;
+import be.nabu.utils.codec.impl.Base64Encoder;
+import be.nabu.utils.codec.impl.DeflateTranscoder;
+import be.nabu.utils.codec.impl.DeflateTranscoder.DeflaterLevel;
+import be.nabu.utils.codec.impl.GZIPDecoder;
+import be.nabu.utils.codec.impl.GZIPEncoder;
+import be.nabu.utils.codec.impl.InflateTranscoder;
 import be.nabu.utils.codec.impl.TranscodedReadableByteContainer;
 import be.nabu.utils.codec.impl.TranscodedWritableByteContainer;
 import be.nabu.utils.io.IOUtils;
@@ -32,6 +46,21 @@ import be.nabu.utils.io.api.WritableContainer;
 
 public class TranscoderUtils {
 	
+	/**
+	 * The largest copy buffer we will allocate when we know the size of the input
+	 */
+	private static final int MAX_COPY_BUFFER_SIZE = 65536;
+	
+	/**
+	 * The amount of idle transcoders we keep per configuration
+	 */
+	private static final int POOL_SIZE = 64;
+	
+	/**
+	 * The shared pools, keyed by the transcoder type and its configuration
+	 */
+	private static Map<List<?>, TranscoderPool<?>> pools = new ConcurrentHashMap<List<?>, TranscoderPool<?>>();
+	
 	public static <T extends Buffer<T>> WritableContainer<T> wrapWritable(WritableContainer<T> container, Transcoder<T> transcoder) {
 		 return new TranscodedWritableByteContainer<T>(container, transcoder);
 	}
@@ -55,10 +84,175 @@ public class TranscoderUtils {
 	}
 	
 	public static ReadableContainer<ByteBuffer> transcodeBytes(ReadableContainer<ByteBuffer> data, Transcoder<ByteBuffer> transcoder) throws IOException {
-		return transcode(data, transcoder, IOUtils.newByteBuffer(), IOUtils.newByteBuffer(4096, true));
+		// if the data is already in memory, we know how large it is
+		return transcodeBytes(data, transcoder, data instanceof ByteBuffer ? ((ByteBuffer) data).remainingData() : -1);
+	}
+	
+	/**
+	 * If the transcoder knows its exact output size, the target is allocated once at the correct size
+	 * A maximum is not used as it can be far larger than the actual output (e.g. compression), the target grows as needed instead
+	 * The input size is also used to determine the size of the copy buffer
+	 */
+	public static ReadableContainer<ByteBuffer> transcodeBytes(ReadableContainer<ByteBuffer> data, Transcoder<ByteBuffer> transcoder, long inputSize) throws IOException {
+		long outputSize = inputSize >= 0 && transcoder instanceof SizePredictingTranscoder ? ((SizePredictingTranscoder) transcoder).getExactOutputSize(inputSize) : -1;
+		Container<ByteBuffer> container = outputSize >= 0 && outputSize <= Integer.MAX_VALUE
+			? IOUtils.wrap(new byte[(int) outputSize], false)
+			: IOUtils.newByteBuffer();
+		int bufferSize = inputSize >= 0 ? (int) Math.max(1, Math.min(inputSize, MAX_COPY_BUFFER_SIZE)) : 4096;
+		return transcode(data, transcoder, container, IOUtils.newByteBuffer(bufferSize, true));
+	}
+	
+	/**
+	 * Returns the exact output size if known, otherwise the maximum output size, -1 if the transcoder can not predict its output
+	 */
+	public static long getMaximumOutputSize(Transcoder<?> transcoder, long inputSize) {
+		if (transcoder instanceof SizePredictingTranscoder) {
+			long exact = ((SizePredictingTranscoder) transcoder).getExactOutputSize(inputSize);
+			return exact >= 0 ? exact : ((SizePredictingTranscoder) transcoder).getMaximumOutputSize(inputSize);
+		}
+		return -1;
 	}
 	
 	public static ReadableContainer<CharBuffer> transcodeChars(ReadableContainer<CharBuffer> data, Transcoder<CharBuffer> transcoder) throws IOException {
 		return transcode(data, transcoder, IOUtils.newCharBuffer(), IOUtils.newCharBuffer(4096, true));
 	}
+	
+	/**
+	 * Returns the shared pool for the given configuration, if there is none yet the given pool is registered
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T extends ResettableTranscoder> TranscoderPool<T> getPool(List<?> configuration, TranscoderPool<T> pool) {
+		TranscoderPool<?> existing = pools.get(configuration);
+		if (existing == null) {
+			existing = pools.putIfAbsent(configuration, pool);
+			if (existing == null)
+				existing = pool;
+		}
+		return (TranscoderPool<T>) existing;
+	}
+	
+	@SuppressWarnings("unchecked")
+	public static TranscoderPool<DeflateTranscoder> getDeflatePool(final DeflaterLevel level, final boolean noWrap) {
+		List<?> configuration = Arrays.asList(DeflateTranscoder.class, level, noWrap);
+		TranscoderPool<DeflateTranscoder> pool = (TranscoderPool<DeflateTranscoder>) pools.get(configuration);
+		return pool != null ? pool : getPool(configuration, new DeflatePool<DeflateTranscoder>() {
+			@Override
+			protected DeflateTranscoder newTranscoder() {
+				return new DeflateTranscoder(level, noWrap);
+			}
+		});
+	}
+	
+	@SuppressWarnings("unchecked")
+	public static TranscoderPool<GZIPEncoder> getGZIPEncoderPool(final DeflaterLevel level) {
+		List<?> configuration = Arrays.asList(GZIPEncoder.class, level);
+		TranscoderPool<GZIPEncoder> pool = (TranscoderPool<GZIPEncoder>) pools.get(configuration);
+		return pool != null ? pool : getPool(configuration, new DeflatePool<GZIPEncoder>() {
+			@Override
+			protected GZIPEncoder newTranscoder() {
+				return new GZIPEncoder(level);
+			}
+		});
+	}
+	
+	@SuppressWarnings("unchecked")
+	public static TranscoderPool<InflateTranscoder> getInflatePool(final boolean noWrap) {
+		List<?> configuration = Arrays.asList(InflateTranscoder.class, noWrap);
+		TranscoderPool<InflateTranscoder> pool = (TranscoderPool<InflateTranscoder>) pools.get(configuration);
+		return pool != null ? pool : getPool(configuration, new InflatePool<InflateTranscoder>() {
+			@Override
+			protected InflateTranscoder newTranscoder() {
+				return new InflateTranscoder(noWrap);
+			}
+		});
+	}
+	
+	@SuppressWarnings("unchecked")
+	public static TranscoderPool<GZIPDecoder> getGZIPDecoderPool() {
+		List<?> configuration = Arrays.asList(GZIPDecoder.class);
+		TranscoderPool<GZIPDecoder> pool = (TranscoderPool<GZIPDecoder>) pools.get(configuration);
+		return pool != null ? pool : getPool(configuration, new InflatePool<GZIPDecoder>() {
+			@Override
+			protected GZIPDecoder newTranscoder() {
+				return new GZIPDecoder();
+			}
+		});
+	}
+	
+	@SuppressWarnings("unchecked")
+	public static TranscoderPool<Base64Encoder> getBase64EncoderPool(final boolean useBase64Url, final int bytesPerLine) {
+		List<?> configuration = Arrays.asList(Base64Encoder.class, useBase64Url, bytesPerLine);
+		TranscoderPool<Base64Encoder> pool = (TranscoderPool<Base64Encoder>) pools.get(configuration);
+		return pool != null ? pool : getPool(configuration, new TranscoderPool<Base64Encoder>(POOL_SIZE) {
+			@Override
+			protected Base64Encoder create() {
+				return new Base64Encoder();
+			}
+			@Override
+			protected void configure(Base64Encoder encoder) {
+				encoder.setUseBase64Url(useBase64Url);
+				encoder.setBytesPerLine(bytesPerLine);
+				encoder.setUseWideTables(false);
+				encoder.setUseIntrinsics(false);
+			}
+		});
+	}
+	
+	@SuppressWarnings("unchecked")
+	public static TranscoderPool<Base64Decoder> getBase64DecoderPool(final boolean useBase64Url) {
+		List<?> configuration = Arrays.asList(Base64Decoder.class, useBase64Url);
+		TranscoderPool<Base64Decoder> pool = (TranscoderPool<Base64Decoder>) pools.get(configuration);
+		return pool != null ? pool : getPool(configuration, new TranscoderPool<Base64Decoder>(POOL_SIZE) {
+			@Override
+			protected Base64Decoder create() {
+				return new Base64Decoder();
+			}
+			@Override
+			protected void configure(Base64Decoder decoder) {
+				decoder.setUseBase64Url(useBase64Url);
+				decoder.setValidation(Validation.NONE);
+				decoder.setUseWideTables(false);
+				decoder.setUseIntrinsics(false);
+			}
+		});
+	}
+	
+	/**
+	 * Pooled zlib transcoders keep their native state when they finish or are closed, it is only released when they are discarded
+	 */
+	private static abstract class DeflatePool<T extends DeflateTranscoder> extends TranscoderPool<T> {
+		public DeflatePool() {
+			super(POOL_SIZE);
+		}
+		protected abstract T newTranscoder();
+		@Override
+		protected T create() {
+			T transcoder = newTranscoder();
+			transcoder.setReusable(true);
+			return transcoder;
+		}
+		@Override
+		protected void discard(T transcoder) {
+			transcoder.setReusable(false);
+			transcoder.close();
+		}
+	}
+	
+	private static abstract class InflatePool<T extends InflateTranscoder> extends TranscoderPool<T> {
+		public InflatePool() {
+			super(POOL_SIZE);
+		}
+		protected abstract T newTranscoder();
+		@Override
+		protected T create() {
+			T transcoder = newTranscoder();
+			transcoder.setReusable(true);
+			return transcoder;
+		}
+		@Override
+		protected void discard(T transcoder) {
+			transcoder.setReusable(false);
+			transcoder.close();
+		}
+	}
 }
@@ -0,0 +1,26 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.utils.codec.api;
+
+/**
+ * A transcoder that can be reused for a new stream, a reset returns it to the state it had right after it was created
+ * The configuration (e.g. alphabet, line length, compression level) is kept as are the internal arrays and native resources
+ */
+public interface ResettableTranscoder {
+	public void reset();
+}
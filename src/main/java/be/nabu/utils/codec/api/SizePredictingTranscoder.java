@@ -0,0 +1,34 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.utils.codec.api;
+
+/**
+ * Some transcoders can predict how large their output will be for a given amount of input, this allows for example for presizing buffers
+ * The predictions are for a transcoder that has not yet transcoded anything and only take the given input into account
+ */
+public interface SizePredictingTranscoder {
+	/**
+	 * The exact amount of bytes the input will be transcoded into or -1 if this can not be known up front
+	 */
+	public long getExactOutputSize(long inputSize);
+	
+	/**
+	 * An upper bound for the amount of bytes the input will be transcoded into or -1 if there is no upper bound
+	 */
+	public long getMaximumOutputSize(long inputSize);
+}
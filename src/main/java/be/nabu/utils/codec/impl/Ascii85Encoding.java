@@ -0,0 +1,144 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.utils.codec.impl;
+
+import java.io.IOException;
+
+/**
+ * The ascii85 encoding used by adobe (e.g. in pdf streams): 4 bytes are encoded into 5 characters in the range "!" to "u"
+ * A group of 4 zero bytes is encoded as a single "z", a partial final group of n bytes is encoded into n + 1 characters
+ * The optional "<~" and "~>" delimiters are not part of the encoding, they should be added or removed by the caller
+ */
+public class Ascii85Encoding extends RadixEncoding {
+
+	private static final String ALPHABET; static {
+		StringBuilder builder = new StringBuilder();
+		for (char character = '!'; character <= 'u'; character++)
+			builder.append(character);
+		ALPHABET = builder.toString();
+	}
+	
+	public Ascii85Encoding() {
+		super(4, 5, ALPHABET, (char) 0);
+	}
+	
+	@Override
+	public int encode(byte [] input, int offset, int length, byte [] output, int position) {
+		for (int i = offset; i < offset + length; i += 4) {
+			long value = ((long) (input[i] & 0xff) << 24) | ((input[i + 1] & 0xff) << 16) | ((input[i + 2] & 0xff) << 8) | (input[i + 3] & 0xff);
+			if (value == 0)
+				output[position++] = 'z';
+			else {
+				output[position + 4] = (byte) ('!' + (value % 85));
+				value /= 85;
+				output[position + 3] = (byte) ('!' + (value % 85));
+				value /= 85;
+				output[position + 2] = (byte) ('!' + (value % 85));
+				value /= 85;
+				output[position + 1] = (byte) ('!' + (value % 85));
+				output[position] = (byte) ('!' + (value / 85));
+				position += 5;
+			}
+		}
+		return position;
+	}
+
+	@Override
+	public int encodePartial(byte [] input, int offset, int length, byte [] output, int position) {
+		long value = 0;
+		for (int i = 0; i < 4; i++)
+			value = (value << 8) | (i < length ? input[offset + i] & 0xff : 0);
+		byte [] characters = new byte[5];
+		for (int i = 4; i >= 0; i--) {
+			characters[i] = (byte) ('!' + (value % 85));
+			value /= 85;
+		}
+		System.arraycopy(characters, 0, output, position, length + 1);
+		return position + length + 1;
+	}
+	
+	@Override
+	protected int getPartialLength(int length) {
+		return length + 1;
+	}
+
+	@Override
+	public int decode(byte [] input, int offset, int length, byte [] output, int position) throws IOException {
+		int quanta = 0;
+		for (int i = offset; i + 5 <= offset + length; i += 5) {
+			int a = values[input[i] & 0xff], b = values[input[i + 1] & 0xff], c = values[input[i + 2] & 0xff], d = values[input[i + 3] & 0xff], e = values[input[i + 4] & 0xff];
+			if ((a | b | c | d | e) < 0)
+				break;
+			long value = (((((((long) a * 85) + b) * 85 + c) * 85) + d) * 85) + e;
+			if (value > 0xffffffffL)
+				throw new IOException("Invalid ascii85 group, the value is too large");
+			output[position++] = (byte) (value >>> 24);
+			output[position++] = (byte) (value >>> 16);
+			output[position++] = (byte) (value >>> 8);
+			output[position++] = (byte) value;
+			quanta++;
+		}
+		return quanta;
+	}
+
+	@Override
+	public int decodePartial(byte [] input, int offset, int length, byte [] output, int position) throws IOException {
+		if (length < 2)
+			throw new IOException("Invalid length for the last ascii85 group: " + length);
+		long value = 0;
+		// pad with the highest character
+		for (int i = 0; i < 5; i++)
+			value = (value * 85) + (i < length ? values[input[offset + i] & 0xff] : 84);
+		if (value > 0xffffffffL)
+			throw new IOException("Invalid ascii85 group, the value is too large");
+		for (int i = 0; i < length - 1; i++)
+			output[position++] = (byte) (value >>> (24 - (i * 8)));
+		return position;
+	}
+
+	@Override
+	public int decodeSpecial(byte character, byte [] output, int position) {
+		if (character == 'z') {
+			for (int i = 0; i < 4; i++)
+				output[position++] = 0;
+			return position;
+		}
+		return -1;
+	}
+
+	/**
+	 * All whitespace is ignored
+	 */
+	@Override
+	public boolean isIgnorable(byte character) {
+		return character == '\r' || character == '\n' || character == ' ' || character == '\t' || character == '\f' || character == 0;
+	}
+
+	@Override
+	public boolean isFixedLength() {
+		return false;
+	}
+
+	/**
+	 * Every "z" is decoded into 4 bytes
+	 */
+	@Override
+	public long getMaximumDecodedLength(long characters) {
+		return characters * 4;
+	}
+}
@@ -0,0 +1,310 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.utils.codec.impl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import be.nabu.utils.codec.api.ResettableTranscoder;
+import be.nabu.utils.codec.api.Transcoder;
+import be.nabu.utils.io.IOUtils;
+import be.nabu.utils.io.api.ByteBuffer;
+import be.nabu.utils.io.api.ReadableContainer;
+import be.nabu.utils.io.api.WritableContainer;
+import be.nabu.utils.io.buffers.bytes.DynamicByteBuffer;
+
+/**
+ * Decompresses blocked gzip (BGZF) on multiple cores
+ * The size of every block is read from its header so the blocks can be gathered without inflating them, they are inflated concurrently and written in order
+ * Only BGZF data is supported, regular gzip files can be decoded with the GZIPDecoder (which also accepts BGZF)
+ */
+public class BGZFDecoder implements Transcoder<ByteBuffer>, ResettableTranscoder, Closeable {
+
+	/**
+	 * The fixed gzip header and the length of the extra field
+	 */
+	private static final int FIXED_SIZE = 12;
+	
+	private ExecutorService executor;
+	
+	/**
+	 * The maximum amount of blocks being inflated (or waiting to be written) at any time
+	 */
+	private int maxPending = Runtime.getRuntime().availableProcessors() * 2;
+	
+	private DynamicByteBuffer outputBuffer = new DynamicByteBuffer();
+	
+	private Deque<Future<Block>> pending = new ArrayDeque<Future<Block>>();
+	
+	/**
+	 * Inflaters that are not in use by a task, they are reused for the next blocks
+	 */
+	private Queue<Inflater> inflaters = new ConcurrentLinkedQueue<Inflater>();
+	
+	/**
+	 * Block arrays whose data has been written
+	 */
+	private Deque<byte []> free = new ArrayDeque<byte []>();
+	
+	/**
+	 * The block we are currently reading, we first need the fixed header, then the extra field and then the rest of the block
+	 */
+	private byte [] block;
+	
+	private int filled, needed = FIXED_SIZE, extraLength = -1, blockSize = -1;
+	
+	/**
+	 * The offset of the current block in the compressed data
+	 */
+	private long offset;
+	
+	private boolean eof;
+	
+	public BGZFDecoder() {
+		this(ForkJoinPool.commonPool());
+	}
+	
+	public BGZFDecoder(ExecutorService executor) {
+		this.executor = executor;
+	}
+	
+	@Override
+	public void transcode(ReadableContainer<ByteBuffer> in, WritableContainer<ByteBuffer> out) throws IOException {
+		if (outputBuffer.remainingData() == IOUtils.copyBytes(outputBuffer, out)) {
+			writeBlocks(out, false);
+			while (outputBuffer.remainingData() == 0 && !eof) {
+				if (block == null)
+					block = free.isEmpty() ? new byte[BGZFEncoder.MAX_BLOCK_SIZE] : free.pop();
+				if (filled == needed) {
+					// don't queue up too much work, wait for the oldest block instead
+					if (blockSize > 0 && pending.size() >= maxPending) {
+						writeBlock(out, pending.peekFirst());
+						continue;
+					}
+					next();
+					continue;
+				}
+				int read = (int) in.read(IOUtils.wrap(block, filled, needed - filled, false));
+				if (read == -1) {
+					if (filled > 0)
+						throw new IOException("The data ends in the middle of the block at offset " + offset);
+					eof = true;
+					break;
+				}
+				else if (read == 0)
+					break;
+				filled += read;
+				writeBlocks(out, false);
+			}
+			writeBlocks(out, false);
+		}
+	}
+	
+	/**
+	 * Moves on once we have all the data we need for the current part of the block
+	 */
+	private void next() throws IOException {
+		if (extraLength < 0) {
+			// a bgzf block has the extra field and no other optional fields
+			if (block[0] != (byte) GZIPEncoder.MAGIC_NUMBER || block[1] != (byte) (GZIPEncoder.MAGIC_NUMBER >> 8) || block[2] != Deflater.DEFLATED || block[3] != 4)
+				throw new IOException("The data at offset " + offset + " is not a bgzf block");
+			extraLength = readShort(block, 10);
+			needed += extraLength;
+			if (needed + BGZFEncoder.FOOTER_SIZE > BGZFEncoder.MAX_BLOCK_SIZE)
+				throw new IOException("The block at offset " + offset + " has an invalid extra field");
+		}
+		else if (blockSize < 0) {
+			// look for the "BC" subfield that contains the block size minus one
+			for (int i = FIXED_SIZE; i + 4 <= needed; i += 4 + readShort(block, i + 2)) {
+				if (block[i] == 'B' && block[i + 1] == 'C' && readShort(block, i + 2) == 2 && i + 6 <= needed) {
+					blockSize = readShort(block, i + 4) + 1;
+					break;
+				}
+			}
+			if (blockSize < 0)
+				throw new IOException("The block at offset " + offset + " does not contain its size");
+			else if (blockSize < needed + BGZFEncoder.FOOTER_SIZE)
+				throw new IOException("The block at offset " + offset + " has an invalid size: " + blockSize);
+			needed = blockSize;
+		}
+		else
+			submit();
+	}
+	
+	private void submit() {
+		final byte [] data = block;
+		final int length = blockSize;
+		final int start = FIXED_SIZE + extraLength;
+		final long blockOffset = offset;
+		pending.add(executor.submit(new Callable<Block>() {
+			@Override
+			public Block call() throws Exception {
+				return inflate(data, start, length, blockOffset);
+			}
+		}));
+		offset += length;
+		block = null;
+		filled = 0;
+		needed = FIXED_SIZE;
+		extraLength = -1;
+		blockSize = -1;
+	}
+	
+	private Block inflate(byte [] data, int start, int length, long offset) throws IOException {
+		long expectedCRC = readInt(data, length - 8);
+		long size = readInt(data, length - 4);
+		if (size > BGZFEncoder.MAX_BLOCK_SIZE)
+			throw new IOException("The block at offset " + offset + " is too large: " + size);
+		Inflater inflater = inflaters.poll();
+		if (inflater == null) {
+			inflater = new Inflater(true);
+			ZlibStatistics.allocate(inflater, false);
+		}
+		try {
+			// one byte more than expected so we notice if there is too much data
+			byte [] inflated = new byte[(int) size + 1];
+			inflater.setInput(data, start, length - start - BGZFEncoder.FOOTER_SIZE);
+			int position = 0;
+			while (!inflater.finished() && position < inflated.length) {
+				int read = inflater.inflate(inflated, position, inflated.length - position);
+				if (read == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+					break;
+				position += read;
+			}
+			if (!inflater.finished() || position != size)
+				throw new IOException("The block at offset " + offset + " is corrupt");
+			CRC32 crc = new CRC32();
+			crc.update(inflated, 0, position);
+			if (crc.getValue() != expectedCRC)
+				throw new IOException("The crc of the block at offset " + offset + " is incorrect");
+			return new Block(data, inflated, position);
+		}
+		catch (DataFormatException e) {
+			throw new IOException("The block at offset " + offset + " is corrupt", e);
+		}
+		finally {
+			inflater.reset();
+			inflaters.offer(inflater);
+		}
+	}
+	
+	/**
+	 * Writes the blocks that are done in order, optionally waiting for them
+	 */
+	private void writeBlocks(WritableContainer<ByteBuffer> out, boolean wait) throws IOException {
+		while (outputBuffer.remainingData() == 0 && !pending.isEmpty() && (wait || pending.peekFirst().isDone()))
+			writeBlock(out, pending.peekFirst());
+	}
+	
+	private void writeBlock(WritableContainer<ByteBuffer> out, Future<Block> future) throws IOException {
+		Block result;
+		try {
+			result = future.get();
+		}
+		catch (InterruptedException e) {
+			throw new IOException(e);
+		}
+		catch (ExecutionException e) {
+			throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+		}
+		pending.removeFirst();
+		int written = outputBuffer.remainingData() == 0 ? (int) out.write(IOUtils.wrap(result.inflated, 0, result.length, true)) : 0;
+		if (written < result.length)
+			outputBuffer.write(result.inflated, written, result.length - written);
+		free.push(result.compressed);
+	}
+	
+	private static int readShort(byte [] bytes, int offset) {
+		return (bytes[offset] & 0xff) | ((bytes[offset + 1] & 0xff) << 8);
+	}
+	
+	private static long readInt(byte [] bytes, int offset) {
+		return ((long) readShort(bytes, offset + 2) << 16) | readShort(bytes, offset);
+	}
+	
+	@Override
+	public void flush(WritableContainer<ByteBuffer> out) throws IOException {
+		if (filled > 0)
+			throw new IOException("The data ends in the middle of the block at offset " + offset);
+		// wait for everything that is still being inflated, whatever does not fit in the output is buffered
+		while (!pending.isEmpty())
+			writeBlock(out, pending.peekFirst());
+		IOUtils.copyBytes(outputBuffer, out);
+		if (outputBuffer.remainingData() > 0)
+			throw new IOException("Not enough space in the target to finish the decompression");
+		close();
+	}
+	
+	/**
+	 * Releases the native state of the inflaters that are not in use
+	 */
+	@Override
+	public void close() {
+		Inflater inflater;
+		while ((inflater = inflaters.poll()) != null) {
+			inflater.end();
+			ZlibStatistics.release(inflater);
+		}
+	}
+	
+	@Override
+	public void reset() {
+		for (Future<Block> future : pending)
+			future.cancel(false);
+		pending.clear();
+		outputBuffer.truncate();
+		filled = 0;
+		needed = FIXED_SIZE;
+		extraLength = -1;
+		blockSize = -1;
+		offset = 0;
+		eof = false;
+	}
+
+	public int getMaxPending() {
+		return maxPending;
+	}
+
+	public void setMaxPending(int maxPending) {
+		this.maxPending = Math.max(1, maxPending);
+	}
+	
+	private static class Block {
+		private byte [] compressed, inflated;
+		private int length;
+		
+		public Block(byte [] compressed, byte [] inflated, int length) {
+			this.compressed = compressed;
+			this.inflated = inflated;
+			this.length = length;
+		}
+	}
+}
@@ -0,0 +1,220 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.utils.codec.impl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.zip.CRC32;
+
+import be.nabu.utils.codec.api.ResettableTranscoder;
+import be.nabu.utils.codec.api.SizePredictingTranscoder;
+import be.nabu.utils.codec.api.Transcoder;
+import be.nabu.utils.codec.impl.DeflateTranscoder.DeflaterLevel;
+import be.nabu.utils.io.IOUtils;
+import be.nabu.utils.io.api.ByteBuffer;
+import be.nabu.utils.io.api.ReadableContainer;
+import be.nabu.utils.io.api.WritableContainer;
+import be.nabu.utils.io.buffers.bytes.DynamicByteBuffer;
+
+/**
+ * Compresses into blocked gzip (BGZF, as used by samtools/htslib): a series of independent gzip members of at most 64kb
+ * Every member records its own size in a "BC" subfield of the extra field so a reader can find the blocks without inflating them, this allows for parallel decompression and seeking
+ * The output ends with the standard empty end of file block and remains a valid (multi member) gzip file
+ */
+public class BGZFEncoder implements Transcoder<ByteBuffer>, SizePredictingTranscoder, ResettableTranscoder, Closeable {
+
+	/**
+	 * The maximum size of a compressed block including header and footer
+	 */
+	public static final int MAX_BLOCK_SIZE = 65536;
+	
+	/**
+	 * The maximum amount of data in a block, even if it can not be compressed the block stays within the maximum size
+	 */
+	public static final int MAX_INPUT_SIZE = 65280;
+	
+	/**
+	 * The size of the header of a block: the gzip header, the extra length and the "BC" subfield
+	 */
+	static final int HEADER_SIZE = 18;
+	
+	/**
+	 * The crc and the size
+	 */
+	static final int FOOTER_SIZE = 8;
+	
+	/**
+	 * The empty block that marks the end of the file
+	 */
+	static final byte [] EOF_BLOCK = new byte [] {
+		0x1f, (byte) 0x8b, 8, 4, 0, 0, 0, 0, 0, (byte) 0xff, 6, 0, 'B', 'C', 2, 0, 0x1b, 0, 3, 0, 0, 0, 0, 0, 0, 0, 0, 0
+	};
+	
+	private DeflateTranscoder deflater;
+	
+	private DynamicByteBuffer outputBuffer = new DynamicByteBuffer();
+	
+	private CRC32 crc = new CRC32();
+	
+	private byte [] input, block;
+	
+	private int filled;
+	
+	private int inputSize = MAX_INPUT_SIZE;
+	
+	private boolean finished;
+	
+	public BGZFEncoder() {
+		this(DeflaterLevel.BEST_SPEED);
+	}
+	
+	public BGZFEncoder(DeflaterLevel level) {
+		deflater = new DeflateTranscoder(level, true);
+		deflater.setReusable(true);
+	}
+	
+	@Override
+	public void transcode(ReadableContainer<ByteBuffer> in, WritableContainer<ByteBuffer> out) throws IOException {
+		allocate();
+		if (outputBuffer.remainingData() == IOUtils.copyBytes(outputBuffer, out)) {
+			while (outputBuffer.remainingData() == 0 && !finished) {
+				if (filled == input.length)
+					writeBlock(out);
+				int read = (int) in.read(IOUtils.wrap(input, filled, input.length - filled, false));
+				if (read == -1) {
+					finish(out);
+					break;
+				}
+				else if (read == 0)
+					break;
+				filled += read;
+			}
+		}
+	}
+	
+	/**
+	 * Compresses the gathered input into a single member
+	 */
+	private void writeBlock(WritableContainer<ByteBuffer> out) throws IOException {
+		deflater.reset();
+		java.nio.ByteBuffer source = java.nio.ByteBuffer.wrap(input, 0, filled);
+		java.nio.ByteBuffer target = java.nio.ByteBuffer.wrap(block, HEADER_SIZE, block.length - HEADER_SIZE - FOOTER_SIZE);
+		while (!deflater.isFinished()) {
+			if (deflater.deflate(source, target, true) == 0 && !target.hasRemaining())
+				throw new IOException("The compressed block does not fit in " + MAX_BLOCK_SIZE + " bytes");
+		}
+		int size = target.position() + FOOTER_SIZE;
+		System.arraycopy(EOF_BLOCK, 0, block, 0, HEADER_SIZE);
+		// the block size minus one
+		block[16] = (byte) (size - 1);
+		block[17] = (byte) ((size - 1) >> 8);
+		crc.reset();
+		crc.update(input, 0, filled);
+		writeInt(block, target.position(), crc.getValue());
+		writeInt(block, target.position() + 4, filled);
+		write(out, block, size);
+		filled = 0;
+	}
+	
+	private void finish(WritableContainer<ByteBuffer> out) throws IOException {
+		if (filled > 0)
+			writeBlock(out);
+		write(out, EOF_BLOCK, EOF_BLOCK.length);
+		finished = true;
+	}
+	
+	private void allocate() {
+		if (input == null) {
+			input = new byte[inputSize];
+			block = new byte[MAX_BLOCK_SIZE];
+		}
+	}
+	
+	static void writeInt(byte [] bytes, int offset, long value) {
+		bytes[offset] = (byte) value;
+		bytes[offset + 1] = (byte) (value >> 8);
+		bytes[offset + 2] = (byte) (value >> 16);
+		bytes[offset + 3] = (byte) (value >> 24);
+	}
+	
+	private void write(WritableContainer<ByteBuffer> out, byte [] bytes, int length) throws IOException {
+		int written = outputBuffer.remainingData() == 0 ? (int) out.write(IOUtils.wrap(bytes, 0, length, true)) : 0;
+		if (written < length)
+			outputBuffer.write(bytes, written, length - written);
+	}
+	
+	@Override
+	public void flush(WritableContainer<ByteBuffer> out) throws IOException {
+		if (!finished) {
+			allocate();
+			finish(out);
+		}
+		IOUtils.copyBytes(outputBuffer, out);
+		if (outputBuffer.remainingData() > 0)
+			throw new IOException("Not enough space in the target to finish the compression");
+		close();
+	}
+	
+	/**
+	 * Releases the native state of the deflater, a reset() sets up a new one
+	 */
+	@Override
+	public void close() {
+		deflater.setReusable(false);
+		deflater.close();
+		deflater.setReusable(true);
+	}
+	
+	@Override
+	public void reset() {
+		deflater.reset();
+		outputBuffer.truncate();
+		filled = 0;
+		finished = false;
+	}
+
+	/**
+	 * The size depends on how compressible the data is
+	 */
+	@Override
+	public long getExactOutputSize(long inputSize) {
+		return -1;
+	}
+
+	/**
+	 * Every block stays within the deflate bound of its input, with the block header and footer
+	 */
+	@Override
+	public long getMaximumOutputSize(long inputSize) {
+		long blocks = (inputSize + this.inputSize - 1) / this.inputSize;
+		return inputSize + (inputSize >> 12) + (inputSize >> 14) + blocks * (13 + HEADER_SIZE + FOOTER_SIZE) + EOF_BLOCK.length;
+	}
+
+	public int getInputSize() {
+		return inputSize;
+	}
+
+	/**
+	 * The amount of data per block, smaller blocks allow for more fine grained seeking at the cost of compression
+	 */
+	public void setInputSize(int inputSize) {
+		if (input != null)
+			throw new IllegalStateException("Can not change the input size once transcoding has started");
+		this.inputSize = Math.max(1024, Math.min(MAX_INPUT_SIZE, inputSize));
+	}
+}
@@ -0,0 +1,103 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.utils.codec.impl;
+
+import java.io.IOException;
+
+/**
+ * Base32 as described in rfc4648: 5 bytes are encoded into 8 characters, padding is done with "="
+ * The "extended hex" alphabet keeps the sort order of the original data
+ */
+public class Base32Encoding extends RadixEncoding {
+
+	public static final String ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZ234567";
+	public static final String HEX_ALPHABET = "0123456789ABCDEFGHIJKLMNOPQRSTUV";
+	
+	public Base32Encoding() {
+		this(false);
+	}
+	
+	public Base32Encoding(boolean useHexAlphabet) {
+		super(5, 8, useHexAlphabet ? HEX_ALPHABET : ALPHABET, '=');
+	}
+	
+	@Override
+	public int encode(byte [] input, int offset, int length, byte [] output, int position) {
+		for (int i = offset; i < offset + length; i += 5) {
+			long value = ((long) (input[i] & 0xff) << 32) | ((long) (input[i + 1] & 0xff) << 24) | ((input[i + 2] & 0xff) << 16) | ((input[i + 3] & 0xff) << 8) | (input[i + 4] & 0xff);
+			output[position++] = alphabet[(int) (value >>> 35) & 31];
+			output[position++] = alphabet[(int) (value >>> 30) & 31];
+			output[position++] = alphabet[(int) (value >>> 25) & 31];
+			output[position++] = alphabet[(int) (value >>> 20) & 31];
+			output[position++] = alphabet[(int) (value >>> 15) & 31];
+			output[position++] = alphabet[(int) (value >>> 10) & 31];
+			output[position++] = alphabet[(int) (value >>> 5) & 31];
+			output[position++] = alphabet[(int) value & 31];
+		}
+		return position;
+	}
+
+	@Override
+	public int encodePartial(byte [] input, int offset, int length, byte [] output, int position) {
+		long value = 0;
+		for (int i = 0; i < 5; i++)
+			value = (value << 8) | (i < length ? input[offset + i] & 0xff : 0);
+		int characters = getPartialLength(length);
+		for (int i = 0; i < characters; i++)
+			output[position++] = alphabet[(int) (value >>> (35 - (i * 5))) & 31];
+		return position;
+	}
+	
+	@Override
+	protected int getPartialLength(int length) {
+		return ((length * 8) + 4) / 5;
+	}
+
+	@Override
+	public int decode(byte [] input, int offset, int length, byte [] output, int position) {
+		int quanta = 0;
+		for (int i = offset; i + 8 <= offset + length; i += 8) {
+			int a = values[input[i] & 0xff], b = values[input[i + 1] & 0xff], c = values[input[i + 2] & 0xff], d = values[input[i + 3] & 0xff];
+			int e = values[input[i + 4] & 0xff], f = values[input[i + 5] & 0xff], g = values[input[i + 6] & 0xff], h = values[input[i + 7] & 0xff];
+			if ((a | b | c | d | e | f | g | h) < 0)
+				break;
+			long value = ((long) a << 35) | ((long) b << 30) | ((long) c << 25) | (d << 20) | (e << 15) | (f << 10) | (g << 5) | h;
+			output[position++] = (byte) (value >>> 32);
+			output[position++] = (byte) (value >>> 24);
+			output[position++] = (byte) (value >>> 16);
+			output[position++] = (byte) (value >>> 8);
+			output[position++] = (byte) value;
+			quanta++;
+		}
+		return quanta;
+	}
+
+	@Override
+	public int decodePartial(byte [] input, int offset, int length, byte [] output, int position) throws IOException {
+		// only these lengths can be the result of encoding a partial quantum
+		if (length != 2 && length != 4 && length != 5 && length != 7)
+			throw new IOException("Invalid length for the last base32 quantum: " + length);
+		long value = 0;
+		for (int i = 0; i < 8; i++)
+			value = (value << 5) | (i < length ? values[input[offset + i] & 0xff] : 0);
+		int bytes = (length * 5) / 8;
+		for (int i = 0; i < bytes; i++)
+			output[position++] = (byte) (value >>> (32 - (i * 8)));
+		return position;
+	}
+}
@@ -0,0 +1,180 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.utils.codec.impl;
+
+import java.io.IOException;
+
+import be.nabu.utils.io.IOUtils;
+import be.nabu.utils.io.api.ByteBuffer;
+import be.nabu.utils.io.api.CharBuffer;
+import be.nabu.utils.io.api.ReadableContainer;
+
+/**
+ * Reads base64 encoded text straight from a character container and returns the decoded bytes
+ * This avoids converting the characters to bytes using a charset before decoding them
+ */
+public class Base64CharDecoder implements ReadableContainer<ByteBuffer> {
+
+	private ReadableContainer<CharBuffer> parent;
+	
+	private boolean useBase64Url = false;
+	
+	private byte [] table = Base64Decoder.codes;
+	
+	private int blockSize = 4096;
+	
+	private char [] chars;
+	
+	/**
+	 * The current partial quantum, it is carried over between reads
+	 */
+	private int [] quantum = new int[4];
+	
+	private int offset = 0;
+	
+	private byte [] decoded;
+	
+	/**
+	 * The part of the decoded array that has not been returned yet
+	 */
+	private int pendingStart, pendingEnd;
+	
+	private boolean eof = false;
+	
+	public Base64CharDecoder(ReadableContainer<CharBuffer> parent) {
+		this.parent = parent;
+	}
+	
+	@Override
+	public long read(ByteBuffer target) throws IOException {
+		if (chars == null) {
+			chars = new char[blockSize];
+			decoded = new byte[((blockSize / 4) + 1) * 3];
+		}
+		long totalRead = 0;
+		while (target.remainingSpace() > 0) {
+			if (pendingStart < pendingEnd) {
+				int written = (int) target.write(IOUtils.wrap(decoded, pendingStart, pendingEnd - pendingStart, true));
+				pendingStart += written;
+				totalRead += written;
+				if (written == 0)
+					break;
+			}
+			else if (eof)
+				break;
+			else {
+				int read = (int) parent.read(IOUtils.wrap(chars, false));
+				if (read < 0) {
+					eof = true;
+					pendingStart = 0;
+					pendingEnd = finish();
+				}
+				else if (read == 0)
+					break;
+				else {
+					pendingStart = 0;
+					pendingEnd = decode(read);
+				}
+			}
+		}
+		return totalRead == 0 && eof && pendingStart == pendingEnd ? -1 : totalRead;
+	}
+	
+	private int decode(int length) {
+		int position = 0;
+		for (int i = 0; i < length; i++) {
+			char character = chars[i];
+			if (character == '\r' || character == '\n')
+				continue;
+			quantum[offset++] = character;
+			// read 4 characters which can be decoded into 3 bytes
+			if (offset == 4) {
+				position = decodeQuantum(position);
+				offset = 0;
+			}
+		}
+		return position;
+	}
+	
+	private int decodeQuantum(int position) {
+		if (quantum[3] == '=')
+			offset--;
+		if (quantum[2] == '=')
+			offset--;
+		int value = 0;
+		for (int i = 0; i < 4; i++) {
+			value = (value << 6) | (i < offset ? lookup(quantum[i]) : 0);
+		}
+		switch(offset) {
+			case 4: decoded[position + 2] = (byte) value;
+			case 3: decoded[position + 1] = (byte) (value >>> 8);
+			case 2: decoded[position] = (byte) (value >>> 16);
+		}
+		return offset > 1 ? position + offset - 1 : position;
+	}
+	
+	/**
+	 * Characters outside of the alphabet are decoded as all bits set, like the byte based decoder does
+	 */
+	private int lookup(int character) {
+		return character > 255 ? 0x3f : table[character] & 0x3f;
+	}
+	
+	/**
+	 * Decodes the last partial quantum (if any)
+	 */
+	private int finish() throws IOException {
+		if (offset == 0)
+			return 0;
+		// base64url does not need padding
+		else if (useBase64Url) {
+			for (int i = offset; i < 4; i++)
+				quantum[i] = '=';
+			offset = 4;
+			int length = decodeQuantum(0);
+			offset = 0;
+			return length;
+		}
+		else
+			throw new IOException("Not enough bytes in the input to finish the decoding, missing " + (4 - offset) + " byte(s)");
+	}
+
+	@Override
+	public void close() throws IOException {
+		parent.close();
+	}
+
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	public void setBlockSize(int blockSize) {
+		if (chars != null)
+			throw new IllegalStateException("Can not change the block size once decoding has started");
+		this.blockSize = Math.max(4, blockSize);
+	}
+
+	public boolean isUseBase64Url() {
+		return useBase64Url;
+	}
+
+	public void setUseBase64Url(boolean useBase64Url) {
+		this.useBase64Url = useBase64Url;
+		this.table = useBase64Url ? Base64Decoder.urlcodes : Base64Decoder.codes;
+	}
+}
@@ -0,0 +1,208 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.utils.codec.impl;
+
+import java.io.IOException;
+
+import be.nabu.utils.io.IOUtils;
+import be.nabu.utils.io.api.ByteBuffer;
+import be.nabu.utils.io.api.CharBuffer;
+import be.nabu.utils.io.api.WritableContainer;
+
+/**
+ * Writes the base64 encoded form of the bytes straight into a character container
+ * This avoids encoding to bytes first and then converting those bytes to characters using a charset (e.g. when embedding binary data in json or xml)
+ * The transcoder interface uses the same type for the input and output so this is a container instead
+ */
+public class Base64CharEncoder implements WritableContainer<ByteBuffer> {
+
+	private WritableContainer<CharBuffer> parent;
+	
+	private boolean useBase64Url = false;
+	
+	private char [] alphabet = Base64Encoder.codes;
+	
+	/**
+	 * 76 encoded characters = 57 unencoded bytes
+	 */
+	private int bytesPerLine = 76;
+	
+	/**
+	 * Number of characters output to this line
+	 */
+	private int byteCount = 0;
+	
+	private int blockSize = 57 * 64;
+	
+	private byte [] bytes;
+	
+	/**
+	 * The amount of bytes left over from the last write that did not form a complete quantum
+	 */
+	private int lastRead = 0;
+	
+	private char [] encoded;
+	
+	/**
+	 * The part of the encoded array that could not be written to the parent yet
+	 */
+	private int pendingStart, pendingEnd;
+	
+	private boolean closed = false;
+	
+	public Base64CharEncoder(WritableContainer<CharBuffer> parent) {
+		this.parent = parent;
+	}
+	
+	@Override
+	public long write(ByteBuffer source) throws IOException {
+		if (!writePending())
+			return 0;
+		if (bytes == null) {
+			bytes = new byte[blockSize];
+			int encodedSize = (blockSize / 3) * 4;
+			if (bytesPerLine > 0)
+				encodedSize += ((encodedSize / bytesPerLine) + 1) * 2;
+			encoded = new char[encodedSize];
+		}
+		long totalRead = 0;
+		int read;
+		while ((read = (int) source.read(IOUtils.wrap(bytes, lastRead, bytes.length - lastRead, false))) > 0) {
+			totalRead += read;
+			int available = lastRead + read;
+			int length = available - (available % 3);
+			pendingStart = 0;
+			pendingEnd = encode(length);
+			lastRead = available - length;
+			if (lastRead > 0)
+				System.arraycopy(bytes, length, bytes, 0, lastRead);
+			// stop consuming if the parent can not keep up
+			if (!writePending())
+				break;
+		}
+		return totalRead;
+	}
+	
+	private boolean writePending() throws IOException {
+		if (pendingStart < pendingEnd) {
+			long written = parent.write(IOUtils.wrap(encoded, pendingStart, pendingEnd - pendingStart, true));
+			if (written < 0)
+				throw new IOException("The parent container is closed");
+			pendingStart += written;
+		}
+		return pendingStart == pendingEnd;
+	}
+	
+	/**
+	 * Encodes the full quanta in the bytes array, line breaks are added inline
+	 */
+	private int encode(int length) {
+		int position = 0;
+		for (int i = 0; i < length; i += 3) {
+			int value = ((bytes[i] & 0xff) << 16) | ((bytes[i + 1] & 0xff) << 8) | (bytes[i + 2] & 0xff);
+			position = append(value, 4, position);
+		}
+		return position;
+	}
+	
+	/**
+	 * Appends the first x characters of the given quantum
+	 */
+	private int append(int value, int amount, int position) {
+		for (int i = 0; i < amount; i++) {
+			if (bytesPerLine > 0 && byteCount >= bytesPerLine) {
+				encoded[position++] = '\r';
+				encoded[position++] = '\n';
+				byteCount = 0;
+			}
+			encoded[position++] = alphabet[(value >>> (18 - (i * 6))) & 0x3f];
+			byteCount++;
+		}
+		return position;
+	}
+
+	/**
+	 * Like the transcoded containers, flushing writes the last (padded) quantum so only flush once all the bytes are written
+	 */
+	@Override
+	public void flush() throws IOException {
+		if (!writePending())
+			throw new IOException("Could not flush the contents to the output");
+		if (lastRead > 0) {
+			int value = (bytes[0] & 0xff) << 16;
+			if (lastRead == 2)
+				value |= (bytes[1] & 0xff) << 8;
+			pendingStart = 0;
+			// one byte needs two characters, two bytes need three
+			pendingEnd = append(value, lastRead + 1, 0);
+			// base64url does not use padding
+			if (!useBase64Url) {
+				for (int i = lastRead; i < 3; i++)
+					pendingEnd = appendPadding(pendingEnd);
+			}
+			// make sure it is flushed only once
+			lastRead = 0;
+			if (!writePending())
+				throw new IOException("Could not flush the contents to the output");
+		}
+		parent.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (!closed) {
+			try {
+				flush();
+			}
+			finally {
+				closed = true;
+				parent.close();
+			}
+		}
+	}
+	
+	private int appendPadding(int position) {
+		if (bytesPerLine > 0 && byteCount >= bytesPerLine) {
+			encoded[position++] = '\r';
+			encoded[position++] = '\n';
+			byteCount = 0;
+		}
+		encoded[position++] = '=';
+		byteCount++;
+		return position;
+	}
+
+	public int getBytesPerLine() {
+		return bytesPerLine;
+	}
+
+	public void setBytesPerLine(int bytesPerLine) {
+		if (bytes != null)
+			throw new IllegalStateException("Can not change the line length once encoding has started");
+		this.bytesPerLine = bytesPerLine;
+	}
+
+	public boolean isUseBase64Url() {
+		return useBase64Url;
+	}
+
+	public void setUseBase64Url(boolean useBase64Url) {
+		this.useBase64Url = useBase64Url;
+		this.alphabet = useBase64Url ? Base64Encoder.urlcodes : Base64Encoder.codes;
+	}
+}
@@ -19,7 +19,10 @@ package be.nabu.utils.codec.impl;
 
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.Base64;
 
+import be.nabu.utils.codec.api.ResettableTranscoder;
+import be.nabu.utils.codec.api.SizePredictingTranscoder;
 import be.nabu.utils.codec.api.Transcoder;
 import be.nabu.utils.io.IOUtils;
 import be.nabu.utils.io.api.ByteBuffer;
@@ -27,10 +30,37 @@ import be.nabu.utils.io.api.ReadableContainer;
 import be.nabu.utils.io.api.WritableContainer;
 import be.nabu.utils.io.buffers.bytes.DynamicByteBuffer;
 
-public class Base64Decoder implements Transcoder<ByteBuffer> {
+public class Base64Decoder implements Transcoder<ByteBuffer>, SizePredictingTranscoder, ResettableTranscoder {
 
+	public enum Validation {
+		/**
+		 * Only linefeeds are skipped, other invalid characters are decoded as garbage
+		 */
+		NONE,
+		/**
+		 * Linefeeds are skipped, any other character outside of the alphabet or misplaced padding is an error
+		 */
+		STRICT,
+		/**
+		 * Any whitespace or character outside of the alphabet is skipped (like MIME)
+		 */
+		LENIENT
+	}
+	
 	private boolean useBase64Url = false;
 	
+	private Validation validation = Validation.NONE;
+	
+	/**
+	 * Once a padded quantum has been read, nothing but linefeeds can follow it in strict mode
+	 */
+	private boolean padded = false;
+	
+	/**
+	 * The amount of input bytes processed in previous blocks, used to report the offset of invalid characters
+	 */
+	private long inputOffset = 0;
+	
 	static final byte [] codes = new byte [256]; static {
 		Arrays.fill(codes, (byte) -1);
 		for (int i = 0; i < Base64Encoder.codes.length; i++)
@@ -43,36 +73,72 @@ public class Base64Decoder implements Transcoder<ByteBuffer> {
 			urlcodes[Base64Encoder.urlcodes[i]] = (byte) i;
 	}
 	
+	/**
+	 * The decoding table is resolved once when the settings change instead of for every character
+	 */
+	private byte [] table = codes;
+	
+	/**
+	 * Whether or not to use the wide tables which decode two characters per lookup
+	 */
+	private boolean useWideTables = false;
+	
+	private short [] pairs;
+	
+	/**
+	 * Whether a vectorized implementation is available (java 17+ with the vector module enabled)
+	 */
+	private static final boolean vectorized = Base64Vectors.isAvailable();
+	
+	/**
+	 * Whether or not to delegate full quanta to the jdk decoder which has hotspot intrinsics (on newer jdks)
+	 */
+	private boolean useIntrinsics = false;
+	
+	private Base64.Decoder intrinsicDecoder;
+	
 	private DynamicByteBuffer outputBuffer = new DynamicByteBuffer();
 	
+	/**
+	 * The current partial quantum, it is carried over between transcode calls
+	 */
 	private byte [] buffer = new byte[4];
 	
 	private int offset = 0;
 	
-	private byte [] readBuffer = new byte[1];
+	/**
+	 * The amount of bytes we read in one go
+	 */
+	private int blockSize = 4096;
 	
-	private byte [] decoded = new byte[3];
+	private byte [] readBuffer;
 	
-	private void decode(WritableContainer<ByteBuffer> out) throws IOException {
+	/**
+	 * Every 4 bytes (excluding linefeeds) are decoded to at most 3 bytes
+	 */
+	private byte [] decoded;
+	
+	/**
+	 * Decodes the quantum in the buffer into the target array and returns the new position
+	 */
+	private int decode(byte [] target, int position) {
 		if (buffer[3] == '=')
 			offset--;
 		if (buffer[2] == '=')
 			offset--;
 		switch(offset) {
-			case 4: buffer[3] = useBase64Url ? urlcodes[buffer[3] & 0xff] : codes[buffer[3] & 0xff];
-			case 3: buffer[2] = useBase64Url ? urlcodes[buffer[2] & 0xff] : codes[buffer[2] & 0xff];
+			case 4: buffer[3] = table[buffer[3] & 0xff];
+			case 3: buffer[2] = table[buffer[2] & 0xff];
 			case 2: 
-				buffer[1] = useBase64Url ? urlcodes[buffer[1] & 0xff] : codes[buffer[1] & 0xff];
-				buffer[0] = useBase64Url ? urlcodes[buffer[0] & 0xff] : codes[buffer[0] & 0xff];
+				buffer[1] = table[buffer[1] & 0xff];
+				buffer[0] = table[buffer[0] & 0xff];
 		}
 		switch(offset) {
-			case 4: decoded[2] = decodeThird();
-			case 3: decoded[1] = decodeSecond();
-			case 2: decoded[0] = decodeFirst(); 
+			case 4: target[position + 2] = decodeThird();
+			case 3: target[position + 1] = decodeSecond();
+			case 2: target[position] = decodeFirst(); 
 		}
-		int written = (int) out.write(IOUtils.wrap(decoded, 0, offset - 1, true));
-		if (written < offset)
-			outputBuffer.write(IOUtils.wrap(decoded, written, offset - 1 - written, true));
+		return offset > 1 ? position + offset - 1 : position;
 	}
 	
 	private byte decodeFirst() {
@@ -90,18 +156,151 @@ public class Base64Decoder implements Transcoder<ByteBuffer> {
 	@Override
 	public void transcode(ReadableContainer<ByteBuffer> in, WritableContainer<ByteBuffer> out) throws IOException {
 		if (outputBuffer.remainingData() == IOUtils.copyBytes(outputBuffer, out)) {
-			while (outputBuffer.remainingData() == 0 && in.read(IOUtils.wrap(readBuffer, false)) == 1) {
-				int character = readBuffer[0] & 0xff;
-				if (character == '\r' || character == '\n')
+			if (readBuffer == null) {
+				readBuffer = new byte[blockSize];
+				decoded = new byte[((blockSize / 4) + 1) * 3];
+			}
+			int read;
+			while (outputBuffer.remainingData() == 0 && (read = (int) in.read(IOUtils.wrap(readBuffer, false))) > 0) {
+				int position = intrinsicDecoder == null ? decodeBlock(0, read, 0) : decodeIntrinsic(read);
+				inputOffset += read;
+				write(out, position);
+			}
+		}
+	}
+	
+	/**
+	 * Decodes the given part of the read buffer into the decoded array starting at the given position, returns the new position
+	 * A partial quantum at the end is kept in the buffer
+	 */
+	private int decodeBlock(int start, int end, int position) throws IOException {
+		for (int i = start; i < end; i++) {
+			if (vectorized && offset == 0 && !padded && i + 16 <= end) {
+				int vectorDecoded = Base64Vectors.decode(readBuffer, i, end - i, decoded, position, useBase64Url);
+				if (vectorDecoded > 0) {
+					position += (vectorDecoded / 4) * 3;
+					i += vectorDecoded;
+					if (i >= end)
+						break;
+				}
+			}
+			// if we have a full quantum at hand, try to decode it in two lookups
+			if (pairs != null && offset == 0 && !padded && i + 3 < end) {
+				int first = pairs[((readBuffer[i] & 0xff) << 8) | (readBuffer[i + 1] & 0xff)];
+				int second = pairs[((readBuffer[i + 2] & 0xff) << 8) | (readBuffer[i + 3] & 0xff)];
+				// linefeeds, padding and invalid characters are flagged as negative, they go through the regular path
+				if ((first | second) >= 0) {
+					int value = (first << 12) | second;
+					decoded[position++] = (byte) (value >>> 16);
+					decoded[position++] = (byte) (value >>> 8);
+					decoded[position++] = (byte) value;
+					i += 3;
 					continue;
-				
-				buffer[offset++] = readBuffer[0];
-				// read 4 bytes which can be decoded into 3 bytes
-				if (offset == 4) {
-					decode(out);
-					offset = 0;
 				}
 			}
+			// decode as many full quanta as possible, the lookups are combined so there is only one check per quantum
+			// linefeeds, padding and invalid characters break the loop and go through the regular path which validates them
+			if (offset == 0 && !padded) {
+				while (i + 3 < end) {
+					int first = table[readBuffer[i] & 0xff];
+					int second = table[readBuffer[i + 1] & 0xff];
+					int third = table[readBuffer[i + 2] & 0xff];
+					int fourth = table[readBuffer[i + 3] & 0xff];
+					if ((first | second | third | fourth) < 0)
+						break;
+					int value = (first << 18) | (second << 12) | (third << 6) | fourth;
+					decoded[position++] = (byte) (value >>> 16);
+					decoded[position++] = (byte) (value >>> 8);
+					decoded[position++] = (byte) value;
+					i += 4;
+				}
+				if (i >= end)
+					break;
+			}
+			byte character = readBuffer[i];
+			if (character == '\r' || character == '\n')
+				continue;
+			if (validation != Validation.NONE && !validate(character, i))
+				continue;
+			buffer[offset++] = character;
+			// read 4 bytes which can be decoded into 3 bytes
+			if (offset == 4) {
+				if (validation == Validation.STRICT && buffer[3] == '=')
+					padded = true;
+				position = decode(decoded, position);
+				offset = 0;
+			}
+		}
+		return position;
+	}
+	
+	/**
+	 * Checks a character that is not a linefeed, returns false if it should be skipped
+	 * In strict mode an exception is thrown for invalid characters or misplaced padding
+	 */
+	private boolean validate(byte character, int index) throws IOException {
+		if (character == '=') {
+			if (validation == Validation.LENIENT)
+				return true;
+			// padding can only appear in the last two positions of the last quantum
+			if (!padded && offset >= 2)
+				return true;
+		}
+		else if (table[character & 0xff] >= 0) {
+			// after padding has started, only more padding can follow
+			if (validation == Validation.LENIENT || (!padded && (offset < 3 || buffer[2] != '=')))
+				return true;
+		}
+		else if (validation == Validation.LENIENT)
+			return false;
+		throw new IOException("Invalid base64 character 0x" + Integer.toHexString(character & 0xff) + " at offset " + (inputOffset + index));
+	}
+	
+	/**
+	 * The jdk decoder does not know about line feeds or partial quanta so we strip the line feeds and only pass it full quanta
+	 * When validating, the block is cut off at the first padding or invalid character, the rest goes through the regular path so errors are reported at the correct offset
+	 */
+	private int decodeIntrinsic(int read) throws IOException {
+		int length = 0;
+		int rest = read;
+		for (int i = 0; i < read; i++) {
+			byte character = readBuffer[i];
+			if (character == '\r' || character == '\n')
+				continue;
+			if (validation != Validation.NONE && (padded || table[character & 0xff] < 0)) {
+				if (validation == Validation.LENIENT && character != '=')
+					continue;
+				rest = i;
+				break;
+			}
+			readBuffer[length++] = character;
+		}
+		// first complete the quantum we carried over from the previous block
+		int start = Math.min(offset > 0 ? 4 - offset : 0, length);
+		int position = decodeBlock(0, start, 0);
+		int end = start + (((length - start) / 4) * 4);
+		if (end > start) {
+			try {
+				java.nio.ByteBuffer result = intrinsicDecoder.decode(java.nio.ByteBuffer.wrap(readBuffer, start, end - start));
+				int amount = result.remaining();
+				result.get(decoded, position, amount);
+				position += amount;
+			}
+			// the jdk is stricter than we are (e.g. padding in the middle), let the regular code handle it the way it always has
+			catch (IllegalArgumentException e) {
+				position = decodeBlock(start, end, position);
+			}
+		}
+		// the remaining partial quantum is stored in the buffer
+		position = decodeBlock(end, length, position);
+		return rest < read ? decodeBlock(rest, read, position) : position;
+	}
+	
+	private void write(WritableContainer<ByteBuffer> out, int length) throws IOException {
+		if (length > 0) {
+			int written = (int) out.write(IOUtils.wrap(decoded, 0, length, true));
+			if (written < length)
+				outputBuffer.write(decoded, written, length - written);
 		}
 	}
 
@@ -109,12 +308,16 @@ public class Base64Decoder implements Transcoder<ByteBuffer> {
 	public void flush(WritableContainer<ByteBuffer> out) throws IOException {
 		// if we are using base64url, the entire thing might not be finished yet because the trailing "=" are optional
 		if (useBase64Url && offset > 0) {
-			StringBuilder finish = new StringBuilder();
-			for (int i = 0; i < offset; i++) {
-				finish.append("=");
+			for (int i = offset; i < buffer.length; i++) {
+				buffer[i] = '=';
 			}
-			transcode(IOUtils.wrap(finish.toString().getBytes("ASCII"), true), out);
+			offset = 4;
+			if (decoded == null) {
+				decoded = new byte[3];
+			}
+			int length = decode(decoded, 0);
 			offset = 0;
+			write(out, length);
 		}
 		// the input should've been padded
 		if (offset != 0)
@@ -124,12 +327,91 @@ public class Base64Decoder implements Transcoder<ByteBuffer> {
 			throw new IOException("Not enough space in the target to finish the decoding");
 	}
 
+	/**
+	 * Only the state of the stream is reset, the settings are kept (a pool reapplies its own configuration)
+	 */
+	@Override
+	public void reset() {
+		outputBuffer.truncate();
+		offset = 0;
+		padded = false;
+		inputOffset = 0;
+	}
+
+	/**
+	 * We don't know how many line feeds or padding characters are in the input
+	 */
+	@Override
+	public long getExactOutputSize(long inputSize) {
+		return -1;
+	}
+
+	@Override
+	public long getMaximumOutputSize(long inputSize) {
+		return ((inputSize + 3) / 4) * 3;
+	}
+
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	public void setBlockSize(int blockSize) {
+		if (readBuffer != null)
+			throw new IllegalStateException("Can not change the block size once transcoding has started");
+		this.blockSize = Math.max(4, blockSize);
+	}
+
 	public boolean isUseBase64Url() {
 		return useBase64Url;
 	}
 
 	public void setUseBase64Url(boolean useBase64Url) {
 		this.useBase64Url = useBase64Url;
+		resolveSettings();
+	}
+
+	public Validation getValidation() {
+		return validation;
+	}
+
+	/**
+	 * Strict validation throws an exception with the offset of the first invalid character, lenient validation skips it
+	 */
+	public void setValidation(Validation validation) {
+		this.validation = validation == null ? Validation.NONE : validation;
+	}
+
+	public boolean isUseWideTables() {
+		return useWideTables;
+	}
+
+	public void setUseWideTables(boolean useWideTables) {
+		this.useWideTables = useWideTables;
+		resolveSettings();
+	}
+	
+	private void resolveSettings() {
+		table = useBase64Url ? urlcodes : codes;
+		if (useWideTables)
+			pairs = useBase64Url ? Base64Tables.Decoding.urlcodes : Base64Tables.Decoding.codes;
+		else
+			pairs = null;
+		if (useIntrinsics)
+			intrinsicDecoder = useBase64Url ? Base64.getUrlDecoder() : Base64.getDecoder();
+		else
+			intrinsicDecoder = null;
+	}
+
+	public boolean isUseIntrinsics() {
+		return useIntrinsics;
+	}
+
+	/**
+	 * If enabled, full quanta are decoded by the jdk decoder which benefits from hotspot intrinsics on newer jdks
+	 */
+	public void setUseIntrinsics(boolean useIntrinsics) {
+		this.useIntrinsics = useIntrinsics;
+		resolveSettings();
 	}
 
 }
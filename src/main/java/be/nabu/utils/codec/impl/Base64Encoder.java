@@ -18,7 +18,10 @@
 package be.nabu.utils.codec.impl;
 
 import java.io.IOException;
+import java.util.Base64;
 
+import be.nabu.utils.codec.api.ResettableTranscoder;
+import be.nabu.utils.codec.api.SizePredictingTranscoder;
 import be.nabu.utils.codec.api.Transcoder;
 import be.nabu.utils.io.IOUtils;
 import be.nabu.utils.io.api.ByteBuffer;
@@ -36,7 +39,7 @@ import be.nabu.utils.io.buffers.bytes.DynamicByteBuffer;
  * 
  * for jwt for example, they use base64url (instead of regular)
  */
-public class Base64Encoder implements Transcoder<ByteBuffer> {
+public class Base64Encoder implements Transcoder<ByteBuffer>, SizePredictingTranscoder, ResettableTranscoder {
 
 	private boolean useBase64Url = false;
 	
@@ -65,12 +68,51 @@ public class Base64Encoder implements Transcoder<ByteBuffer> {
 		'4','5','6','7','8','9','-','_' 	// 7
 	};
 	
+	/**
+	 * The alphabet is resolved once when the settings change instead of for every character
+	 */
+	private char [] alphabet = codes;
+	
+	/**
+	 * Whether or not to use the wide tables which encode 12 bits per lookup
+	 */
+	private boolean useWideTables = false;
+	
+	private short [] pairs;
+	
+	/**
+	 * Whether a vectorized implementation is available (java 17+ with the vector module enabled)
+	 */
+	private static final boolean vectorized = Base64Vectors.isAvailable();
+	
+	/**
+	 * Whether or not to delegate full blocks to the jdk encoder which has hotspot intrinsics
+	 */
+	private boolean useIntrinsics = false;
+	
+	/**
+	 * The jdk encoder that matches our settings, this is null if the settings can not be expressed by the jdk (e.g. base64url with line breaks)
+	 */
+	private Base64.Encoder intrinsicEncoder;
+	
+	private static final byte [] lineBreak = new byte [] { '\r', '\n' };
+	
 	private DynamicByteBuffer outputBuffer = new DynamicByteBuffer();
 	
 	/**
-	 * Keep track of the bytes we read
+	 * The amount of bytes we read in one go, this should be a multiple of 3 (57 is one line of 76 encoded bytes)
 	 */
-	private byte [] bytes = new byte[3];
+	private int blockSize = 57 * 64;
+	
+	/**
+	 * Keep track of the bytes we read, a partial quantum at the end is moved to the front for the next run
+	 */
+	private byte [] bytes;
+	
+	/**
+	 * The encoded block including any line breaks
+	 */
+	private byte [] encodedBlock;
 	
 	private byte [] encoded = new byte[4];
 	
@@ -87,38 +129,135 @@ public class Base64Encoder implements Transcoder<ByteBuffer> {
 	private int byteCount = 0;
 	
 	/**
-	 * Need to keep track of how much we read last time
+	 * The amount of bytes left over from the last read that did not form a complete quantum
 	 * If you want to flush the stream we need to flush the remaining bytes with necessary padding
 	 */
-	private int read = 0;
-	
-	/**
-	 * The read in the above will be updated to -1 when the parent finishes data
-	 * However we need the lastRead to determine how much is left in the buffer so we can flush it
-	 */
 	private int lastRead = 0;
 	
 	@Override
 	public void transcode(ReadableContainer<ByteBuffer> in, WritableContainer<ByteBuffer> out) throws IOException {
 		// flush buffer (if any)
 		if (outputBuffer.remainingData() == 0 || outputBuffer.remainingData() == out.write(outputBuffer)) {
-			// continue reading where you left off...
-			while ((read = (int) in.read(IOUtils.wrap(bytes, lastRead, 3 - lastRead, false))) == 3 - lastRead) {
-				encode(bytes, 0, 3);
-				write(out);
-				// set lastRead to 0 so we don't assume something is in the buffer if there isn't
-				lastRead = 0;
-				// make sure it doesn't get counted against the lastRead after the loop
-				read = 0;
+			if (encodedBlock == null) {
+				initialize();
+			}
+			int read;
+			// continue reading where you left off, the partial quantum (if any) is already at the start of the array
+			while ((read = (int) in.read(IOUtils.wrap(bytes, lastRead, bytes.length - lastRead, false))) > 0) {
+				int available = lastRead + read;
+				// the jdk encoder does not know our line state, so we only use it for full blocks that start on a new line
+				if (intrinsicEncoder != null && available == bytes.length && (bytesPerLine <= 0 || byteCount == 0 || byteCount == bytesPerLine)) {
+					// the jdk only adds line breaks between lines, not at the end so we have to add the one between blocks
+					if (bytesPerLine > 0 && byteCount == bytesPerLine)
+						writeBlock(out, lineBreak, lineBreak.length);
+					int encodedLength = intrinsicEncoder.encode(bytes, encodedBlock);
+					int characters = (bytes.length / 3) * 4;
+					if (bytesPerLine > 0)
+						byteCount = characters % bytesPerLine == 0 ? bytesPerLine : characters % bytesPerLine;
+					lastRead = 0;
+					if (!writeBlock(out, encodedBlock, encodedLength))
+						break;
+					continue;
+				}
+				// only encode full quanta, the remainder is kept for the next run
+				int length = available - (available % 3);
+				int encodedLength = encodeBlock(bytes, length);
+				lastRead = available - length;
+				if (lastRead > 0) {
+					System.arraycopy(bytes, length, bytes, 0, lastRead);
+				}
 				// it could not all be written to the output
-				if (outputBuffer.remainingData() > 0)
+				if (!writeBlock(out, encodedBlock, encodedLength))
 					break;
 			}
-			if (read >= 0)
-				lastRead += read;
 		}
 	}
 	
+	/**
+	 * Writes the bytes to the output, anything that can not be written is buffered
+	 * If the buffer already contains data, we append to it to maintain the order
+	 */
+	private boolean writeBlock(WritableContainer<ByteBuffer> out, byte [] bytes, int length) throws IOException {
+		if (outputBuffer.remainingData() == 0) {
+			int written = (int) out.write(IOUtils.wrap(bytes, 0, length, true));
+			if (written < length)
+				outputBuffer.write(bytes, written, length - written);
+		}
+		else
+			outputBuffer.write(bytes, 0, length);
+		return outputBuffer.remainingData() == 0;
+	}
+	
+	private void initialize() {
+		if (bytes == null) {
+			bytes = new byte[blockSize];
+		}
+		int encodedSize = (blockSize / 3) * 4;
+		// worst case we need a line break every line plus one because we may be halfway through a line when we start
+		if (bytesPerLine > 0) {
+			encodedSize += ((encodedSize / bytesPerLine) + 1) * 2;
+		}
+		encodedBlock = new byte[encodedSize];
+	}
+	
+	/**
+	 * Encodes the full quanta in the given block into the encodedBlock, line breaks are added inline
+	 * Returns the amount of encoded bytes
+	 */
+	private int encodeBlock(byte [] bytes, int length) {
+		int position = 0;
+		for (int i = 0; i < length; i += 3) {
+			if (vectorized) {
+				// the amount of full quanta that still fit on this line
+				int quanta = (length - i) / 3;
+				if (bytesPerLine > 0)
+					quanta = Math.min(quanta, (bytesPerLine - byteCount) / 4);
+				if (quanta >= 4) {
+					int vectorEncoded = Base64Vectors.encode(bytes, i, quanta * 3, encodedBlock, position, useBase64Url);
+					if (vectorEncoded > 0) {
+						position += (vectorEncoded / 3) * 4;
+						byteCount += (vectorEncoded / 3) * 4;
+						i += vectorEncoded;
+						if (i >= length)
+							break;
+					}
+				}
+			}
+			int value = ((bytes[i] & 0xff) << 16) | ((bytes[i + 1] & 0xff) << 8) | (bytes[i + 2] & 0xff);
+			// if the full quantum fits on the current line, we can write it directly
+			if (bytesPerLine <= 0 || byteCount + 4 <= bytesPerLine) {
+				if (pairs != null) {
+					short first = pairs[value >>> 12];
+					short second = pairs[value & 0xfff];
+					encodedBlock[position++] = (byte) (first >>> 8);
+					encodedBlock[position++] = (byte) first;
+					encodedBlock[position++] = (byte) (second >>> 8);
+					encodedBlock[position++] = (byte) second;
+				}
+				else {
+					encodedBlock[position++] = (byte) alphabet[(value >>> 18) & 0x3f];
+					encodedBlock[position++] = (byte) alphabet[(value >>> 12) & 0x3f];
+					encodedBlock[position++] = (byte) alphabet[(value >>> 6) & 0x3f];
+					encodedBlock[position++] = (byte) alphabet[value & 0x3f];
+				}
+				byteCount += 4;
+			}
+			// otherwise we need to insert a line break somewhere in the quantum
+			else {
+				for (int shift = 18; shift >= 0; shift -= 6) {
+					if (byteCount >= bytesPerLine) {
+						encodedBlock[position++] = '\r';
+						encodedBlock[position++] = '\n';
+						byteCount = 0;
+					}
+					encodedBlock[position++] = (byte) alphabet[(value >>> shift) & 0x3f];
+					byteCount++;
+				}
+			}
+		}
+		return position;
+	}
+	
 	private void write(WritableContainer<ByteBuffer> out) throws IOException {
 		// by default we always write 4
 		int amount = 4;
@@ -178,19 +317,19 @@ public class Base64Encoder implements Transcoder<ByteBuffer> {
 	}
 	
 	private byte encodeFirst(byte first) {
-		return useBase64Url ? (byte) urlcodes[(first >>> 2) & 0x3f] : (byte) codes[(first >>> 2) & 0x3f];
+		return (byte) alphabet[(first >>> 2) & 0x3f];
 	}
 	
 	private byte encodeSecond(byte first, byte second) {
-		return useBase64Url ? (byte) urlcodes[((first << 4) & 0x30) + ((second >>> 4) & 0xf)] : (byte) codes[((first << 4) & 0x30) + ((second >>> 4) & 0xf)];
+		return (byte) alphabet[((first << 4) & 0x30) + ((second >>> 4) & 0xf)];
 	}
 	
 	private byte encodeThird(byte second, byte third) {
-		return useBase64Url ? (byte) urlcodes[((second << 2) & 0x3c) + ((third >>> 6) & 0x3)] : (byte) codes[((second << 2) & 0x3c) + ((third >>> 6) & 0x3)];
+		return (byte) alphabet[((second << 2) & 0x3c) + ((third >>> 6) & 0x3)];
 	}
 	
 	private byte encodeFourth(byte third) {
-		return useBase64Url ? (byte) urlcodes[third & 0x3f] : (byte) codes[third & 0x3f];
+		return (byte) alphabet[third & 0x3f];
 	}
 
 	@Override
@@ -210,12 +349,57 @@ public class Base64Encoder implements Transcoder<ByteBuffer> {
 		}
 	}
 
+	/**
+	 * Only the state of the stream is reset, the settings are kept (a pool reapplies its own configuration)
+	 */
+	@Override
+	public void reset() {
+		outputBuffer.truncate();
+		byteCount = 0;
+		lastRead = 0;
+	}
+
+	@Override
+	public long getExactOutputSize(long inputSize) {
+		long characters;
+		// base64url does not pad the last quantum
+		if (useBase64Url)
+			characters = ((inputSize / 3) * 4) + (inputSize % 3 == 0 ? 0 : (inputSize % 3) + 1);
+		else
+			characters = ((inputSize + 2) / 3) * 4;
+		// a line break is only added when more characters follow
+		if (bytesPerLine > 0 && characters > 0)
+			characters += ((characters - 1) / bytesPerLine) * 2;
+		return characters;
+	}
+
+	@Override
+	public long getMaximumOutputSize(long inputSize) {
+		return getExactOutputSize(inputSize);
+	}
+
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	/**
+	 * The block size is rounded down to a multiple of 3 so we never have to carry over partial quanta within a block
+	 */
+	public void setBlockSize(int blockSize) {
+		if (bytes != null)
+			throw new IllegalStateException("Can not change the block size once transcoding has started");
+		this.blockSize = Math.max(3, blockSize - (blockSize % 3));
+	}
+
 	public int getBytesPerLine() {
 		return bytesPerLine;
 	}
 
 	public void setBytesPerLine(int bytesPerLine) {
 		this.bytesPerLine = bytesPerLine;
+		// the size of the encoded block depends on the amount of line breaks
+		this.encodedBlock = null;
+		resolveSettings();
 	}
 
 	public boolean isUseBase64Url() {
@@ -224,6 +408,45 @@ public class Base64Encoder implements Transcoder<ByteBuffer> {
 
 	public void setUseBase64Url(boolean useBase64UrlLocally) {
 		this.useBase64Url = useBase64UrlLocally;
+		resolveSettings();
+	}
+
+	public boolean isUseWideTables() {
+		return useWideTables;
+	}
+
+	public void setUseWideTables(boolean useWideTables) {
+		this.useWideTables = useWideTables;
+		resolveSettings();
+	}
+	
+	private void resolveSettings() {
+		alphabet = useBase64Url ? urlcodes : codes;
+		if (useWideTables)
+			pairs = useBase64Url ? Base64Tables.Encoding.urlcodes : Base64Tables.Encoding.codes;
+		else
+			pairs = null;
+		intrinsicEncoder = null;
+		if (useIntrinsics) {
+			if (bytesPerLine <= 0)
+				intrinsicEncoder = useBase64Url ? Base64.getUrlEncoder() : Base64.getEncoder();
+			// the jdk mime encoder only supports the regular alphabet and a line length that is a multiple of 4
+			else if (!useBase64Url && bytesPerLine % 4 == 0)
+				intrinsicEncoder = Base64.getMimeEncoder(bytesPerLine, lineBreak);
+		}
+	}
+
+	public boolean isUseIntrinsics() {
+		return useIntrinsics;
+	}
+
+	/**
+	 * If enabled, full blocks are encoded by the jdk encoder which benefits from hotspot intrinsics
+	 * Partial blocks, the tail and settings the jdk does not support still use the regular code so the output is identical
+	 */
+	public void setUseIntrinsics(boolean useIntrinsics) {
+		this.useIntrinsics = useIntrinsics;
+		resolveSettings();
 	}
 	
 }
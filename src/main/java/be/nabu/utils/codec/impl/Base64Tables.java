@@ -0,0 +1,60 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.utils.codec.impl;
+
+/**
+ * Wide lookup tables for base64, they handle 12 bits (= two characters) per lookup instead of 6
+ * The tables are in separate holder classes so they are only built when someone actually uses them, the decoding tables are 128kb each
+ */
+class Base64Tables {
+	
+	/**
+	 * 4096 entries, each entry contains two encoded characters: the first in the high byte, the second in the low byte
+	 */
+	static class Encoding {
+		static final short [] codes = encoding(Base64Encoder.codes);
+		static final short [] urlcodes = encoding(Base64Encoder.urlcodes);
+	}
+	
+	/**
+	 * 65536 entries, indexed by two characters (first in the high byte), each entry contains the 12 decoded bits
+	 * If either character is not part of the alphabet (this includes padding and linefeeds), the entry is negative
+	 */
+	static class Decoding {
+		static final short [] codes = decoding(Base64Decoder.codes);
+		static final short [] urlcodes = decoding(Base64Decoder.urlcodes);
+	}
+	
+	private static short [] encoding(char [] alphabet) {
+		short [] table = new short[4096];
+		for (int i = 0; i < table.length; i++) {
+			table[i] = (short) ((alphabet[i >>> 6] << 8) | alphabet[i & 0x3f]);
+		}
+		return table;
+	}
+	
+	private static short [] decoding(byte [] codes) {
+		short [] table = new short[65536];
+		for (int i = 0; i < table.length; i++) {
+			byte first = codes[i >>> 8];
+			byte second = codes[i & 0xff];
+			table[i] = first < 0 || second < 0 ? -1 : (short) ((first << 6) | second);
+		}
+		return table;
+	}
+}
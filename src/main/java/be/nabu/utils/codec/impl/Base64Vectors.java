@@ -0,0 +1,45 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.utils.codec.impl;
+
+/**
+ * Hook for a vectorized base64 implementation, this is the scalar fallback which never vectorizes anything
+ * When running on java 17+ the multi-release jar contains a version based on the (incubating) vector api
+ * Both methods only process full blocks and return how many input bytes they consumed, the caller handles the rest with the regular code 
+ */
+class Base64Vectors {
+	
+	static boolean isAvailable() {
+		return false;
+	}
+	
+	/**
+	 * Encodes full quanta from the input to the output without line breaks, returns the amount of input bytes that were encoded (always a multiple of 3)
+	 */
+	static int encode(byte [] input, int inputOffset, int length, byte [] output, int outputOffset, boolean useBase64Url) {
+		return 0;
+	}
+	
+	/**
+	 * Decodes full quanta from the input to the output, stops at the first block that contains a character outside of the alphabet (including linefeeds and padding)
+	 * Returns the amount of input bytes that were decoded (always a multiple of 4)
+	 */
+	static int decode(byte [] input, int inputOffset, int length, byte [] output, int outputOffset, boolean useBase64Url) {
+		return 0;
+	}
+}
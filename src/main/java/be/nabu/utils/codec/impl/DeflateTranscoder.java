@@ -17,9 +17,12 @@
 
 package be.nabu.utils.codec.impl;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.util.zip.Deflater;
 
+import be.nabu.utils.codec.api.ResettableTranscoder;
+import be.nabu.utils.codec.api.SizePredictingTranscoder;
 import be.nabu.utils.codec.api.Transcoder;
 import be.nabu.utils.io.IOUtils;
 import be.nabu.utils.io.api.ByteBuffer;
@@ -29,8 +32,10 @@ import be.nabu.utils.io.api.WritableContainer;
 /**
  * The deflater transcoder can only be flushed once because it will flush out the remaining state when this is done
  * IMPORTANT: the deflater itself has a sizable buffer (around 250-260 kb) so the deflater.deflate() will return 0 all the time for smaller documents, this is normal
+ * That native state is released as soon as the deflater has finished, if you stop before that you should close() the transcoder
+ * A reusable transcoder (e.g. in a pool) keeps its native state even when it is closed so a reset() does not have to set up a new deflater, make it non-reusable before closing to release it
  */
-public class DeflateTranscoder implements Transcoder<ByteBuffer> {
+public class DeflateTranscoder implements Transcoder<ByteBuffer>, SizePredictingTranscoder, ResettableTranscoder, Closeable {
 
 	public enum DeflaterLevel {
 		BEST_COMPRESSION(Deflater.BEST_COMPRESSION),
@@ -54,20 +59,47 @@ public class DeflateTranscoder implements Transcoder<ByteBuffer> {
 	
 	Deflater deflater;
 	
-	private byte [] readBuffer = new byte[512], deflateBuffer = new byte[512];
+	private int level;
+	
+	private boolean noWrap, reusable;
+	
+	/**
+	 * The size of the arrays used to feed the deflater and collect its output, every call to zlib crosses jni so bigger is faster
+	 */
+	private int bufferSize = 8192;
+	
+	private byte [] readBuffer, deflateBuffer;
+	
+	/**
+	 * Whether the deflater has written all its output and whether its native state has been released
+	 */
+	private boolean finished, ended;
+	
+	/**
+	 * Whether the deflater has been given any input
+	 */
+	private boolean started;
 
 	public DeflateTranscoder() {
 		this(DeflaterLevel.BEST_SPEED, false);
 	}
 	
 	public DeflateTranscoder(DeflaterLevel level, boolean noWrap) {
-		this.deflater = new Deflater(level.getLevel(), noWrap);
+		this.level = level.getLevel();
+		this.noWrap = noWrap;
+		this.deflater = new Deflater(this.level, noWrap);
+		ZlibStatistics.allocate(deflater, true);
 	}
 	
 	@Override
 	public void transcode(ReadableContainer<ByteBuffer> in, WritableContainer<ByteBuffer> out) throws IOException {
+		allocate();
+		open();
 		// as long as we don't have to buffer anything, keep going
 		while (buffer.remainingData() == 0 || buffer.remainingData() == out.write(buffer)) {
+			// only the buffered output remains
+			if (finished)
+				break;
 			// try to deflate data
 			int read = deflater.deflate(deflateBuffer);
 			if (read == 0) {
@@ -85,8 +117,10 @@ public class DeflateTranscoder implements Transcoder<ByteBuffer> {
 					// currently no data
 					else if (read == 0)
 						break;
-					else
+					else {
 						deflater.setInput(readBuffer, 0, read);
+						started = true;
+					}
 				}
 				else
 					throw new IOException("Can not continue deflating");
@@ -103,12 +137,155 @@ public class DeflateTranscoder implements Transcoder<ByteBuffer> {
 		}
 	}
 	
+	/**
+	 * Deflates straight from one nio buffer to another, on java 11+ the buffers are handed to zlib as is so direct buffers are never copied
+	 * The position of the input is moved past the consumed bytes and the position of the output past the written bytes, the amount of bytes written is returned
+	 * Once all the input has been offered, keep calling this with finish set to true until the transcoder reports that it is finished
+	 * This can not be combined with transcode() on the same instance
+	 */
+	public int deflate(java.nio.ByteBuffer input, java.nio.ByteBuffer output, boolean finish) throws IOException {
+		allocate();
+		// anything that was buffered (e.g. a header) has to be written first
+		int written = drain(output);
+		open();
+		if (buffer.remainingData() == 0 && !finished) {
+			if (finish)
+				deflater.finish();
+			if (input.hasRemaining())
+				started = true;
+			int position = input.position();
+			written += ZlibBuffers.deflate(deflater, input, output, Deflater.NO_FLUSH, readBuffer, deflateBuffer);
+			if (input.position() > position)
+				consumed(input, position);
+			if (deflater.finished()) {
+				finish();
+				written += drain(output);
+			}
+		}
+		return written;
+	}
+	
+	/**
+	 * Whether the nio deflating has finished and all the output was written
+	 */
+	public boolean isFinished() {
+		return finished && buffer.remainingData() == 0;
+	}
+	
+	/**
+	 * Called by the nio deflating for the input that was consumed, from the given position up to the current position of the input
+	 */
+	void consumed(java.nio.ByteBuffer input, int position) {
+		// no default behavior
+	}
+	
+	/**
+	 * Called once the deflater has written all its output, right before its native state is released
+	 */
+	void finished() throws IOException {
+		// no default behavior
+	}
+	
+	private void finish() throws IOException {
+		finished();
+		finished = true;
+		if (!reusable)
+			end();
+	}
+	
+	/**
+	 * Releases the native zlib state, this is done automatically once the deflater has finished
+	 * A reusable transcoder keeps its native state
+	 */
+	@Override
+	public void close() {
+		if (!reusable)
+			end();
+	}
+	
+	private void end() {
+		if (!ended) {
+			ended = true;
+			deflater.end();
+			ZlibStatistics.release(deflater);
+		}
+	}
+	
+	/**
+	 * Resets the deflater for a new stream, if the native state was already released a new deflater is created
+	 */
+	@Override
+	public void reset() {
+		buffer.truncate();
+		if (ended) {
+			deflater = new Deflater(level, noWrap);
+			ZlibStatistics.allocate(deflater, true);
+			ended = false;
+		}
+		else
+			deflater.reset();
+		started = false;
+		finished = false;
+	}
+	
+	int drain(java.nio.ByteBuffer output) throws IOException {
+		int written = 0;
+		while (buffer.remainingData() > 0 && output.hasRemaining()) {
+			int read = (int) buffer.read(IOUtils.wrap(deflateBuffer, 0, Math.min(output.remaining(), deflateBuffer.length), false));
+			output.put(deflateBuffer, 0, read);
+			written += read;
+		}
+		return written;
+	}
+	
+	/**
+	 * A transcoder that is closed before it was given any input (e.g. a container that is closed before it is read) can still be used
+	 */
+	private void open() throws IOException {
+		if (ended && !finished) {
+			if (started)
+				throw new IOException("The deflater has been closed");
+			deflater = new Deflater(level, noWrap);
+			ZlibStatistics.allocate(deflater, true);
+			ended = false;
+		}
+	}
+	
+	private void allocate() {
+		if (readBuffer == null) {
+			readBuffer = new byte[bufferSize];
+			deflateBuffer = new byte[bufferSize];
+		}
+	}
+	
 	void flushDeflater() throws IOException {
-		if (!deflater.finished())
-			deflater.finish();
-		int read = 0;
-		while ((read = deflater.deflate(deflateBuffer)) > 0)
-			buffer.write(deflateBuffer, 0, read);
+		allocate();
+		open();
+		if (!finished) {
+			if (!deflater.finished())
+				deflater.finish();
+			int read = 0;
+			while ((read = deflater.deflate(deflateBuffer)) > 0)
+				buffer.write(deflateBuffer, 0, read);
+			finish();
+		}
+	}
+
+	/**
+	 * The size depends on how compressible the data is
+	 */
+	@Override
+	public long getExactOutputSize(long inputSize) {
+		return -1;
+	}
+
+	/**
+	 * This is the bound zlib (deflateBound) uses for the default window and memory level, which is what the jdk deflater uses, it covers incompressible data stored in raw blocks
+	 * If we are not in nowrap mode, zlib adds a 2 byte header and a 4 byte adler32 checksum
+	 */
+	@Override
+	public long getMaximumOutputSize(long inputSize) {
+		return inputSize + (inputSize >> 12) + (inputSize >> 14) + (inputSize >> 25) + 7 + (noWrap ? 0 : 6);
 	}
 
 	@Override
@@ -118,4 +295,22 @@ public class DeflateTranscoder implements Transcoder<ByteBuffer> {
 			throw new IOException("Could not copy all the bytes to the output, there are " + buffer.remainingData() + " bytes remaining");
 	}
 
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	public void setBufferSize(int bufferSize) {
+		if (readBuffer != null)
+			throw new IllegalStateException("Can not change the buffer size once transcoding has started");
+		this.bufferSize = Math.max(64, bufferSize);
+	}
+
+	public boolean isReusable() {
+		return reusable;
+	}
+
+	public void setReusable(boolean reusable) {
+		this.reusable = reusable;
+	}
+
 }
@@ -28,10 +28,40 @@ import be.nabu.utils.io.api.ByteBuffer;
 import be.nabu.utils.io.api.ReadableContainer;
 import be.nabu.utils.io.api.WritableContainer;
 
+/**
+ * Consecutive gzip members (e.g. concatenated files or the output of parallel compressors) are decoded as one continuous stream
+ * Anything after the last member that is not a gzip header is ignored, much like the gzip tool does
+ */
 public class GZIPDecoder extends InflateTranscoder {
 	
 	private CRC32 crc = new CRC32();
 	
+	/**
+	 * The header and footer fields are gathered here
+	 */
+	private ByteBuffer header = IOUtils.newByteBuffer();
+	
+	/**
+	 * Input that was read ahead of the current position, it is read before the actual input
+	 */
+	private ByteBuffer pending = IOUtils.newByteBuffer();
+	
+	private PendingReadableContainer input = new PendingReadableContainer();
+	
+	private NioReadableContainer nio = new NioReadableContainer();
+	
+	private boolean multiMember = true;
+	
+	/**
+	 * The amount of members that have been fully decoded
+	 */
+	private long members = 0;
+	
+	/**
+	 * Whether the input has ended after a member and whether we are skipping data after the last member
+	 */
+	private boolean streamFinished, trailing;
+	
 	private boolean headerFinished = false;
 	
 	private boolean initialHeaderParsed = false;
@@ -52,10 +82,83 @@ public class GZIPDecoder extends InflateTranscoder {
 	
 	@Override
 	public void transcode(ReadableContainer<ByteBuffer> in, WritableContainer<ByteBuffer> out) throws IOException {
-		if (readHeader(in) && !dataParsed)
-			super.transcode(in, new ChecksummedWritableByteContainer(out, crc));
-		else if (headerFinished && dataParsed && !footerParsed)
-			finish(in, out);
+		ReadableContainer<ByteBuffer> input = input(in);
+		while (true) {
+			if (footerParsed && (!multiMember || !nextMember(input)))
+				break;
+			if (readHeader(input) && !dataParsed)
+				super.transcode(input, new ChecksummedWritableByteContainer(out, crc));
+			else if (headerFinished && dataParsed && !footerParsed)
+				finish(input, out);
+			if (!footerParsed)
+				break;
+		}
+	}
+	
+	/**
+	 * Checks whether another member follows the one that was just decoded, if so the decoder is reset for it
+	 */
+	private boolean nextMember(ReadableContainer<ByteBuffer> input) throws IOException {
+		if (!trailing) {
+			long amountNeeded = 10 - header.remainingData();
+			long read = IOUtils.limitReadable(input, amountNeeded).read(header);
+			if (read == -1)
+				streamFinished = true;
+			if (read != amountNeeded)
+				return false;
+			byte [] fixed = new byte[10];
+			header.read(fixed);
+			if (fixed[0] == (byte) GZIPEncoder.MAGIC_NUMBER && fixed[1] == (byte) (GZIPEncoder.MAGIC_NUMBER >> 8)) {
+				startMember();
+				crc.update(fixed);
+				header.write(fixed);
+				return true;
+			}
+			trailing = true;
+		}
+		// skip the trailing data
+		long skipped;
+		while ((skipped = input.read(IOUtils.newByteSink(8192))) > 0);
+		if (skipped == -1)
+			streamFinished = true;
+		return false;
+	}
+	
+	/**
+	 * Whether the few bytes gathered after a member can still be the start of another one, if not they are trailing data
+	 */
+	private boolean partialMember() throws IOException {
+		if (trailing || header.remainingData() == 0)
+			return false;
+		byte [] start = new byte[(int) header.remainingData()];
+		header.read(IOUtils.wrap(start, false));
+		if (start[0] == (byte) GZIPEncoder.MAGIC_NUMBER && (start.length == 1 || start[1] == (byte) (GZIPEncoder.MAGIC_NUMBER >> 8))) {
+			header.write(IOUtils.wrap(start, true));
+			return true;
+		}
+		trailing = true;
+		return false;
+	}
+	
+	private void startMember() {
+		super.reset();
+		streamFinished = false;
+		crc.reset();
+		headerFinished = false;
+		initialHeaderParsed = false;
+		dataParsed = false;
+		footerParsed = false;
+		flag = -1;
+		extraLength = -1;
+		nameSkipped = false;
+		commentSkipped = false;
+		crcChecked = false;
+	}
+	
+	private ReadableContainer<ByteBuffer> input(ReadableContainer<ByteBuffer> in) {
+		if (in != input)
+			input.parent = in;
+		return input;
 	}
 	
 	private boolean readHeader(ReadableContainer<ByteBuffer> readable) throws IOException {
@@ -64,24 +167,24 @@ public class GZIPDecoder extends InflateTranscoder {
 		
 		ChecksummedReadableByteContainer checkSummed = new ChecksummedReadableByteContainer(readable, crc);
 		if (!initialHeaderParsed) {
-			long amountNeeded = 10 - buffer.remainingData();
+			long amountNeeded = 10 - header.remainingData();
 			// the initial header is 10 long so we need at least that much data
-			if (amountNeeded > 0 && IOUtils.limitReadable(checkSummed, amountNeeded).read(buffer) != amountNeeded)
+			if (amountNeeded > 0 && IOUtils.limitReadable(checkSummed, amountNeeded).read(header) != amountNeeded)
 				return false;
 			
-			byte [] header = new byte[10];
-			buffer.read(header);
+			byte [] fixed = new byte[10];
+			header.read(fixed);
 			
 			// check for magic number
-			if (header[0] != (byte) GZIPEncoder.MAGIC_NUMBER || header[1] != (byte) (GZIPEncoder.MAGIC_NUMBER >> 8))
+			if (fixed[0] != (byte) GZIPEncoder.MAGIC_NUMBER || fixed[1] != (byte) (GZIPEncoder.MAGIC_NUMBER >> 8))
 				throw new TranscoderRuntimeException("The data does not represent a gzip file, it is missing the magic header");
 
 			// check that it uses a known compression method
-			if (header[2] != Deflater.DEFLATED)
+			if (fixed[2] != Deflater.DEFLATED)
 				throw new TranscoderRuntimeException("The compression method is not supported");
 			
 			// get the flag which indicates what additional options we have
-			flag = header[3] & 0xff;
+			flag = fixed[3] & 0xff;
 			
 			// the fields MTIME, XFL & OS are of no use to us
 			// we can consider the original header parsed
@@ -91,8 +194,8 @@ public class GZIPDecoder extends InflateTranscoder {
 		// first we need to read the extra field if available
 		if (flag > 0 && (flag & 4) == 4 && extraLength == -1) {
 			// first there is a "length" descriptor which states how long the field is, it is two bytes long
-			long amountNeeded = 2 - buffer.remainingData();
-			if (amountNeeded > 0 && IOUtils.limitReadable(checkSummed, amountNeeded).read(buffer) != amountNeeded)
+			long amountNeeded = 2 - header.remainingData();
+			if (amountNeeded > 0 && IOUtils.limitReadable(checkSummed, amountNeeded).read(header) != amountNeeded)
 				return false;
 			extraLength = readUnsignedShort();
 		}
@@ -107,7 +210,7 @@ public class GZIPDecoder extends InflateTranscoder {
 		
 		// we need to skip the name (if any)
 		if (flag > 0 && (flag & 8) == 8 && !nameSkipped) {
-			while (IOUtils.limitReadable(checkSummed, 1).read(buffer) == 1) {
+			while (IOUtils.limitReadable(checkSummed, 1).read(header) == 1) {
 				if (readUnsignedByte() == 0) {
 					nameSkipped = true;
 					break;
@@ -119,7 +222,7 @@ public class GZIPDecoder extends InflateTranscoder {
 		
 		// we need to skip the comment (if any)
 		if (flag > 0 && (flag & 16) == 16 && !commentSkipped) {
-			while (IOUtils.limitReadable(checkSummed, 1).read(buffer) == 1) {
+			while (IOUtils.limitReadable(checkSummed, 1).read(header) == 1) {
 				if (readUnsignedByte() == 0) {
 					commentSkipped = true;
 					break;
@@ -131,11 +234,13 @@ public class GZIPDecoder extends InflateTranscoder {
 		
 		// if there is a crc header, we need to check it
 		if (flag > 0 && (flag & 2) == 2 && !crcChecked) {
-			long amountNeeded = 2 - buffer.remainingData();
-			if (amountNeeded > 0 && IOUtils.limitReadable(checkSummed, amountNeeded).read(buffer) != amountNeeded)
+			long amountNeeded = 2 - header.remainingData();
+			// the crc field itself is not part of the checksum
+			if (amountNeeded > 0 && IOUtils.limitReadable(readable, amountNeeded).read(header) != amountNeeded)
 				return false;
 			int expectedCRC = readUnsignedShort();
-			if (crc.getValue() != expectedCRC)
+			// the header crc holds the lower 16 bits of the crc32
+			if ((crc.getValue() & 0xffff) != expectedCRC)
 				throw new TranscoderRuntimeException("The crc of the header is incorrect");
 		}
 	
@@ -155,29 +260,184 @@ public class GZIPDecoder extends InflateTranscoder {
 	}
 	
 	private int readUnsignedByte() throws IOException {
-		if (buffer.read(IOUtils.wrap(single, false)) != 1)
+		if (header.read(IOUtils.wrap(single, false)) != 1)
 			throw new IllegalStateException("Not enough data available in buffer");
 		return single[0] & 0xff;
 	}
 
 	void finish(ReadableContainer<ByteBuffer> in, WritableContainer<ByteBuffer> out) throws IOException {
-		dataParsed = true;
+		if (!dataParsed) {
+			dataParsed = true;
+			// the input the inflater did not consume is the footer and possibly the next member, it goes before anything read ahead
+			if (pending.remainingData() > 0)
+				IOUtils.copyBytes(pending, buffer);
+			IOUtils.copyBytes(buffer, pending);
+		}
+		ReadableContainer<ByteBuffer> input = input(in);
 		// there is an 8 byte footer
-		long amountNeeded = 8 - buffer.remainingData();
-		if (amountNeeded == 0 || IOUtils.limitReadable(in, amountNeeded).read(buffer) == amountNeeded) {
-			long expectedCRC = readUnsignedInteger();
-			long expectedSize = readUnsignedInteger();
-			if (expectedCRC != crc.getValue())
-				throw new TranscoderRuntimeException("The crc of the content is incorrect");
-			else if (expectedSize != inflater.getBytesWritten())
-				throw new TranscoderRuntimeException("The gzip file is corrupt, the expected size does not match the actual: " + expectedSize + " != " + inflater.getBytesWritten());
-			footerParsed = true;
-			super.finish(in, out);
+		long amountNeeded = 8 - header.remainingData();
+		if (amountNeeded == 0 || IOUtils.limitReadable(input, amountNeeded).read(header) == amountNeeded) {
+			readFooter();
+			super.finish(input, out);
 		}
 	}
 	
+	private void readFooter() throws IOException {
+		long expectedCRC = readUnsignedInteger();
+		long expectedSize = readUnsignedInteger();
+		// the size is stored modulo 2^32
+		long actualSize = inflater.getBytesWritten() & 0xffffffffL;
+		if (expectedCRC != crc.getValue())
+			throw new TranscoderRuntimeException("The crc of the content is incorrect");
+		else if (expectedSize != actualSize)
+			throw new TranscoderRuntimeException("The gzip file is corrupt, the expected size does not match the actual: " + expectedSize + " != " + actualSize);
+		footerParsed = true;
+		members++;
+	}
+	
+	/**
+	 * Without an end of input, an external flush after a complete member finishes the stream, its native state is released
+	 * Until then the same inflater is reset for every member, if another member is written after a flush a new one is set up
+	 */
+	@Override
+	public void flush(WritableContainer<ByteBuffer> out) throws IOException {
+		if (footerParsed)
+			streamFinished = true;
+		super.flush(out);
+	}
+	
+	@Override
+	public void reset() {
+		startMember();
+		header.truncate();
+		pending.truncate();
+		input.parent = null;
+		nio.input = null;
+		members = 0;
+		streamFinished = false;
+		trailing = false;
+	}
+	
+	/**
+	 * Inflates gzip data straight from one nio buffer to another, the header and footer are parsed from the input
+	 * There is no end of input so a member that ends with the offered input finishes the stream, offering more input continues with the next member (if any)
+	 * This can not be combined with transcode() on the same instance
+	 */
+	@Override
+	public int inflate(java.nio.ByteBuffer input, java.nio.ByteBuffer output) throws IOException {
+		nio.input = input;
+		int written = 0;
+		while (true) {
+			if (footerParsed) {
+				if (!multiMember || (!input.hasRemaining() && !partialMember())) {
+					streamFinished = true;
+					if (!isReusable())
+						end();
+					break;
+				}
+				else if (!nextMember(nio))
+					break;
+			}
+			if (!readHeader(nio))
+				break;
+			if (!dataParsed) {
+				int position = output.position();
+				int inflated = inflateRaw(input, output);
+				if (inflated > 0) {
+					java.nio.ByteBuffer checksummed = output.duplicate();
+					checksummed.limit(output.position());
+					checksummed.position(position);
+					crc.update(checksummed);
+					written += inflated;
+				}
+				if (!inflater.finished())
+					break;
+				dataParsed = true;
+			}
+			long amountNeeded = 8 - header.remainingData();
+			if (amountNeeded > 0 && IOUtils.limitReadable(nio, amountNeeded).read(header) != amountNeeded)
+				break;
+			readFooter();
+		}
+		return written;
+	}
+	
 	@Override
 	public boolean isFinished() {
-		return super.isFinished() && headerFinished && dataParsed && footerParsed;
+		return super.isFinished() && headerFinished && dataParsed && footerParsed && (streamFinished || !multiMember);
+	}
+
+	public boolean isMultiMember() {
+		return multiMember;
+	}
+
+	/**
+	 * When disabled, the decoder is finished after the first member
+	 */
+	public void setMultiMember(boolean multiMember) {
+		this.multiMember = multiMember;
+	}
+
+	public long getMembers() {
+		return members;
+	}
+	
+	/**
+	 * Reads any input that was read ahead before reading from the actual input
+	 */
+	private class PendingReadableContainer implements ReadableContainer<ByteBuffer> {
+
+		private ReadableContainer<ByteBuffer> parent;
+		
+		@Override
+		public long read(ByteBuffer target) throws IOException {
+			long read = pending.remainingData() > 0 ? target.write(pending) : 0;
+			if (target.remainingSpace() > 0) {
+				long newlyRead = parent.read(target);
+				if (newlyRead > 0)
+					read += newlyRead;
+				else if (read == 0)
+					return newlyRead;
+			}
+			return read;
+		}
+
+		@Override
+		public void close() throws IOException {
+			parent.close();
+		}
+	}
+	
+	/**
+	 * Reads the gzip fields from the nio input, it only ever takes what is asked so the compressed data stays in the input
+	 */
+	private static class NioReadableContainer implements ReadableContainer<ByteBuffer> {
+		
+		private java.nio.ByteBuffer input;
+		
+		private byte [] scratch = new byte[512];
+		
+		@Override
+		public long read(ByteBuffer target) throws IOException {
+			long read = 0;
+			while (input.hasRemaining() && target.remainingSpace() > 0) {
+				int amount = (int) Math.min(scratch.length, Math.min(input.remaining(), target.remainingSpace()));
+				input.get(scratch, 0, amount);
+				int written = (int) target.write(scratch, 0, amount);
+				if (written < amount) {
+					// give back what the target could not take
+					input.position(input.position() - (amount - Math.max(0, written)));
+					read += Math.max(0, written);
+					break;
+				}
+				read += written;
+			}
+			return read;
+		}
+
+		@Override
+		public void close() throws IOException {
+			// do nothing
+		}
 	}
 }
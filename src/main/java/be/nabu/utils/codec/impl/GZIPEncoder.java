@@ -43,6 +43,18 @@ public class GZIPEncoder extends DeflateTranscoder {
 
 	public GZIPEncoder(DeflaterLevel level) {
 		super(level, true);
+		writeHeader();
+	}
+	
+	@Override
+	public void reset() {
+		super.reset();
+		crc.reset();
+		wroteFooter = false;
+		writeHeader();
+	}
+	
+	private void writeHeader() {
 		try {
 			writeHeader(buffer);
 		}
@@ -56,7 +68,37 @@ public class GZIPEncoder extends DeflateTranscoder {
 		super.transcode(new ChecksummedReadableByteContainer(in, crc), out);
 	}
 
-	private void writeHeader(WritableContainer<ByteBuffer> out) throws IOException {
+	/**
+	 * Checksum whatever the nio deflating consumed
+	 */
+	@Override
+	void consumed(java.nio.ByteBuffer input, int position) {
+		java.nio.ByteBuffer consumed = input.duplicate();
+		consumed.limit(input.position());
+		consumed.position(position);
+		crc.update(consumed);
+	}
+	
+	/**
+	 * The footer needs the amount of bytes read so it has to be written before the deflater is ended
+	 */
+	@Override
+	void finished() throws IOException {
+		if (!wroteFooter) {
+			writeFooter(buffer);
+			wroteFooter = true;
+		}
+	}
+
+	/**
+	 * The deflated content is surrounded by a 10 byte header and an 8 byte footer
+	 */
+	@Override
+	public long getMaximumOutputSize(long inputSize) {
+		return super.getMaximumOutputSize(inputSize) + 18;
+	}
+
+	static void writeHeader(WritableContainer<ByteBuffer> out) throws IOException {
 		out.write(IOUtils.wrap(new byte [] {
 			(byte) MAGIC_NUMBER,
 			(byte) (MAGIC_NUMBER >> 8),
@@ -76,7 +118,7 @@ public class GZIPEncoder extends DeflateTranscoder {
 		writeLong(out, deflater.getBytesRead());
 	}
 	
-	private void writeLong(WritableContainer<ByteBuffer> out, long value) throws IOException {
+	static void writeLong(WritableContainer<ByteBuffer> out, long value) throws IOException {
         out.write(IOUtils.wrap(new byte [] { 
         	(byte) value,
         	(byte) (value >> 8),
@@ -84,15 +126,4 @@ public class GZIPEncoder extends DeflateTranscoder {
         	(byte) (value >> 24)
         }, true));
     }
-	
-	@Override
-	public void flush(WritableContainer<ByteBuffer> out) throws IOException {
-		if (!wroteFooter) {
-			flushDeflater();
-			writeFooter(buffer);
-			wroteFooter = true;
-		}
-		if (buffer.remainingData() != out.write(buffer))
-			throw new IOException("Could not copy all the bytes to the output, there are " + buffer.remainingData() + " bytes remaining");
-	}
 }
@@ -0,0 +1,689 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.utils.codec.impl;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import be.nabu.utils.io.api.ByteBuffer;
+import be.nabu.utils.io.api.ReadableContainer;
+
+/**
+ * A random access index for gzip (or raw deflate) data, much like zran from the zlib examples
+ * The index is built in one pass, it records a checkpoint roughly every "spacing" bytes of uncompressed data so a read at any offset only has to inflate from the nearest checkpoint
+ * 
+ * The inflater of the jdk can not be primed with bits so unlike zran we can not resume at an arbitrary deflate block, instead checkpoints are placed at the byte aligned points where inflation can restart:
+ * - the start of a gzip member (e.g. every block of BGZF)
+ * - the marker of a sync or full flush (e.g. every block of the ParallelGZIPEncoder), inflation resumes with the last 32kb of data as dictionary
+ * Flush markers can also occur by chance in compressed data so every candidate is verified by inflating from it before it is accepted
+ * A gzip file without members or flush points (e.g. from the gzip tool) only has a checkpoint at the start
+ * 
+ * The channels must be blocking, the index can be saved in a sidecar file with marshal()
+ */
+public class GZIPIndex {
+
+	public static final long DEFAULT_SPACING = 1024 * 1024;
+	
+	private static final int MAGIC = 0x475a4958;
+	
+	private static final int VERSION = 1;
+	
+	/**
+	 * The maximum window of deflate
+	 */
+	private static final int WINDOW_SIZE = 32768;
+	
+	/**
+	 * The amount of data we compare to verify a flush point
+	 */
+	private static final int VERIFY_SIZE = 16384;
+	
+	private static final int CHUNK_SIZE = 65536;
+	
+	/**
+	 * While indexing, the compressed data is given to the inflater in small slices so we don't skip past the flush markers
+	 */
+	private static final int SLICE_SIZE = 2048;
+	
+	private boolean gzip;
+	
+	private long spacing, compressedSize, uncompressedSize;
+	
+	private List<Checkpoint> checkpoints = new ArrayList<Checkpoint>();
+	
+	private GZIPIndex(boolean gzip, long spacing) {
+		this.gzip = gzip;
+		this.spacing = spacing;
+	}
+	
+	public static GZIPIndex build(ReadableByteChannel channel) throws IOException {
+		return build(channel, true, DEFAULT_SPACING);
+	}
+	
+	/**
+	 * Builds an index for gzip data or raw deflate data (if gzip is false) starting at the current position of the channel
+	 * For a seekable channel the compressed offsets are positions in the channel, otherwise they are relative to where the indexing started
+	 */
+	public static GZIPIndex build(ReadableByteChannel channel, boolean gzip, long spacing) throws IOException {
+		GZIPIndex index = new GZIPIndex(gzip, Math.max(WINDOW_SIZE, spacing));
+		long offset = channel instanceof SeekableByteChannel ? ((SeekableByteChannel) channel).position() : 0;
+		Indexer indexer = new Indexer(channel, index, offset);
+		try {
+			indexer.run();
+		}
+		finally {
+			indexer.close();
+		}
+		return index;
+	}
+	
+	/**
+	 * Reads the uncompressed data from the given offset, the channel must contain the data the index was built for at the same positions
+	 * Closing the container releases the inflater, the channel is left open so it can be reused for other reads
+	 */
+	public ReadableContainer<ByteBuffer> read(SeekableByteChannel channel, long offset) throws IOException {
+		Checkpoint checkpoint = getCheckpoint(offset);
+		channel.position(checkpoint.getCompressedOffset());
+		Cursor cursor = new Cursor(channel, gzip, checkpoint.getCompressedOffset());
+		cursor.total = checkpoint.getUncompressedOffset();
+		if (!checkpoint.isMember())
+			cursor.resume(checkpoint.getWindow());
+		return new CursorReadableContainer(cursor, offset - checkpoint.getUncompressedOffset());
+	}
+	
+	/**
+	 * The last checkpoint at or before the given uncompressed offset
+	 */
+	public Checkpoint getCheckpoint(long offset) {
+		if (checkpoints.isEmpty())
+			throw new IllegalStateException("The index is empty");
+		int low = 0, high = checkpoints.size() - 1;
+		while (low < high) {
+			int middle = (low + high + 1) >>> 1;
+			if (checkpoints.get(middle).getUncompressedOffset() <= offset)
+				low = middle;
+			else
+				high = middle - 1;
+		}
+		return checkpoints.get(low);
+	}
+	
+	/**
+	 * Writes the index, the windows are compressed
+	 */
+	public void marshal(OutputStream output) throws IOException {
+		DataOutputStream data = new DataOutputStream(output);
+		data.writeInt(MAGIC);
+		data.writeInt(VERSION);
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try {
+			DeflaterOutputStream deflating = new DeflaterOutputStream(data, deflater);
+			DataOutputStream payload = new DataOutputStream(deflating);
+			payload.writeBoolean(gzip);
+			payload.writeLong(spacing);
+			payload.writeLong(compressedSize);
+			payload.writeLong(uncompressedSize);
+			payload.writeInt(checkpoints.size());
+			for (Checkpoint checkpoint : checkpoints) {
+				payload.writeLong(checkpoint.getCompressedOffset());
+				payload.writeLong(checkpoint.getUncompressedOffset());
+				payload.writeBoolean(checkpoint.isMember());
+				payload.writeInt(checkpoint.getWindow().length);
+				payload.write(checkpoint.getWindow());
+			}
+			payload.flush();
+			deflating.finish();
+		}
+		finally {
+			deflater.end();
+		}
+		data.flush();
+	}
+	
+	public static GZIPIndex unmarshal(InputStream input) throws IOException {
+		DataInputStream data = new DataInputStream(input);
+		if (data.readInt() != MAGIC)
+			throw new IOException("The data does not represent a gzip index");
+		int version = data.readInt();
+		if (version != VERSION)
+			throw new IOException("The version of the gzip index is not supported: " + version);
+		Inflater inflater = new Inflater();
+		try {
+			DataInputStream payload = new DataInputStream(new InflaterInputStream(data, inflater));
+			GZIPIndex index = new GZIPIndex(payload.readBoolean(), payload.readLong());
+			index.compressedSize = payload.readLong();
+			index.uncompressedSize = payload.readLong();
+			int amount = payload.readInt();
+			for (int i = 0; i < amount; i++) {
+				long compressedOffset = payload.readLong();
+				long uncompressedOffset = payload.readLong();
+				boolean member = payload.readBoolean();
+				int length = payload.readInt();
+				if (length < 0 || length > WINDOW_SIZE)
+					throw new IOException("The gzip index is corrupt");
+				byte [] window = new byte[length];
+				payload.readFully(window);
+				index.checkpoints.add(new Checkpoint(compressedOffset, uncompressedOffset, window, member));
+			}
+			return index;
+		}
+		finally {
+			inflater.end();
+		}
+	}
+	
+	public boolean isGzip() {
+		return gzip;
+	}
+
+	public long getSpacing() {
+		return spacing;
+	}
+
+	public long getCompressedSize() {
+		return compressedSize;
+	}
+
+	public long getUncompressedSize() {
+		return uncompressedSize;
+	}
+
+	public List<Checkpoint> getCheckpoints() {
+		return Collections.unmodifiableList(checkpoints);
+	}
+	
+	public static class Checkpoint {
+		private long compressedOffset, uncompressedOffset;
+		private byte [] window;
+		private boolean member;
+		
+		Checkpoint(long compressedOffset, long uncompressedOffset, byte [] window, boolean member) {
+			this.compressedOffset = compressedOffset;
+			this.uncompressedOffset = uncompressedOffset;
+			this.window = window;
+			this.member = member;
+		}
+
+		/**
+		 * The offset in the compressed data where inflation restarts
+		 */
+		public long getCompressedOffset() {
+			return compressedOffset;
+		}
+
+		public long getUncompressedOffset() {
+			return uncompressedOffset;
+		}
+
+		/**
+		 * The uncompressed data right before the checkpoint, it is empty at the start of a member
+		 */
+		public byte [] getWindow() {
+			return window;
+		}
+
+		/**
+		 * Whether a new member (or for raw deflate: the stream) starts here
+		 */
+		public boolean isMember() {
+			return member;
+		}
+	}
+	
+	/**
+	 * Inflates the members one after the other from a channel, keeping track of the offsets
+	 */
+	private static class Cursor implements Closeable {
+		
+		private ReadableByteChannel channel;
+		
+		private boolean gzip;
+		
+		private byte [] chunk = new byte[CHUNK_SIZE];
+		
+		private int start, end;
+		
+		/**
+		 * The offset of the chunk in the compressed data
+		 */
+		private long chunkOffset;
+		
+		Inflater inflater = new Inflater(true);
+		
+		/**
+		 * No data beyond this offset is given to the inflater, once it is reached inflate() returns 0
+		 */
+		long limit = Long.MAX_VALUE;
+		
+		/**
+		 * Whether we are in the deflate data of a member, whether we have started at all and whether we started in the middle of the member
+		 */
+		boolean inflating, started, partial;
+		
+		/**
+		 * The amount of uncompressed data so far and the offsets where the current member starts
+		 */
+		long total, memberOffset, memberTotal;
+		
+		int members;
+		
+		private boolean closed;
+		
+		Cursor(ReadableByteChannel channel, boolean gzip, long offset) {
+			this.channel = channel;
+			this.gzip = gzip;
+			this.chunkOffset = offset;
+			ZlibStatistics.allocate(inflater, false);
+		}
+		
+		/**
+		 * Continues in the middle of a member at a flush point
+		 */
+		void resume(byte [] window) {
+			if (window.length > 0)
+				inflater.setDictionary(window);
+			inflating = true;
+			started = true;
+			partial = true;
+		}
+		
+		/**
+		 * The offset of the first byte that was not given to the inflater
+		 */
+		long position() {
+			return chunkOffset + start;
+		}
+		
+		/**
+		 * Returns the amount of bytes inflated, -1 at the end of the data and 0 if the limit is reached
+		 */
+		int inflate(byte [] bytes, int offset, int length) throws IOException {
+			try {
+				while (true) {
+					if (!inflating) {
+						if (started && !gzip)
+							return -1;
+						memberOffset = position();
+						if (gzip && !header())
+							return -1;
+						inflater.reset();
+						inflating = true;
+						started = true;
+						partial = false;
+						memberTotal = total;
+						members++;
+					}
+					int read = inflater.inflate(bytes, offset, length);
+					if (read > 0) {
+						total += read;
+						return read;
+					}
+					else if (inflater.finished()) {
+						// whatever the inflater did not use belongs to the footer and the next member
+						start -= inflater.getRemaining();
+						inflating = false;
+						if (gzip)
+							footer();
+					}
+					else if (inflater.needsDictionary())
+						throw new IOException("A preset dictionary is not supported");
+					else if (inflater.needsInput()) {
+						if (position() >= limit)
+							return 0;
+						else if (start == end && !fill())
+							throw new IOException("The compressed data ends prematurely at offset " + position());
+						int amount = feed(chunk, start, (int) Math.min(end - start, limit - position()));
+						inflater.setInput(chunk, start, amount);
+						start += amount;
+					}
+					else
+						throw new IOException("The inflater can not provide data");
+				}
+			}
+			catch (DataFormatException e) {
+				throw new IOException("The compressed data is corrupt before offset " + position(), e);
+			}
+		}
+		
+		/**
+		 * Called with the compressed data right before it is given to the inflater, the amount that may be given is returned
+		 */
+		int feed(byte [] bytes, int offset, int length) throws IOException {
+			return length;
+		}
+		
+		/**
+		 * Skips the gzip header, returns false if there is no further member
+		 */
+		private boolean header() throws IOException {
+			int first = next();
+			if (first == -1)
+				return false;
+			if (first != (GZIPEncoder.MAGIC_NUMBER & 0xff) || next() != (GZIPEncoder.MAGIC_NUMBER >> 8)) {
+				if (members == 0)
+					throw new IOException("The data does not represent a gzip file, it is missing the magic header");
+				// anything after the last member that is not a gzip header is ignored
+				do {
+					start = end;
+				}
+				while (fill());
+				return false;
+			}
+			if (required() != Deflater.DEFLATED)
+				throw new IOException("The compression method is not supported");
+			int flag = required();
+			// MTIME, XFL & OS
+			skip(6);
+			if ((flag & 4) != 0)
+				skip(required() | (required() << 8));
+			if ((flag & 8) != 0)
+				while (required() != 0);
+			if ((flag & 16) != 0)
+				while (required() != 0);
+			if ((flag & 2) != 0)
+				skip(2);
+			return true;
+		}
+		
+		private void footer() throws IOException {
+			// we don't check the crc, only the size
+			skip(4);
+			long size = required() | (required() << 8) | (required() << 16) | ((long) required() << 24);
+			if (!partial && size != ((total - memberTotal) & 0xffffffffL))
+				throw new IOException("The gzip member at offset " + memberOffset + " is corrupt, the expected size does not match the actual: " + size + " != " + (total - memberTotal));
+		}
+		
+		private void skip(int amount) throws IOException {
+			for (int i = 0; i < amount; i++)
+				required();
+		}
+		
+		private int required() throws IOException {
+			int value = next();
+			if (value == -1)
+				throw new IOException("The gzip data ends prematurely at offset " + position());
+			return value;
+		}
+		
+		private int next() throws IOException {
+			if (start == end && !fill())
+				return -1;
+			return chunk[start++] & 0xff;
+		}
+		
+		/**
+		 * Reads the next chunk, this is only done once everything has been used
+		 */
+		private boolean fill() throws IOException {
+			chunkOffset += start;
+			start = 0;
+			end = 0;
+			int read;
+			while ((read = channel.read(java.nio.ByteBuffer.wrap(chunk))) == 0);
+			if (read < 0)
+				return false;
+			end = read;
+			return true;
+		}
+
+		@Override
+		public void close() {
+			if (!closed) {
+				closed = true;
+				inflater.end();
+				ZlibStatistics.release(inflater);
+			}
+		}
+	}
+	
+	/**
+	 * Builds the index, it looks for flush markers once enough data has passed since the last checkpoint
+	 */
+	private static class Indexer extends Cursor {
+		
+		private GZIPIndex index;
+		
+		/**
+		 * The last 32kb of uncompressed data
+		 */
+		private byte [] window = new byte[WINDOW_SIZE];
+		
+		/**
+		 * The flush point we are verifying, the probe inflates from it and the output is compared with the actual data
+		 */
+		private Checkpoint candidate;
+		
+		private Inflater probe;
+		
+		private byte [] expected, probed;
+		
+		private int expectedLength, probedLength;
+		
+		private boolean failed;
+		
+		/**
+		 * Where the data starts in the channel
+		 */
+		private long offset;
+		
+		Indexer(ReadableByteChannel channel, GZIPIndex index, long offset) {
+			super(channel, index.gzip, offset);
+			this.index = index;
+			this.offset = offset;
+		}
+		
+		void run() throws IOException {
+			byte [] buffer = new byte[CHUNK_SIZE];
+			int indexedMembers = 0;
+			while (true) {
+				int read = inflate(buffer, 0, buffer.length);
+				// a new member has started
+				if (members != indexedMembers) {
+					indexedMembers = members;
+					if (candidate != null)
+						verify(true);
+					if (index.checkpoints.isEmpty() || memberTotal - last() >= index.spacing)
+						index.checkpoints.add(new Checkpoint(memberOffset, memberTotal, new byte[0], true));
+				}
+				if (read == -1) {
+					if (candidate != null)
+						verify(true);
+					break;
+				}
+				// we stopped right after a flush marker
+				else if (read == 0) {
+					limit = Long.MAX_VALUE;
+					if (total - last() >= index.spacing)
+						probe();
+				}
+				else {
+					if (candidate != null) {
+						int amount = Math.min(read, VERIFY_SIZE - expectedLength);
+						System.arraycopy(buffer, 0, expected, expectedLength, amount);
+						expectedLength += amount;
+						if (expectedLength == VERIFY_SIZE)
+							verify(false);
+					}
+					remember(buffer, read);
+				}
+			}
+			index.compressedSize = position() - offset;
+			index.uncompressedSize = total;
+		}
+		
+		private long last() {
+			return index.checkpoints.isEmpty() ? 0 : index.checkpoints.get(index.checkpoints.size() - 1).getUncompressedOffset();
+		}
+		
+		@Override
+		int feed(byte [] bytes, int offset, int length) throws IOException {
+			length = Math.min(length, SLICE_SIZE);
+			// once we need a checkpoint, stop right after the first flush marker (an empty stored block: 0x0000ffff)
+			if (candidate == null && limit == Long.MAX_VALUE && total - last() >= index.spacing) {
+				for (int i = offset; i + 4 <= offset + length; i++) {
+					if (bytes[i] == 0 && bytes[i + 1] == 0 && bytes[i + 2] == (byte) 0xff && bytes[i + 3] == (byte) 0xff) {
+						length = i + 4 - offset;
+						limit = position() + length;
+						break;
+					}
+				}
+			}
+			// the probe gets the same data
+			if (probe != null && !failed && probedLength < VERIFY_SIZE) {
+				try {
+					probe.setInput(bytes, offset, length);
+					while (probedLength < VERIFY_SIZE && !probe.finished()) {
+						int read = probe.inflate(probed, probedLength, VERIFY_SIZE - probedLength);
+						if (read == 0)
+							break;
+						probedLength += read;
+					}
+				}
+				catch (DataFormatException e) {
+					failed = true;
+				}
+			}
+			return length;
+		}
+		
+		private void probe() {
+			byte [] bytes = window();
+			candidate = new Checkpoint(position(), total, bytes, false);
+			probe = new Inflater(true);
+			ZlibStatistics.allocate(probe, false);
+			if (bytes.length > 0)
+				probe.setDictionary(bytes);
+			if (expected == null) {
+				expected = new byte[VERIFY_SIZE];
+				probed = new byte[VERIFY_SIZE];
+			}
+			expectedLength = 0;
+			probedLength = 0;
+			failed = false;
+		}
+		
+		/**
+		 * The candidate is valid if the probe produced the same data, if the member ended the probe must have ended as well
+		 */
+		private void verify(boolean ended) {
+			boolean valid = !failed && probedLength >= expectedLength && (!ended || (probe.finished() && probedLength == expectedLength));
+			for (int i = 0; valid && i < expectedLength; i++)
+				valid = expected[i] == probed[i];
+			if (valid)
+				index.checkpoints.add(candidate);
+			candidate = null;
+			endProbe();
+		}
+		
+		private void endProbe() {
+			if (probe != null) {
+				probe.end();
+				ZlibStatistics.release(probe);
+				probe = null;
+			}
+		}
+		
+		/**
+		 * Every byte of uncompressed data ends up at its offset modulo the window size
+		 */
+		private void remember(byte [] bytes, int length) {
+			int skip = Math.max(0, length - WINDOW_SIZE);
+			int amount = length - skip;
+			int position = (int) ((total - amount) % WINDOW_SIZE);
+			int first = Math.min(amount, WINDOW_SIZE - position);
+			System.arraycopy(bytes, skip, window, position, first);
+			System.arraycopy(bytes, skip + first, window, 0, amount - first);
+		}
+		
+		/**
+		 * The window in order
+		 */
+		private byte [] window() {
+			byte [] bytes = new byte[(int) Math.min(total, WINDOW_SIZE)];
+			int position = (int) (total % WINDOW_SIZE);
+			if (total < WINDOW_SIZE)
+				System.arraycopy(window, 0, bytes, 0, bytes.length);
+			else {
+				System.arraycopy(window, position, bytes, 0, WINDOW_SIZE - position);
+				System.arraycopy(window, 0, bytes, WINDOW_SIZE - position, position);
+			}
+			return bytes;
+		}
+		
+		@Override
+		public void close() {
+			endProbe();
+			super.close();
+		}
+	}
+	
+	private static class CursorReadableContainer implements ReadableContainer<ByteBuffer> {
+		
+		private Cursor cursor;
+		
+		/**
+		 * The amount of data between the checkpoint and the requested offset
+		 */
+		private long skip;
+		
+		private byte [] buffer = new byte[CHUNK_SIZE];
+		
+		CursorReadableContainer(Cursor cursor, long skip) {
+			this.cursor = cursor;
+			this.skip = skip;
+		}
+		
+		@Override
+		public long read(ByteBuffer target) throws IOException {
+			while (skip > 0) {
+				int read = cursor.inflate(buffer, 0, (int) Math.min(skip, buffer.length));
+				if (read == -1)
+					return -1;
+				skip -= read;
+			}
+			long total = 0;
+			while (target.remainingSpace() > 0) {
+				int read = cursor.inflate(buffer, 0, (int) Math.min(target.remainingSpace(), buffer.length));
+				if (read == -1)
+					return total == 0 ? -1 : total;
+				target.write(buffer, 0, read);
+				total += read;
+			}
+			return total;
+		}
+
+		@Override
+		public void close() throws IOException {
+			cursor.close();
+		}
+	}
+}
@@ -0,0 +1,215 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.utils.codec.impl;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import be.nabu.utils.codec.api.ResettableTranscoder;
+import be.nabu.utils.codec.api.SizePredictingTranscoder;
+import be.nabu.utils.codec.api.Transcoder;
+import be.nabu.utils.io.IOUtils;
+import be.nabu.utils.io.api.ByteBuffer;
+import be.nabu.utils.io.api.ReadableContainer;
+import be.nabu.utils.io.api.WritableContainer;
+import be.nabu.utils.io.buffers.bytes.DynamicByteBuffer;
+
+/**
+ * Decodes hexadecimal characters (both upper- and lowercase) back to bytes
+ * If a separator is set, it must appear between every two bytes
+ */
+public class HexDecoder implements Transcoder<ByteBuffer>, SizePredictingTranscoder, ResettableTranscoder {
+
+	static final byte [] digits = new byte[256]; static {
+		Arrays.fill(digits, (byte) -1);
+		for (int i = 0; i < 16; i++) {
+			digits[HexEncoder.lowercase[i]] = (byte) i;
+			digits[HexEncoder.uppercase[i]] = (byte) i;
+		}
+	}
+	
+	/**
+	 * 65536 entries, indexed by two characters (first in the high byte), each entry contains the decoded byte or -1 if either character is invalid
+	 * It is in a holder class so it is only built when the first decoder is used
+	 */
+	private static class Pairs {
+		static final short [] table = new short[65536]; static {
+			for (int i = 0; i < table.length; i++) {
+				int first = digits[i >>> 8];
+				int second = digits[i & 0xff];
+				table[i] = first < 0 || second < 0 ? -1 : (short) ((first << 4) | second);
+			}
+		}
+	}
+	
+	private short [] pairs = Pairs.table;
+	
+	private byte [] separator = new byte[0];
+	
+	/**
+	 * Where we are in a cycle of two hex characters and the separator, it is carried over between transcode calls
+	 */
+	private int state = 0;
+	
+	/**
+	 * The first character of a pair that was split over two blocks
+	 */
+	private int first;
+	
+	/**
+	 * Whether we just finished a separator, it must be followed by another byte
+	 */
+	private boolean separated = false;
+	
+	/**
+	 * The amount of input bytes processed in previous blocks, used to report the offset of invalid characters
+	 */
+	private long inputOffset = 0;
+	
+	private DynamicByteBuffer outputBuffer = new DynamicByteBuffer();
+	
+	private int blockSize = 4096;
+	
+	private byte [] readBuffer;
+	
+	private byte [] decoded;
+	
+	@Override
+	public void transcode(ReadableContainer<ByteBuffer> in, WritableContainer<ByteBuffer> out) throws IOException {
+		if (outputBuffer.remainingData() == IOUtils.copyBytes(outputBuffer, out)) {
+			if (readBuffer == null) {
+				readBuffer = new byte[blockSize];
+				decoded = new byte[(blockSize / 2) + 1];
+			}
+			int read;
+			while (outputBuffer.remainingData() == 0 && (read = (int) in.read(IOUtils.wrap(readBuffer, false))) > 0) {
+				int position = decodeBlock(read);
+				inputOffset += read;
+				write(out, position);
+			}
+		}
+	}
+	
+	private int decodeBlock(int length) throws IOException {
+		int position = 0;
+		for (int i = 0; i < length; i++) {
+			// a full pair is available, decode it in one lookup
+			if (state == 0 && i + 1 < length) {
+				int value = pairs[((readBuffer[i] & 0xff) << 8) | (readBuffer[i + 1] & 0xff)];
+				if (value < 0)
+					throw invalid(digits[readBuffer[i] & 0xff] < 0 ? i : i + 1);
+				decoded[position++] = (byte) value;
+				i++;
+				state = separator.length == 0 ? 0 : 2;
+				separated = false;
+			}
+			else if (state == 0) {
+				first = readBuffer[i] & 0xff;
+				if (digits[first] < 0)
+					throw invalid(i);
+				state = 1;
+			}
+			else if (state == 1) {
+				int value = pairs[(first << 8) | (readBuffer[i] & 0xff)];
+				if (value < 0)
+					throw invalid(i);
+				decoded[position++] = (byte) value;
+				state = separator.length == 0 ? 0 : 2;
+				separated = false;
+			}
+			// we expect a separator
+			else {
+				if (readBuffer[i] != separator[state - 2])
+					throw invalid(i);
+				if (state - 1 == separator.length) {
+					state = 0;
+					separated = true;
+				}
+				else
+					state++;
+			}
+		}
+		return position;
+	}
+	
+	private IOException invalid(int index) {
+		return new IOException("Invalid hex character 0x" + Integer.toHexString(readBuffer[index] & 0xff) + " at offset " + (inputOffset + index));
+	}
+	
+	private void write(WritableContainer<ByteBuffer> out, int length) throws IOException {
+		if (length > 0) {
+			int written = (int) out.write(IOUtils.wrap(decoded, 0, length, true));
+			if (written < length)
+				outputBuffer.write(decoded, written, length - written);
+		}
+	}
+
+	@Override
+	public void flush(WritableContainer<ByteBuffer> out) throws IOException {
+		// we must end right after a pair
+		if (state == 1)
+			throw new IOException("The hex input ends in the middle of a byte");
+		else if (state > 2 || separated)
+			throw new IOException("The hex input ends with a separator");
+		IOUtils.copyBytes(outputBuffer, out);
+		if (outputBuffer.remainingData() > 0)
+			throw new IOException("Not enough space in the target to finish the decoding");
+	}
+
+	@Override
+	public void reset() {
+		outputBuffer.truncate();
+		state = 0;
+		separated = false;
+		inputOffset = 0;
+	}
+
+	/**
+	 * This assumes the input is valid
+	 */
+	@Override
+	public long getExactOutputSize(long inputSize) {
+		return (inputSize + separator.length) / (2 + separator.length);
+	}
+
+	@Override
+	public long getMaximumOutputSize(long inputSize) {
+		return getExactOutputSize(inputSize);
+	}
+
+	public String getSeparator() {
+		return new String(separator, Charset.forName("ASCII"));
+	}
+
+	public void setSeparator(String separator) {
+		if (readBuffer != null)
+			throw new IllegalStateException("Can not change the separator once transcoding has started");
+		this.separator = separator == null ? new byte[0] : separator.getBytes(Charset.forName("ASCII"));
+	}
+
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	public void setBlockSize(int blockSize) {
+		if (readBuffer != null)
+			throw new IllegalStateException("Can not change the block size once transcoding has started");
+		this.blockSize = Math.max(1, blockSize);
+	}
+}
@@ -0,0 +1,172 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.utils.codec.impl;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import be.nabu.utils.codec.api.ResettableTranscoder;
+import be.nabu.utils.codec.api.SizePredictingTranscoder;
+import be.nabu.utils.codec.api.Transcoder;
+import be.nabu.utils.io.IOUtils;
+import be.nabu.utils.io.api.ByteBuffer;
+import be.nabu.utils.io.api.ReadableContainer;
+import be.nabu.utils.io.api.WritableContainer;
+import be.nabu.utils.io.buffers.bytes.DynamicByteBuffer;
+
+/**
+ * Encodes bytes as hexadecimal characters, optionally with a separator between every byte (e.g. ":" for fingerprints)
+ */
+public class HexEncoder implements Transcoder<ByteBuffer>, SizePredictingTranscoder, ResettableTranscoder {
+
+	static final char [] lowercase = "0123456789abcdef".toCharArray();
+	static final char [] uppercase = "0123456789ABCDEF".toCharArray();
+	
+	/**
+	 * 256 entries, each entry contains the two encoded characters: the first in the high byte, the second in the low byte
+	 */
+	private static final short [] lowercasePairs = pairs(lowercase);
+	private static final short [] uppercasePairs = pairs(uppercase);
+	
+	private short [] table = lowercasePairs;
+	
+	private boolean useUppercase = false;
+	
+	private byte [] separator = new byte[0];
+	
+	/**
+	 * Whether we have already written a byte, the next one needs a separator in front of it
+	 */
+	private boolean started = false;
+	
+	private DynamicByteBuffer outputBuffer = new DynamicByteBuffer();
+	
+	private int blockSize = 4096;
+	
+	private byte [] bytes;
+	
+	private byte [] encoded;
+	
+	private static short [] pairs(char [] alphabet) {
+		short [] table = new short[256];
+		for (int i = 0; i < table.length; i++) {
+			table[i] = (short) ((alphabet[i >>> 4] << 8) | alphabet[i & 0xf]);
+		}
+		return table;
+	}
+	
+	@Override
+	public void transcode(ReadableContainer<ByteBuffer> in, WritableContainer<ByteBuffer> out) throws IOException {
+		if (outputBuffer.remainingData() == IOUtils.copyBytes(outputBuffer, out)) {
+			if (bytes == null) {
+				bytes = new byte[blockSize];
+				encoded = new byte[blockSize * (2 + separator.length)];
+			}
+			int read;
+			while (outputBuffer.remainingData() == 0 && (read = (int) in.read(IOUtils.wrap(bytes, false))) > 0) {
+				write(out, separator.length == 0 ? encodeBlock(read) : encodeBlockWithSeparator(read));
+			}
+		}
+	}
+	
+	private int encodeBlock(int length) {
+		int position = 0;
+		for (int i = 0; i < length; i++) {
+			short pair = table[bytes[i] & 0xff];
+			encoded[position++] = (byte) (pair >>> 8);
+			encoded[position++] = (byte) pair;
+		}
+		return position;
+	}
+	
+	private int encodeBlockWithSeparator(int length) {
+		int position = 0;
+		for (int i = 0; i < length; i++) {
+			if (started) {
+				for (int j = 0; j < separator.length; j++)
+					encoded[position++] = separator[j];
+			}
+			else
+				started = true;
+			short pair = table[bytes[i] & 0xff];
+			encoded[position++] = (byte) (pair >>> 8);
+			encoded[position++] = (byte) pair;
+		}
+		return position;
+	}
+	
+	private void write(WritableContainer<ByteBuffer> out, int length) throws IOException {
+		if (length > 0) {
+			int written = (int) out.write(IOUtils.wrap(encoded, 0, length, true));
+			if (written < length)
+				outputBuffer.write(encoded, written, length - written);
+		}
+	}
+
+	@Override
+	public void flush(WritableContainer<ByteBuffer> out) throws IOException {
+		IOUtils.copyBytes(outputBuffer, out);
+		if (outputBuffer.remainingData() > 0)
+			throw new IOException("Not enough space in the target to finish the encoding");
+	}
+
+	@Override
+	public void reset() {
+		outputBuffer.truncate();
+		started = false;
+	}
+	
+	@Override
+	public long getExactOutputSize(long inputSize) {
+		return inputSize * 2 + Math.max(0, inputSize - 1) * separator.length;
+	}
+
+	@Override
+	public long getMaximumOutputSize(long inputSize) {
+		return getExactOutputSize(inputSize);
+	}
+
+	public boolean isUseUppercase() {
+		return useUppercase;
+	}
+
+	public void setUseUppercase(boolean useUppercase) {
+		this.useUppercase = useUppercase;
+		table = useUppercase ? uppercasePairs : lowercasePairs;
+	}
+
+	public String getSeparator() {
+		return new String(separator, Charset.forName("ASCII"));
+	}
+
+	public void setSeparator(String separator) {
+		if (bytes != null)
+			throw new IllegalStateException("Can not change the separator once transcoding has started");
+		this.separator = separator == null ? new byte[0] : separator.getBytes(Charset.forName("ASCII"));
+	}
+
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	public void setBlockSize(int blockSize) {
+		if (bytes != null)
+			throw new IllegalStateException("Can not change the block size once transcoding has started");
+		this.blockSize = Math.max(1, blockSize);
+	}
+}
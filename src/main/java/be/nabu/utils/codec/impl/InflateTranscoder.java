@@ -17,11 +17,13 @@
 
 package be.nabu.utils.codec.impl;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.util.zip.DataFormatException;
 import java.util.zip.Inflater;
 
 import be.nabu.utils.codec.api.FinishableTranscoder;
+import be.nabu.utils.codec.api.ResettableTranscoder;
 import be.nabu.utils.codec.api.Transcoder;
 import be.nabu.utils.io.IOUtils;
 import be.nabu.utils.io.api.ByteBuffer;
@@ -30,8 +32,10 @@ import be.nabu.utils.io.api.WritableContainer;
 
 /**
  * The inflater transcoder can be flushed multiple times as it has no inherent remaining state
+ * The native state of the inflater is released once the data is finished and flushed, if you stop before that you should close() the transcoder
+ * A reusable transcoder (e.g. in a pool) keeps its native state even when it is closed so a reset() does not have to set up a new inflater, make it non-reusable before closing to release it
  */
-public class InflateTranscoder implements Transcoder<ByteBuffer>, FinishableTranscoder {
+public class InflateTranscoder implements Transcoder<ByteBuffer>, FinishableTranscoder, ResettableTranscoder, Closeable {
 
 	ByteBuffer buffer = IOUtils.newByteBuffer();
 	
@@ -39,12 +43,31 @@ public class InflateTranscoder implements Transcoder<ByteBuffer>, FinishableTran
 	
 	private int read;
 	
-	private byte [] readBuffer = new byte[512], inflateBuffer = new byte[512];
+	/**
+	 * The size of the arrays used to feed the inflater and collect its output, every call to zlib crosses jni so bigger is faster
+	 */
+	private int bufferSize = 8192;
+	
+	private byte [] readBuffer, inflateBuffer;
 
 	private boolean finishCalled, dataFinished, prematurelyEnded;
+	
+	/**
+	 * Whether the inflater has been given any input
+	 */
+	private boolean started;
+	
+	/**
+	 * Whether the native state has been released and whether the inflater was finished at that point
+	 */
+	private boolean ended, finished;
+	
+	private boolean noWrap, reusable;
 
 	public InflateTranscoder(boolean noWrap) {
+		this.noWrap = noWrap;
 		this.inflater = new Inflater(noWrap);
+		ZlibStatistics.allocate(inflater, false);
 	}
 	
 	public InflateTranscoder() {
@@ -53,8 +76,10 @@ public class InflateTranscoder implements Transcoder<ByteBuffer>, FinishableTran
 	
 	@Override
 	public void transcode(ReadableContainer<ByteBuffer> in, WritableContainer<ByteBuffer> out) throws IOException {
+		allocate();
+		open();
 		// flush any buffered data to out
-		if (buffer.remainingData() == out.write(buffer) && !inflater.finished()) {
+		if (buffer.remainingData() == out.write(buffer) && !inflaterFinished()) {
 			try {
 				int read = 0;
 				while (!prematurelyEnded && (read = inflater.inflate(inflateBuffer)) >= 0) {
@@ -81,6 +106,7 @@ public class InflateTranscoder implements Transcoder<ByteBuffer>, FinishableTran
 							else {
 								this.read = inflater.getRemaining() + newlyRead;
 								inflater.setInput(readBuffer, 0, this.read);
+								started = true;
 							}
 						}
 						else
@@ -99,35 +125,155 @@ public class InflateTranscoder implements Transcoder<ByteBuffer>, FinishableTran
 				throw new IOException(e);
 			}
 		}
-		else if (buffer.remainingData() == 0 && inflater.finished() && !finishCalled) {
+		else if (buffer.remainingData() == 0 && inflaterFinished() && !finishCalled) {
 			buffer.write(readBuffer, this.read - inflater.getRemaining(), inflater.getRemaining());
 			dataFinished = true;
 			finish(in, out);
 		}
 	}
 	
+	/**
+	 * Inflates straight from one nio buffer to another, on java 11+ the buffers are handed to zlib as is so direct buffers are never copied
+	 * The position of the input is moved past the consumed bytes and the position of the output past the written bytes, the amount of bytes written is returned
+	 * Once the inflater is finished, any data after the compressed stream remains in the input
+	 * This can not be combined with transcode() on the same instance
+	 */
+	public int inflate(java.nio.ByteBuffer input, java.nio.ByteBuffer output) throws IOException {
+		int written = inflateRaw(input, output);
+		if (inflaterFinished())
+			end();
+		return written;
+	}
+	
+	/**
+	 * Inflates from one nio buffer to another without releasing the native state once the inflater is finished
+	 */
+	int inflateRaw(java.nio.ByteBuffer input, java.nio.ByteBuffer output) throws IOException {
+		allocate();
+		open();
+		if (ended)
+			return 0;
+		try {
+			if (input.hasRemaining())
+				started = true;
+			return ZlibBuffers.inflate(inflater, input, output, readBuffer, inflateBuffer);
+		}
+		catch (DataFormatException e) {
+			throw new IOException(e);
+		}
+	}
+	
+	/**
+	 * A transcoder that is closed before it was given any input (e.g. a container that is closed before it is read) can still be used
+	 */
+	private void open() throws IOException {
+		if (ended && !finished) {
+			if (started)
+				throw new IOException("The inflater has been closed");
+			inflater = new Inflater(noWrap);
+			ZlibStatistics.allocate(inflater, false);
+			ended = false;
+		}
+	}
+	
+	private void allocate() {
+		if (readBuffer == null) {
+			readBuffer = new byte[bufferSize];
+			inflateBuffer = new byte[bufferSize];
+		}
+	}
+	
 	void finish(ReadableContainer<ByteBuffer> in, WritableContainer<ByteBuffer> out) throws IOException {
 		finishCalled = true;
-		flush(out);
+		// this is not an external flush, subclasses may attach meaning to that
+		drain(out);
 	}
 
 	@Override
 	public void flush(WritableContainer<ByteBuffer> out) throws IOException {
+		drain(out);
+	}
+	
+	private void drain(WritableContainer<ByteBuffer> out) throws IOException {
 		if (!isFinished() && !dataFinished) {
 			throw new IOException("Could not finish the unzipping (inflater finished: " + isFinished() + " / data finished: " + dataFinished + ")");
 		}
 		else if (isFinished() && buffer.remainingData() != out.write(buffer)) {
 			throw new IOException("Could not copy all the bytes to the output, there are " + buffer.remainingData() + " bytes remaining");
 		}
+		// everything has been written, the inflater is no longer needed
+		else if (finishCalled && isFinished() && !reusable)
+			end();
 	}
 
 	@Override
 	public boolean isFinished() {
-		return inflater.finished();
+		return inflaterFinished();
+	}
+	
+	private boolean inflaterFinished() {
+		return ended ? finished : inflater.finished();
+	}
+	
+	/**
+	 * Releases the native zlib state, this is done automatically once the inflater has finished and everything is flushed
+	 * A reusable transcoder keeps its native state
+	 */
+	@Override
+	public void close() {
+		if (!reusable)
+			end();
+	}
+	
+	void end() {
+		if (!ended) {
+			ended = true;
+			finished = inflater.finished();
+			inflater.end();
+			ZlibStatistics.release(inflater);
+		}
+	}
+	
+	/**
+	 * Resets the inflater for a new stream, if the native state was already released a new inflater is created
+	 */
+	@Override
+	public void reset() {
+		buffer.truncate();
+		if (ended) {
+			inflater = new Inflater(noWrap);
+			ZlibStatistics.allocate(inflater, false);
+			ended = false;
+		}
+		else
+			inflater.reset();
+		read = 0;
+		started = false;
+		finishCalled = false;
+		dataFinished = false;
+		prematurelyEnded = false;
 	}
 	
 	public boolean isDataFinished() {
 		return dataFinished;
 	}
 
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	public void setBufferSize(int bufferSize) {
+		if (readBuffer != null)
+			throw new IllegalStateException("Can not change the buffer size once transcoding has started");
+		this.bufferSize = Math.max(64, bufferSize);
+	}
+
+	public boolean isReusable() {
+		return reusable;
+	}
+
+	public void setReusable(boolean reusable) {
+		this.reusable = reusable;
+	}
+
 }
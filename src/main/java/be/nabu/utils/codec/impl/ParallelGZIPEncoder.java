@@ -0,0 +1,344 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.utils.codec.impl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import be.nabu.utils.codec.api.ResettableTranscoder;
+import be.nabu.utils.codec.api.SizePredictingTranscoder;
+import be.nabu.utils.codec.api.Transcoder;
+import be.nabu.utils.codec.impl.DeflateTranscoder.DeflaterLevel;
+import be.nabu.utils.codec.util.CRC32Utils;
+import be.nabu.utils.io.IOUtils;
+import be.nabu.utils.io.api.ByteBuffer;
+import be.nabu.utils.io.api.ReadableContainer;
+import be.nabu.utils.io.api.WritableContainer;
+import be.nabu.utils.io.buffers.bytes.DynamicByteBuffer;
+
+/**
+ * Compresses into a single gzip member on multiple cores (like pigz)
+ * The input is split into blocks that are deflated concurrently, each block uses the last 32kb of the data before it as a preset dictionary so the compression is nearly as good as a single pass
+ * Every block except the last one ends with a sync flush so it is byte aligned and not final, this means the compressed blocks can simply be concatenated
+ * The crc of each block is calculated by its task, they are combined for the footer
+ */
+public class ParallelGZIPEncoder implements Transcoder<ByteBuffer>, SizePredictingTranscoder, ResettableTranscoder, Closeable {
+
+	/**
+	 * The maximum window of deflate
+	 */
+	private static final int DICTIONARY_SIZE = 32768;
+	
+	private ExecutorService executor;
+	
+	private int level;
+	
+	private int blockSize = 128 * 1024;
+	
+	/**
+	 * The maximum amount of blocks being deflated (or waiting to be written) at any time
+	 */
+	private int maxPending = Runtime.getRuntime().availableProcessors() * 2;
+	
+	private DynamicByteBuffer outputBuffer = new DynamicByteBuffer();
+	
+	private Deque<Future<Block>> pending = new ArrayDeque<Future<Block>>();
+	
+	/**
+	 * Deflaters that are not in use by a task, they are reused for the next blocks
+	 */
+	private Queue<Deflater> deflaters = new ConcurrentLinkedQueue<Deflater>();
+	
+	/**
+	 * Input arrays whose block has been written
+	 */
+	private Deque<byte []> free = new ArrayDeque<byte []>();
+	
+	/**
+	 * The block we are currently filling
+	 */
+	private byte [] block;
+	
+	private int filled;
+	
+	/**
+	 * The last 32kb of the data that has been submitted
+	 */
+	private byte [] dictionary;
+	
+	private int dictionaryLength;
+	
+	private boolean started, lastSubmitted, footerWritten;
+	
+	private long crc, size;
+	
+	public ParallelGZIPEncoder() {
+		this(DeflaterLevel.BEST_SPEED, ForkJoinPool.commonPool());
+	}
+	
+	public ParallelGZIPEncoder(DeflaterLevel level, ExecutorService executor) {
+		this.level = level.getLevel();
+		this.executor = executor;
+		writeHeader();
+	}
+	
+	@Override
+	public void transcode(ReadableContainer<ByteBuffer> in, WritableContainer<ByteBuffer> out) throws IOException {
+		started = true;
+		if (outputBuffer.remainingData() == IOUtils.copyBytes(outputBuffer, out)) {
+			writeBlocks(out, false);
+			while (outputBuffer.remainingData() == 0 && !lastSubmitted) {
+				if (block == null) {
+					block = free.isEmpty() ? new byte[blockSize] : free.pop();
+					filled = 0;
+				}
+				if (filled == blockSize) {
+					// don't queue up too much work, wait for the oldest block instead
+					if (pending.size() >= maxPending) {
+						writeBlock(out, pending.peekFirst());
+						continue;
+					}
+					submit(false);
+					continue;
+				}
+				int read = (int) in.read(IOUtils.wrap(block, filled, blockSize - filled, false));
+				if (read == -1) {
+					submit(true);
+					break;
+				}
+				else if (read == 0)
+					break;
+				filled += read;
+				writeBlocks(out, false);
+			}
+			writeBlocks(out, false);
+		}
+	}
+	
+	private void submit(final boolean last) {
+		final byte [] data = block == null ? new byte[0] : block;
+		final int length = filled;
+		final byte [] blockDictionary = dictionary;
+		final int blockDictionaryLength = dictionaryLength;
+		pending.add(executor.submit(new Callable<Block>() {
+			@Override
+			public Block call() throws Exception {
+				return deflate(data, length, blockDictionary, blockDictionaryLength, last);
+			}
+		}));
+		// the next block is primed with the last 32kb of all the data so far
+		if (!last) {
+			int fromDictionary = Math.min(dictionaryLength, DICTIONARY_SIZE - Math.min(length, DICTIONARY_SIZE));
+			byte [] next = new byte[fromDictionary + Math.min(length, DICTIONARY_SIZE)];
+			if (fromDictionary > 0)
+				System.arraycopy(dictionary, dictionaryLength - fromDictionary, next, 0, fromDictionary);
+			System.arraycopy(data, length - (next.length - fromDictionary), next, fromDictionary, next.length - fromDictionary);
+			dictionary = next;
+			dictionaryLength = next.length;
+		}
+		else
+			lastSubmitted = true;
+		block = null;
+		filled = 0;
+	}
+	
+	private Block deflate(byte [] data, int length, byte [] dictionary, int dictionaryLength, boolean last) {
+		Deflater deflater = deflaters.poll();
+		if (deflater == null) {
+			deflater = new Deflater(level, true);
+			ZlibStatistics.allocate(deflater, true);
+		}
+		try {
+			if (dictionaryLength > 0)
+				deflater.setDictionary(dictionary, 0, dictionaryLength);
+			deflater.setInput(data, 0, length);
+			if (last)
+				deflater.finish();
+			// the bound used by zlib for stored blocks plus room for the sync flush marker
+			byte [] compressed = new byte[length + (length >> 12) + (length >> 14) + 64];
+			int position = 0;
+			while (true) {
+				position += deflater.deflate(compressed, position, compressed.length - position, last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+				// if the output is full there may be more
+				if (position < compressed.length && (last ? deflater.finished() : deflater.needsInput()))
+					break;
+				else if (position == compressed.length)
+					compressed = Arrays.copyOf(compressed, compressed.length * 2);
+			}
+			CRC32 checksum = new CRC32();
+			checksum.update(data, 0, length);
+			return new Block(data, length, compressed, position, checksum.getValue());
+		}
+		finally {
+			deflater.reset();
+			deflaters.offer(deflater);
+		}
+	}
+	
+	/**
+	 * Writes the blocks that are done in order, optionally waiting for them
+	 */
+	private void writeBlocks(WritableContainer<ByteBuffer> out, boolean wait) throws IOException {
+		while (outputBuffer.remainingData() == 0 && !pending.isEmpty() && (wait || pending.peekFirst().isDone()))
+			writeBlock(out, pending.peekFirst());
+	}
+	
+	private void writeBlock(WritableContainer<ByteBuffer> out, Future<Block> future) throws IOException {
+		Block result;
+		try {
+			result = future.get();
+		}
+		catch (InterruptedException e) {
+			throw new IOException(e);
+		}
+		catch (ExecutionException e) {
+			throw new IOException(e.getCause());
+		}
+		pending.removeFirst();
+		crc = CRC32Utils.combine(crc, result.crc, result.length);
+		size += result.length;
+		write(out, result.compressed, result.compressedLength);
+		if (result.data.length == blockSize)
+			free.push(result.data);
+		if (lastSubmitted && pending.isEmpty() && !footerWritten) {
+			GZIPEncoder.writeLong(outputBuffer, crc);
+			GZIPEncoder.writeLong(outputBuffer, size);
+			footerWritten = true;
+			IOUtils.copyBytes(outputBuffer, out);
+		}
+	}
+	
+	private void write(WritableContainer<ByteBuffer> out, byte [] bytes, int length) throws IOException {
+		int written = outputBuffer.remainingData() == 0 ? (int) out.write(IOUtils.wrap(bytes, 0, length, true)) : 0;
+		if (written < length)
+			outputBuffer.write(bytes, written, length - written);
+	}
+	
+	@Override
+	public void flush(WritableContainer<ByteBuffer> out) throws IOException {
+		if (!lastSubmitted)
+			submit(true);
+		// wait for everything that is still being deflated, whatever does not fit in the output is buffered
+		while (!pending.isEmpty())
+			writeBlock(out, pending.peekFirst());
+		IOUtils.copyBytes(outputBuffer, out);
+		if (outputBuffer.remainingData() > 0)
+			throw new IOException("Not enough space in the target to finish the compression");
+		close();
+	}
+	
+	/**
+	 * Releases the native state of the deflaters that are not in use
+	 */
+	@Override
+	public void close() {
+		Deflater deflater;
+		while ((deflater = deflaters.poll()) != null) {
+			deflater.end();
+			ZlibStatistics.release(deflater);
+		}
+	}
+	
+	@Override
+	public void reset() {
+		for (Future<Block> future : pending)
+			future.cancel(false);
+		pending.clear();
+		outputBuffer.truncate();
+		block = null;
+		filled = 0;
+		dictionary = null;
+		dictionaryLength = 0;
+		started = false;
+		lastSubmitted = false;
+		footerWritten = false;
+		crc = 0;
+		size = 0;
+		writeHeader();
+	}
+	
+	private void writeHeader() {
+		try {
+			GZIPEncoder.writeHeader(outputBuffer);
+		}
+		catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * The size depends on how compressible the data is
+	 */
+	@Override
+	public long getExactOutputSize(long inputSize) {
+		return -1;
+	}
+
+	/**
+	 * The deflate bound for the entire input with the fixed overhead for every block (including the sync flush marker), surrounded by the gzip header and footer
+	 */
+	@Override
+	public long getMaximumOutputSize(long inputSize) {
+		long blocks = inputSize / blockSize + 1;
+		return inputSize + (inputSize >> 12) + (inputSize >> 14) + (inputSize >> 25) + blocks * 18 + 18;
+	}
+
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	public void setBlockSize(int blockSize) {
+		if (started)
+			throw new IllegalStateException("Can not change the block size once transcoding has started");
+		this.blockSize = Math.max(1024, blockSize);
+	}
+
+	public int getMaxPending() {
+		return maxPending;
+	}
+
+	public void setMaxPending(int maxPending) {
+		this.maxPending = Math.max(1, maxPending);
+	}
+	
+	private static class Block {
+		private byte [] data, compressed;
+		private int length, compressedLength;
+		private long crc;
+		
+		public Block(byte [] data, int length, byte [] compressed, int compressedLength, long crc) {
+			this.data = data;
+			this.length = length;
+			this.compressed = compressed;
+			this.compressedLength = compressedLength;
+			this.crc = crc;
+		}
+	}
+}
@@ -0,0 +1,207 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.utils.codec.impl;
+
+import java.io.IOException;
+
+import be.nabu.utils.codec.api.ResettableTranscoder;
+import be.nabu.utils.codec.api.SizePredictingTranscoder;
+import be.nabu.utils.codec.api.Transcoder;
+import be.nabu.utils.io.IOUtils;
+import be.nabu.utils.io.api.ByteBuffer;
+import be.nabu.utils.io.api.ReadableContainer;
+import be.nabu.utils.io.api.WritableContainer;
+import be.nabu.utils.io.buffers.bytes.DynamicByteBuffer;
+
+/**
+ * Decodes percent-encoded data, optionally "+" is decoded as a space (for forms)
+ * By default an invalid escape sequence is an error, in lenient mode it is left as is (like most browsers do)
+ */
+public class PercentDecoder implements Transcoder<ByteBuffer>, SizePredictingTranscoder, ResettableTranscoder {
+
+	private static final int NORMAL = 0, ESCAPED = 1, FIRST = 2;
+	
+	/**
+	 * Characters that interrupt a run of literal characters
+	 */
+	private boolean [] special = new boolean[256];
+	
+	private boolean plusAsSpace;
+	
+	private boolean lenient = false;
+	
+	/**
+	 * Whether we are in an escape sequence: after the "%" or after the first hex digit
+	 */
+	private int state = NORMAL;
+	
+	private int first;
+	
+	/**
+	 * The amount of input bytes processed in previous blocks, used to report the offset of invalid escapes
+	 */
+	private long inputOffset = 0;
+	
+	private DynamicByteBuffer outputBuffer = new DynamicByteBuffer();
+	
+	private int blockSize = 4096;
+	
+	private byte [] bytes;
+	
+	private byte [] decoded;
+	
+	public PercentDecoder(PercentEncoding encoding) {
+		this(encoding.isSpaceAsPlus());
+	}
+	
+	public PercentDecoder(boolean plusAsSpace) {
+		this.plusAsSpace = plusAsSpace;
+		special['%'] = true;
+		if (plusAsSpace)
+			special['+'] = true;
+	}
+	
+	@Override
+	public void transcode(ReadableContainer<ByteBuffer> in, WritableContainer<ByteBuffer> out) throws IOException {
+		if (outputBuffer.remainingData() == IOUtils.copyBytes(outputBuffer, out)) {
+			if (bytes == null) {
+				bytes = new byte[blockSize];
+				// in lenient mode an invalid escape from the previous block can add two characters
+				decoded = new byte[blockSize + 2];
+			}
+			int read;
+			while (outputBuffer.remainingData() == 0 && (read = (int) in.read(IOUtils.wrap(bytes, false))) > 0) {
+				int position = decodeBlock(read);
+				inputOffset += read;
+				write(out, position);
+			}
+		}
+	}
+	
+	private int decodeBlock(int length) throws IOException {
+		int position = 0;
+		for (int i = 0; i < length; i++) {
+			if (state == NORMAL) {
+				// copy the run of literal characters at once
+				int end = i;
+				while (end < length && !special[bytes[end] & 0xff])
+					end++;
+				if (end > i) {
+					System.arraycopy(bytes, i, decoded, position, end - i);
+					position += end - i;
+					i = end;
+					if (i >= length)
+						break;
+				}
+				if (bytes[i] == '%')
+					state = ESCAPED;
+				else
+					decoded[position++] = ' ';
+			}
+			else {
+				int character = bytes[i] & 0xff;
+				if (HexDecoder.digits[character] < 0) {
+					if (!lenient)
+						throw new IOException("Invalid percent encoding, the character 0x" + Integer.toHexString(character) + " at offset " + (inputOffset + i) + " is not a hex digit");
+					// write the invalid sequence as is and process the current character again
+					decoded[position++] = '%';
+					if (state == FIRST)
+						decoded[position++] = (byte) first;
+					state = NORMAL;
+					i--;
+				}
+				else if (state == ESCAPED) {
+					first = character;
+					state = FIRST;
+				}
+				else {
+					decoded[position++] = (byte) ((HexDecoder.digits[first] << 4) | HexDecoder.digits[character]);
+					state = NORMAL;
+				}
+			}
+		}
+		return position;
+	}
+	
+	private void write(WritableContainer<ByteBuffer> out, int length) throws IOException {
+		if (length > 0) {
+			int written = (int) out.write(IOUtils.wrap(decoded, 0, length, true));
+			if (written < length)
+				outputBuffer.write(decoded, written, length - written);
+		}
+	}
+
+	@Override
+	public void flush(WritableContainer<ByteBuffer> out) throws IOException {
+		if (state != NORMAL) {
+			if (!lenient)
+				throw new IOException("Invalid percent encoding, the data ends in an escape sequence");
+			int length = 0;
+			decoded[length++] = '%';
+			if (state == FIRST)
+				decoded[length++] = (byte) first;
+			state = NORMAL;
+			write(out, length);
+		}
+		IOUtils.copyBytes(outputBuffer, out);
+		if (outputBuffer.remainingData() > 0)
+			throw new IOException("Not enough space in the target to finish the decoding");
+	}
+
+	@Override
+	public void reset() {
+		outputBuffer.truncate();
+		state = NORMAL;
+		inputOffset = 0;
+	}
+
+	@Override
+	public long getExactOutputSize(long inputSize) {
+		return -1;
+	}
+
+	@Override
+	public long getMaximumOutputSize(long inputSize) {
+		return inputSize;
+	}
+
+	public boolean isPlusAsSpace() {
+		return plusAsSpace;
+	}
+
+	public boolean isLenient() {
+		return lenient;
+	}
+
+	/**
+	 * In lenient mode invalid escape sequences are written as is instead of throwing an exception
+	 */
+	public void setLenient(boolean lenient) {
+		this.lenient = lenient;
+	}
+
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	public void setBlockSize(int blockSize) {
+		if (bytes != null)
+			throw new IllegalStateException("Can not change the block size once transcoding has started");
+		this.blockSize = Math.max(1, blockSize);
+	}
+}
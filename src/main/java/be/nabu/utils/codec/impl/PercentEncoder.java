@@ -0,0 +1,144 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.utils.codec.impl;
+
+import java.io.IOException;
+
+import be.nabu.utils.codec.api.ResettableTranscoder;
+import be.nabu.utils.codec.api.SizePredictingTranscoder;
+import be.nabu.utils.codec.api.Transcoder;
+import be.nabu.utils.io.IOUtils;
+import be.nabu.utils.io.api.ByteBuffer;
+import be.nabu.utils.io.api.ReadableContainer;
+import be.nabu.utils.io.api.WritableContainer;
+import be.nabu.utils.io.buffers.bytes.DynamicByteBuffer;
+
+/**
+ * Percent-encodes bytes as described in rfc3986, the bytes should already be in the correct charset (usually utf-8)
+ * Letters, digits and the configured unreserved characters are written as is, all other bytes are written as "%XX"
+ */
+public class PercentEncoder implements Transcoder<ByteBuffer>, SizePredictingTranscoder, ResettableTranscoder {
+
+	private boolean [] unreserved;
+	
+	private boolean spaceAsPlus;
+	
+	private DynamicByteBuffer outputBuffer = new DynamicByteBuffer();
+	
+	private int blockSize = 4096;
+	
+	private byte [] bytes;
+	
+	private byte [] encoded;
+	
+	public PercentEncoder(PercentEncoding encoding) {
+		this.unreserved = encoding.getUnreserved();
+		this.spaceAsPlus = encoding.isSpaceAsPlus();
+	}
+	
+	/**
+	 * Letters and digits are always unreserved, you can add additional unreserved characters
+	 */
+	public PercentEncoder(String unreservedCharacters, boolean spaceAsPlus) {
+		this.unreserved = PercentEncoding.unreserved(unreservedCharacters);
+		this.spaceAsPlus = spaceAsPlus;
+	}
+	
+	@Override
+	public void transcode(ReadableContainer<ByteBuffer> in, WritableContainer<ByteBuffer> out) throws IOException {
+		if (outputBuffer.remainingData() == IOUtils.copyBytes(outputBuffer, out)) {
+			if (bytes == null) {
+				bytes = new byte[blockSize];
+				encoded = new byte[blockSize * 3];
+			}
+			int read;
+			while (outputBuffer.remainingData() == 0 && (read = (int) in.read(IOUtils.wrap(bytes, false))) > 0) {
+				write(out, encodeBlock(read));
+			}
+		}
+	}
+	
+	private int encodeBlock(int length) {
+		int position = 0;
+		for (int i = 0; i < length; i++) {
+			// copy the run of unreserved characters at once
+			int end = i;
+			while (end < length && unreserved[bytes[end] & 0xff])
+				end++;
+			if (end > i) {
+				System.arraycopy(bytes, i, encoded, position, end - i);
+				position += end - i;
+				i = end;
+				if (i >= length)
+					break;
+			}
+			int character = bytes[i] & 0xff;
+			if (character == ' ' && spaceAsPlus)
+				encoded[position++] = '+';
+			else {
+				encoded[position++] = '%';
+				encoded[position++] = (byte) QuotedPrintableEncoder.codes[character >> 4];
+				encoded[position++] = (byte) QuotedPrintableEncoder.codes[character & 0xf];
+			}
+		}
+		return position;
+	}
+	
+	private void write(WritableContainer<ByteBuffer> out, int length) throws IOException {
+		if (length > 0) {
+			int written = (int) out.write(IOUtils.wrap(encoded, 0, length, true));
+			if (written < length)
+				outputBuffer.write(encoded, written, length - written);
+		}
+	}
+
+	@Override
+	public void flush(WritableContainer<ByteBuffer> out) throws IOException {
+		IOUtils.copyBytes(outputBuffer, out);
+		if (outputBuffer.remainingData() > 0)
+			throw new IOException("Not enough space in the target to finish the encoding");
+	}
+
+	@Override
+	public void reset() {
+		outputBuffer.truncate();
+	}
+
+	/**
+	 * It depends on the content how many characters need to be encoded
+	 */
+	@Override
+	public long getExactOutputSize(long inputSize) {
+		return -1;
+	}
+
+	@Override
+	public long getMaximumOutputSize(long inputSize) {
+		return inputSize * 3;
+	}
+
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	public void setBlockSize(int blockSize) {
+		if (bytes != null)
+			throw new IllegalStateException("Can not change the block size once transcoding has started");
+		this.blockSize = Math.max(1, blockSize);
+	}
+}
@@ -0,0 +1,68 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.utils.codec.impl;
+
+/**
+ * The predefined sets of characters that are not percent-encoded
+ */
+public enum PercentEncoding {
+	/**
+	 * Only the unreserved characters of rfc3986 are kept, this is safe anywhere in a uri
+	 */
+	URI("-._~", false),
+	/**
+	 * A path segment in rfc3986 can also contain sub-delims, ":" and "@"
+	 */
+	PATH_SEGMENT("-._~!$&'()*+,;=:@", false),
+	/**
+	 * The application/x-www-form-urlencoded format, spaces are encoded as "+"
+	 */
+	FORM("*-._", true);
+	
+	private String unreservedCharacters;
+	private boolean spaceAsPlus;
+	private boolean [] unreserved;
+	
+	private PercentEncoding(String unreservedCharacters, boolean spaceAsPlus) {
+		this.unreservedCharacters = unreservedCharacters;
+		this.spaceAsPlus = spaceAsPlus;
+		this.unreserved = unreserved(unreservedCharacters);
+	}
+	
+	/**
+	 * Builds a table of the characters that are written as is: letters, digits and the given characters
+	 */
+	static boolean [] unreserved(String unreservedCharacters) {
+		boolean [] table = new boolean[256];
+		for (int i = 0; i < table.length; i++)
+			table[i] = (i >= 'a' && i <= 'z') || (i >= 'A' && i <= 'Z') || (i >= '0' && i <= '9') || (i < 128 && unreservedCharacters.indexOf(i) >= 0);
+		return table;
+	}
+
+	public String getUnreservedCharacters() {
+		return unreservedCharacters;
+	}
+
+	public boolean isSpaceAsPlus() {
+		return spaceAsPlus;
+	}
+	
+	boolean [] getUnreserved() {
+		return unreserved;
+	}
+}
@@ -0,0 +1,120 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.utils.codec.impl;
+
+/**
+ * Determines how each byte is treated by the quoted printable encoder
+ * The classification of all 256 byte values is calculated once so the encoder only needs a single lookup per byte
+ * The predefined sets are available through {@link QuotedPrintableEncoding}, custom sets can be created for other contexts (e.g. rfc2231 parameter values)
+ */
+public class QuotedPrintableCharacterSet {
+
+	/**
+	 * The byte is written as is
+	 */
+	public static final byte LITERAL = 0;
+	/**
+	 * The byte is written as "=XX"
+	 */
+	public static final byte ESCAPE = 1;
+	/**
+	 * A space, it is either written as "_" or as is (unless it is trailing whitespace)
+	 */
+	public static final byte SPACE = 2;
+	/**
+	 * A linefeed, it is written as CRLF
+	 */
+	public static final byte LINEBREAK = 3;
+	/**
+	 * A carriage return, it is dropped because the linefeed writes the CRLF
+	 */
+	public static final byte IGNORE = 4;
+	
+	private String charactersToEncode;
+	private int defaultLength;
+	private boolean encodeSpaces;
+	
+	private byte [] classes = new byte[256];
+	
+	/**
+	 * The line length includes the soft line break so it has to be at least 4 to fit an escaped byte
+	 * The "=" and (if spaces are encoded) the "_" are always encoded, whatever is passed in, as the decoder would misread them
+	 */
+	public QuotedPrintableCharacterSet(String charactersToEncode, int defaultLength, boolean encodeSpaces) {
+		if (defaultLength < 4)
+			throw new IllegalArgumentException("The line length must be at least 4 to fit an escaped byte and a soft line break: " + defaultLength);
+		if (charactersToEncode.indexOf('=') < 0)
+			charactersToEncode += "=";
+		if (encodeSpaces && charactersToEncode.indexOf('_') < 0)
+			charactersToEncode += "_";
+		this.charactersToEncode = charactersToEncode;
+		this.defaultLength = defaultLength;
+		this.encodeSpaces = encodeSpaces;
+		for (int i = 0; i < classes.length; i++) {
+			if (charactersToEncode.indexOf(i) >= 0)
+				classes[i] = ESCAPE;
+			else if (i == '\n')
+				classes[i] = LINEBREAK;
+			else if (i == ' ')
+				classes[i] = SPACE;
+			else if (i == '\r')
+				classes[i] = IGNORE;
+			// octal: 040 & 0177
+			else if (i < 32 || i >= 127)
+				classes[i] = ESCAPE;
+			else
+				classes[i] = LITERAL;
+		}
+	}
+	
+	/**
+	 * Creates a set where only the given characters (and spaces) are written as is, all other printable characters are encoded
+	 * The "=" and (if spaces are encoded) the "_" can not be written as is
+	 */
+	public static QuotedPrintableCharacterSet literal(String literalCharacters, int defaultLength, boolean encodeSpaces) {
+		StringBuilder charactersToEncode = new StringBuilder("\r\n");
+		for (char character = 33; character < 127; character++) {
+			if (literalCharacters.indexOf(character) < 0)
+				charactersToEncode.append(character);
+		}
+		return new QuotedPrintableCharacterSet(charactersToEncode.toString(), defaultLength, encodeSpaces);
+	}
+	
+	public byte classify(int character) {
+		return classes[character & 0xff];
+	}
+	
+	/**
+	 * The classification of each byte value, this should not be modified
+	 */
+	byte [] getClasses() {
+		return classes;
+	}
+	
+	public String getCharactersToEncode() {
+		return charactersToEncode;
+	}
+
+	public int getDefaultLength() {
+		return defaultLength;
+	}
+	
+	public boolean isEncodeSpaces() {
+		return encodeSpaces;
+	}
+}
@@ -18,29 +18,42 @@
 package be.nabu.utils.codec.impl;
 
 import java.io.IOException;
+import java.util.Arrays;
 
+import be.nabu.utils.codec.api.ResettableTranscoder;
 import be.nabu.utils.codec.api.Transcoder;
 import be.nabu.utils.io.IOUtils;
 import be.nabu.utils.io.api.ByteBuffer;
 import be.nabu.utils.io.api.ReadableContainer;
 import be.nabu.utils.io.api.WritableContainer;
+import be.nabu.utils.io.buffers.bytes.DynamicByteBuffer;
 
-public class QuotedPrintableDecoder implements Transcoder<ByteBuffer> {
+public class QuotedPrintableDecoder implements Transcoder<ByteBuffer>, ResettableTranscoder {
 
-	static final byte [] codes = new byte[128]; static {
+	static final byte [] codes = new byte[256]; static {
 		for (int i = 0; i < QuotedPrintableEncoder.codes.length; i++) {
 			codes[QuotedPrintableEncoder.codes[i]] = (byte) i;
 		}
 	}
 	
-	private ByteBuffer outputBuffer = IOUtils.newByteBuffer();
+	private static final int NORMAL = 0, ESCAPED = 1, FIRST = 2;
 	
-	// whether decoding is taking place
-	private boolean decoding = false;
-	// whether we have a first and/or second
-	private Integer first, second;
+	/**
+	 * Characters that interrupt a run of literal characters
+	 */
+	private boolean [] special = new boolean[256];
+	
+	private DynamicByteBuffer outputBuffer = new DynamicByteBuffer();
+	
+	/**
+	 * Whether we are in an escape sequence: after the "=" or after the first character following it
+	 */
+	private int state = NORMAL;
 	
-	private byte [] buffer = new byte[1];
+	/**
+	 * The first character after the "=", it is carried over between blocks
+	 */
+	private int first;
 	
 	/**
 	 * We need to cache spaces because we always need the first character after the space(s)
@@ -48,110 +61,164 @@ public class QuotedPrintableDecoder implements Transcoder<ByteBuffer> {
 	 */
 	private int spaces = 0;
 	
-	private QuotedPrintableEncoding encoding;
+	private QuotedPrintableCharacterSet characterSet;
+	
+	private int blockSize = 4096;
+	
+	private byte [] bytes;
+	
+	private byte [] decoded;
+	
+	private int position = 0;
 	
 	public QuotedPrintableDecoder(QuotedPrintableEncoding encoding) {
-		this.encoding = encoding;
+		this(encoding.getCharacterSet());
 	}
 	
-	/**
-	 * Decode the next char on the input
-	 * If the return value is false, we should stop, there is not enough data
-	 * @throws IOException 
-	 */
-	private boolean decode(ReadableContainer<ByteBuffer> in, WritableContainer<ByteBuffer> out) throws IOException {
-		if (!decoding) {
-			first = null;
-			second = null;
-			decoding = true;
-		}
-		
-		if (first == null) {
-			// no first char yet
-			if (in.read(IOUtils.wrap(buffer, false)) <= 0)
-				return false;
-			first = buffer[0] & 0xff;
-		}
-		// a (wrongly formatted) soft line break, ignore it by skipping to next char
-		if (first == '\n')
-			decoding = false;
-		else {
-			// there is no second char yet
-			if (second == null) {
-				if (in.read(IOUtils.wrap(buffer, false)) <= 0)
-					return false;
-				second = buffer[0] & 0xff;
+	public QuotedPrintableDecoder(QuotedPrintableCharacterSet characterSet) {
+		this.characterSet = characterSet;
+		special['='] = true;
+		special[' '] = true;
+		if (characterSet.isEncodeSpaces())
+			special['_'] = true;
+	}
+	
+	@Override
+	public void transcode(ReadableContainer<ByteBuffer> in, WritableContainer<ByteBuffer> out) throws IOException {
+		if (outputBuffer.remainingData() == IOUtils.copyBytes(outputBuffer, out)) {
+			if (bytes == null) {
+				bytes = new byte[blockSize];
+				decoded = new byte[Math.max(16, blockSize)];
 			}
-			if (first == '\r') {
-				// if it's a proper soft line break, it can be ignored for the decoded part
-				// otherwise if it's only the \r, it's a wrongly formatted soft line break, ignore it and send back the char you read
-				if (second != '\n')
-					write(out, new byte [] { second.byteValue() });
+			int read;
+			while (outputBuffer.remainingData() == 0 && (read = (int) in.read(IOUtils.wrap(bytes, false))) > 0) {
+				decodeBlock(out, read);
+				writeOutput(out);
 			}
-			// properly encoded, decode it
-			else
-				write(out, new byte [] { (byte) ((codes[first] << 4) | codes[second]) });
-			decoding = false;
 		}
-		return true;
 	}
 	
-	@Override
-	public void transcode(ReadableContainer<ByteBuffer> in, WritableContainer<ByteBuffer> out) throws IOException {
-		if (outputBuffer.remainingData() == out.write(outputBuffer)) {
-			while (outputBuffer.remainingData() == 0) {
-				if (decoding) {
-					if (!decode(in, out))
-						break;
+	private void decodeBlock(WritableContainer<ByteBuffer> out, int length) throws IOException {
+		for (int i = 0; i < length; i++) {
+			if (state == NORMAL) {
+				// copy the run of literal characters up to the next special one
+				if (spaces == 0) {
+					int end = i;
+					while (end < length && !special[bytes[end] & 0xff])
+						end++;
+					if (end > i) {
+						writeLiteral(out, i, end);
+						i = end;
+						if (i >= length)
+							break;
+					}
 				}
-				else if (in.read(IOUtils.wrap(buffer, false)) == 1) {
-					int character = buffer[0] & 0xff;
-					if (character == ' ')
-						spaces++;
-					else {
-						if (spaces > 0) {
-							// spaces before a linefeed should be ignored
-							if (character == '\r' || character == '\n')
-								spaces = 0;
-							else
-								writeSpaces(out);
-						}
-						if (character == '=') {
-							if (!decode(in, out))
-								break;
-						}
-						else if (character == '_' && encoding.isEncodeSpaces())
-							write(out, new byte [] { ' ' });
+				int character = bytes[i] & 0xff;
+				if (character == ' ')
+					spaces++;
+				else {
+					if (spaces > 0) {
+						// spaces before a linefeed should be ignored
+						if (character == '\r' || character == '\n')
+							spaces = 0;
 						else
-							write(out, buffer);
+							writeSpaces(out);
 					}
+					if (character == '=')
+						state = ESCAPED;
+					else if (character == '_' && characterSet.isEncodeSpaces())
+						write(out, ' ');
+					else
+						write(out, character);
+				}
+			}
+			else if (state == ESCAPED) {
+				first = bytes[i] & 0xff;
+				// a (wrongly formatted) soft line break, ignore it
+				state = first == '\n' ? NORMAL : FIRST;
+			}
+			else {
+				int second = bytes[i] & 0xff;
+				if (first == '\r') {
+					// if it's a proper soft line break, it can be ignored for the decoded part
+					// otherwise if it's only the \r, it's a wrongly formatted soft line break, ignore it and send back the char you read
+					if (second != '\n')
+						write(out, second);
 				}
-				// no more data
+				// properly encoded, decode it
 				else
-					break;
+					write(out, (codes[first] << 4) | codes[second]);
+				state = NORMAL;
 			}
 		}
 	}
 	
-	private void write(WritableContainer<ByteBuffer> out, byte [] bytes) throws IOException {
-		int written = (int) out.write(IOUtils.wrap(bytes, true));
-		if (written != bytes.length)
-			outputBuffer.write(bytes, written, bytes.length - written);
+	private void writeLiteral(WritableContainer<ByteBuffer> out, int start, int end) throws IOException {
+		while (start < end) {
+			if (position == decoded.length)
+				writeOutput(out);
+			int amount = Math.min(end - start, decoded.length - position);
+			System.arraycopy(bytes, start, decoded, position, amount);
+			position += amount;
+			start += amount;
+		}
+	}
+	
+	private void write(WritableContainer<ByteBuffer> out, int character) throws IOException {
+		if (position == decoded.length)
+			writeOutput(out);
+		decoded[position++] = (byte) character;
 	}
 	
 	private void writeSpaces(WritableContainer<ByteBuffer> out) throws IOException {
-		byte [] spacesToWrite = new byte [spaces];
-		for (int i = 0; i < spaces; i++)
-			spacesToWrite[i] = ' ';
-		write(out, spacesToWrite);
-		spaces = 0;
+		while (spaces > 0) {
+			if (position == decoded.length)
+				writeOutput(out);
+			int amount = Math.min(spaces, decoded.length - position);
+			Arrays.fill(decoded, position, position + amount, (byte) ' ');
+			position += amount;
+			spaces -= amount;
+		}
+	}
+	
+	/**
+	 * Writes the decoded output, anything that can not be written is buffered
+	 */
+	private void writeOutput(WritableContainer<ByteBuffer> out) throws IOException {
+		if (position > 0) {
+			if (outputBuffer.remainingData() == 0) {
+				int written = (int) out.write(IOUtils.wrap(decoded, 0, position, true));
+				if (written < position)
+					outputBuffer.write(decoded, written, position - written);
+			}
+			else
+				outputBuffer.write(decoded, 0, position);
+			position = 0;
+		}
 	}
 
 	@Override
 	public void flush(WritableContainer<ByteBuffer> out) throws IOException {
 		// spaces at the end should be ignored so don't write them out
 		// only write whatever is left in the outputBuffer (if anything)
-		out.write(outputBuffer);
+		IOUtils.copyBytes(outputBuffer, out);
 	}
 
+	@Override
+	public void reset() {
+		outputBuffer.truncate();
+		state = NORMAL;
+		spaces = 0;
+		position = 0;
+	}
+
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	public void setBlockSize(int blockSize) {
+		if (bytes != null)
+			throw new IllegalStateException("Can not change the block size once transcoding has started");
+		this.blockSize = Math.max(1, blockSize);
+	}
 }
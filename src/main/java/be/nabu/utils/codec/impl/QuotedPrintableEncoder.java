@@ -19,13 +19,16 @@ package be.nabu.utils.codec.impl;
 
 import java.io.IOException;
 
+import be.nabu.utils.codec.api.ResettableTranscoder;
+import be.nabu.utils.codec.api.SizePredictingTranscoder;
 import be.nabu.utils.codec.api.Transcoder;
 import be.nabu.utils.io.IOUtils;
 import be.nabu.utils.io.api.ByteBuffer;
 import be.nabu.utils.io.api.ReadableContainer;
 import be.nabu.utils.io.api.WritableContainer;
+import be.nabu.utils.io.buffers.bytes.DynamicByteBuffer;
 
-public class QuotedPrintableEncoder implements Transcoder<ByteBuffer> {
+public class QuotedPrintableEncoder implements Transcoder<ByteBuffer>, SizePredictingTranscoder, ResettableTranscoder {
 
 	static final char [] codes = new char [] {
 		'0',
@@ -46,9 +49,10 @@ public class QuotedPrintableEncoder implements Transcoder<ByteBuffer> {
 		'F'
 	};
 	
-	private byte[] buffer = new byte[1];
-	
-	private ByteBuffer byteContainer = IOUtils.newByteBuffer();
+	/**
+	 * Output that could not be written yet
+	 */
+	private DynamicByteBuffer byteContainer = new DynamicByteBuffer();
 	
 	/**
 	 * Keeps track of whether the we have encoded anything
@@ -65,7 +69,10 @@ public class QuotedPrintableEncoder implements Transcoder<ByteBuffer> {
 	 */
 	private int bytesPerLine = -1;
 	
-	private String charactersToEncode;
+	/**
+	 * The classification of each byte value
+	 */
+	private byte [] classes;
 	
 	private boolean encodeSpaces;
 	
@@ -73,111 +80,232 @@ public class QuotedPrintableEncoder implements Transcoder<ByteBuffer> {
 	 * A space count
 	 */
 	private int spaces = 0;
+	
+	/**
+	 * The amount of bytes we read in one go
+	 */
+	private int blockSize = 4096;
+	
+	private byte [] bytes;
+	
+	/**
+	 * The encoded output is gathered here before it is written, the position is where we are in it
+	 */
+	private byte [] encoded;
+	
+	private int position = 0;
+	
+	/**
+	 * Used to push back pending spaces
+	 */
+	private static final byte [] spaceBlock = new byte[] { ' ', ' ', ' ', ' ', ' ', ' ', ' ', ' ', ' ', ' ', ' ', ' ', ' ', ' ', ' ', ' ' };
 
 	public QuotedPrintableEncoder(QuotedPrintableEncoding encoding) {
+		this(encoding.getCharacterSet());
+	}
+	
+	public QuotedPrintableEncoder(QuotedPrintableCharacterSet characterSet) {
 		// we need to substract one because a soft linefeed has to be preceded by a "=" sign
-		this.bytesPerLine = encoding.getDefaultLength() - 1;
-		this.charactersToEncode = encoding.getCharactersToEncode();
-		this.encodeSpaces = encoding.isEncodeSpaces();
+		this.bytesPerLine = characterSet.getDefaultLength() - 1;
+		this.classes = characterSet.getClasses();
+		this.encodeSpaces = characterSet.isEncodeSpaces();
 	}
 	
 	@Override
 	public void flush(WritableContainer<ByteBuffer> out) throws IOException {
-		out.write(byteContainer);
-		writeSpaces(out, true);
+		writeOutput(out);
+		IOUtils.copyBytes(byteContainer, out);
 		if (byteContainer.remainingData() > 0)
 			throw new IOException("Could not flush all the data to the output");
 	}
+
+	@Override
+	public void reset() {
+		byteContainer.truncate();
+		hasEncoded = false;
+		byteCount = 0;
+		spaces = 0;
+		position = 0;
+	}
+	
+	@Override
+	public void transcode(ReadableContainer<ByteBuffer> in, WritableContainer<ByteBuffer> out) throws IOException {
+		// only continue if we were able to flush anything that was still in the container
+		if (byteContainer.remainingData() == IOUtils.copyBytes(byteContainer, out)) {
+			if (bytes == null) {
+				bytes = new byte[blockSize];
+				encoded = new byte[Math.max(64, blockSize)];
+			}
+			int read;
+			while (byteContainer.remainingData() == 0 && (read = (int) in.read(IOUtils.wrap(bytes, false))) > 0) {
+				encodeBlock(out, read);
+				writeOutput(out);
+			}
+		}
+		// spaces waiting, push them back
+		while (spaces > 0) {
+			int amount = Math.min(spaces, spaceBlock.length);
+			byteContainer.write(spaceBlock, 0, amount);
+			spaces -= amount;
+		}
+	}
 	
-	private void writeSoftCRLF(WritableContainer<ByteBuffer> out) throws IOException {
+	private void encodeBlock(WritableContainer<ByteBuffer> out, int length) throws IOException {
+		for (int i = 0; i < length; i++) {
+			int character = bytes[i] & 0xff;
+			
+			if (spaces > 0 && character != ' ')
+				writeSpaces(out, character == '\r' || character == '\n');
+			
+			switch (classes[character]) {
+				case QuotedPrintableCharacterSet.LITERAL:
+					// copy the entire run of literal characters at once
+					int end = i + 1;
+					while (end < length && classes[bytes[end] & 0xff] == QuotedPrintableCharacterSet.LITERAL)
+						end++;
+					writeLiteral(out, i, end);
+					i = end - 1;
+				break;
+				case QuotedPrintableCharacterSet.ESCAPE:
+					writeEncoded(out, character);
+				break;
+				// write a proper line feed
+				case QuotedPrintableCharacterSet.LINEBREAK:
+					writeCRLF(out);
+				break;
+				case QuotedPrintableCharacterSet.SPACE:
+					if (encodeSpaces)
+						write(out, '_');
+					else
+						spaces++;
+				break;
+				// we can ignore carriage returns as they are outputted properly anyway
+			}
+		}
+	}
+	
+	/**
+	 * Writes a run of literal characters from the input, adding soft line breaks where necessary
+	 */
+	private void writeLiteral(WritableContainer<ByteBuffer> out, int start, int end) throws IOException {
+		while (start < end) {
+			ensureCapacity(out, 4);
+			int amount = Math.min(end - start, Math.min(bytesPerLine - byteCount, encoded.length - position - 3));
+			System.arraycopy(bytes, start, encoded, position, amount);
+			position += amount;
+			byteCount += amount;
+			start += amount;
+			// if we have reached the line count, add a soft line break
+			if (byteCount >= bytesPerLine)
+				writeSoftCRLF();
+		}
+	}
+	
+	private void writeSoftCRLF() {
+		encoded[position++] = '=';
+		encoded[position++] = '\r';
+		encoded[position++] = '\n';
 		byteCount = 0;
-		write(out, '=', false);
-		writeCRLF(out);
 	}
 	
 	private void writeCRLF(WritableContainer<ByteBuffer> out) throws IOException {
-		write(out, '\r', false);
-		write(out, '\n', false);
+		write(out, '\r');
+		write(out, '\n');
 		byteCount = 0;
 	}
 	
 	private void writeSpaces(WritableContainer<ByteBuffer> out, boolean encode) throws IOException {
 		for (int i = 0; i < spaces; i++) {
 			if (encode)
-				write(out, ' ', true);
+				writeEncoded(out, ' ');
 			else
-				write(out, ' ', false);
+				write(out, ' ');
 		}
 		spaces = 0;
 	}
 	
-	private void write(WritableContainer<ByteBuffer> out, int character, boolean encode) throws IOException {
-		if (encode) {
-			hasEncoded = true;
-			int [] encoded = encode(character);
-			if (byteCount + encoded.length > bytesPerLine)
-				writeSoftCRLF(out);
-			for (int encodedCharacter : encoded)
-				write(out, encodedCharacter, false);
-		}
-		else {
-			if (byteContainer.remainingData() > 0 || out.write(IOUtils.wrap(new byte[] { (byte) character }, true)) == 0)
-				byteContainer.write(new byte [] { (byte) character });
-			byteCount++;
-			// if we have reached the line count, add a soft line break
-			if (byteCount >= bytesPerLine)
-				writeSoftCRLF(out);
+	private void writeEncoded(WritableContainer<ByteBuffer> out, int character) throws IOException {
+		hasEncoded = true;
+		ensureCapacity(out, 12);
+		if (byteCount + 3 > bytesPerLine)
+			writeSoftCRLF();
+		append('=');
+		append(codes[character >> 4]);
+		append(codes[character & 0xf]);
+	}
+	
+	private void write(WritableContainer<ByteBuffer> out, int character) throws IOException {
+		ensureCapacity(out, 4);
+		append(character);
+	}
+	
+	/**
+	 * Adds a character to the encoded output, the capacity must have been checked
+	 */
+	private void append(int character) {
+		encoded[position++] = (byte) character;
+		byteCount++;
+		// if we have reached the line count, add a soft line break
+		if (byteCount >= bytesPerLine)
+			writeSoftCRLF();
+	}
+	
+	/**
+	 * Makes sure there is enough room in the encoded array, if not it is written out first
+	 */
+	private void ensureCapacity(WritableContainer<ByteBuffer> out, int amount) throws IOException {
+		if (position + amount > encoded.length)
+			writeOutput(out);
+	}
+	
+	/**
+	 * Writes the encoded output, anything that can not be written is buffered
+	 */
+	private void writeOutput(WritableContainer<ByteBuffer> out) throws IOException {
+		if (position > 0) {
+			if (byteContainer.remainingData() == 0) {
+				int written = (int) out.write(IOUtils.wrap(encoded, 0, position, true));
+				if (written < position)
+					byteContainer.write(encoded, written, position - written);
+			}
+			else
+				byteContainer.write(encoded, 0, position);
+			position = 0;
 		}
 	}
 	
-	private int [] encode(int character) {
-		int [] encoded = new int [3];
-		encoded[0] = '=';
-		encoded[1] = codes[character >> 4];
-		encoded[2] = codes[character & 0xf];
+	/**
+	 * It depends on the content how many characters need to be encoded
+	 */
+	@Override
+	public long getExactOutputSize(long inputSize) {
+		return -1;
+	}
+
+	/**
+	 * At worst every byte is encoded as "=XX" (a linefeed becomes a CRLF which is shorter)
+	 * A soft line break is added at the latest when an encoded byte no longer fits on the line so each line has at least bytesPerLine - 2 characters
+	 */
+	@Override
+	public long getMaximumOutputSize(long inputSize) {
+		long encoded = inputSize * 3;
+		if (bytesPerLine > 2)
+			encoded += ((encoded / (bytesPerLine - 2)) + 1) * 3;
 		return encoded;
 	}
-	
+
 	public boolean getHasEncoded() {
 		return hasEncoded;
 	}
 
-	@Override
-	public void transcode(ReadableContainer<ByteBuffer> in, WritableContainer<ByteBuffer> out) throws IOException {
-		// only continue if we were able to flush anything that was still in the container
-		while (byteContainer.remainingData() == out.write(byteContainer) && in.read(IOUtils.wrap(buffer, false)) > 0) {
-			int character = buffer[0] & 0xff;
-			
-			if (spaces > 0 && character != ' ') {
-				if (character == '\r' || character == '\n')
-					writeSpaces(out, true);
-				else
-					writeSpaces(out, false);
-			}
-			
-			if (charactersToEncode.indexOf(character) >= 0)
-				write(out, character, true);
-			// write a proper line feed
-			else if (character == '\n')
-				writeCRLF(out);
-			else if (character == ' ') {
-				if (encodeSpaces)
-					write(out, '_', false);
-				else
-					spaces++;
-			}
-			// we can ignore carriage returns as they are outputted properly anyway
-			else if (character != '\r')
-				write(out, character, character < 32 || character >= 127);	// octal: 040 & 0177
-		}
-		// spaces waiting, push them back
-		if (spaces > 0) {
-			byte [] spacesToWrite = new byte[spaces];
-			for (int i = 0; i < spaces; i++)
-				spacesToWrite[i] = ' ';
-			byteContainer.write(spacesToWrite);
-			spaces = 0;
-		}
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	public void setBlockSize(int blockSize) {
+		if (bytes != null)
+			throw new IllegalStateException("Can not change the block size once transcoding has started");
+		this.blockSize = Math.max(1, blockSize);
 	}
 
 }
@@ -24,25 +24,25 @@ public enum QuotedPrintableEncoding {
 	WORD("\r\n=_?\"#$%&'(),.:;<>@[\\]^`{|}~\r\n", Integer.MAX_VALUE, true),
 	ALL("\r\n=_?\"#$%&'(),.:;<>@[\\]^`{|}~\r\n/!\t*+", Integer.MAX_VALUE, true);
 	
-	private String charactersToEncode;
-	private int defaultLength;
-	private boolean encodeSpaces = false;
+	private QuotedPrintableCharacterSet characterSet;
 	
 	private QuotedPrintableEncoding(String charactersToEncode, int defaultLength, boolean encodeSpaces) {
-		this.charactersToEncode = charactersToEncode;
-		this.defaultLength = defaultLength;
-		this.encodeSpaces = encodeSpaces;
+		this.characterSet = new QuotedPrintableCharacterSet(charactersToEncode, defaultLength, encodeSpaces);
 	}
 
 	public String getCharactersToEncode() {
-		return charactersToEncode;
+		return characterSet.getCharactersToEncode();
 	}
 
 	public int getDefaultLength() {
-		return defaultLength;
+		return characterSet.getDefaultLength();
 	}
 	
 	public boolean isEncodeSpaces() {
-		return encodeSpaces;
+		return characterSet.isEncodeSpaces();
 	}
-}
\ No newline at end of file
+	
+	public QuotedPrintableCharacterSet getCharacterSet() {
+		return characterSet;
+	}
+}
@@ -0,0 +1,200 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.utils.codec.impl;
+
+import java.io.IOException;
+
+import be.nabu.utils.codec.api.ResettableTranscoder;
+import be.nabu.utils.codec.api.SizePredictingTranscoder;
+import be.nabu.utils.codec.api.Transcoder;
+import be.nabu.utils.io.IOUtils;
+import be.nabu.utils.io.api.ByteBuffer;
+import be.nabu.utils.io.api.ReadableContainer;
+import be.nabu.utils.io.api.WritableContainer;
+import be.nabu.utils.io.buffers.bytes.DynamicByteBuffer;
+
+/**
+ * Decodes data that was encoded with a quantum based encoding like base32, Z85 or ascii85
+ * Runs of full quanta are decoded by the encoding, line breaks, padding and special characters are handled one by one
+ * If the encoding uses padding, a last quantum without padding is still accepted
+ */
+public class RadixDecoder implements Transcoder<ByteBuffer>, SizePredictingTranscoder, ResettableTranscoder {
+
+	private RadixEncoding encoding;
+	
+	/**
+	 * The current partial quantum, it is carried over between transcode calls
+	 */
+	private byte [] quantum;
+	
+	private int offset = 0;
+	
+	/**
+	 * Once we encounter padding, the data is finished and only more padding can follow
+	 */
+	private boolean padded = false;
+	
+	private int paddingLeft = 0;
+	
+	/**
+	 * The amount of input bytes processed in previous blocks, used to report the offset of invalid characters
+	 */
+	private long inputOffset = 0;
+	
+	private DynamicByteBuffer outputBuffer = new DynamicByteBuffer();
+	
+	private int blockSize = 4096;
+	
+	private byte [] readBuffer;
+	
+	private byte [] decoded;
+	
+	public RadixDecoder(RadixEncoding encoding) {
+		this.encoding = encoding;
+		this.quantum = new byte[encoding.getCharactersPerQuantum()];
+	}
+	
+	@Override
+	public void transcode(ReadableContainer<ByteBuffer> in, WritableContainer<ByteBuffer> out) throws IOException {
+		if (outputBuffer.remainingData() == IOUtils.copyBytes(outputBuffer, out)) {
+			initialize();
+			int read;
+			while (outputBuffer.remainingData() == 0 && (read = (int) in.read(IOUtils.wrap(readBuffer, false))) > 0) {
+				int position = decodeBlock(read);
+				inputOffset += read;
+				write(out, position);
+			}
+		}
+	}
+	
+	private void initialize() {
+		if (readBuffer == null) {
+			readBuffer = new byte[blockSize];
+			decoded = new byte[(int) encoding.getMaximumDecodedLength(blockSize + quantum.length)];
+		}
+	}
+	
+	private int decodeBlock(int length) throws IOException {
+		int position = 0;
+		int charactersPerQuantum = quantum.length;
+		for (int i = 0; i < length; i++) {
+			// decode as many full quanta as possible in one go
+			if (offset == 0 && !padded && i + charactersPerQuantum <= length) {
+				int quanta = encoding.decode(readBuffer, i, length - i, decoded, position);
+				if (quanta > 0) {
+					position += quanta * encoding.getBytesPerQuantum();
+					i += quanta * charactersPerQuantum;
+					if (i >= length)
+						break;
+				}
+			}
+			byte character = readBuffer[i];
+			if (encoding.isIgnorable(character))
+				continue;
+			else if (padded) {
+				if (character != encoding.getPadding() || paddingLeft-- <= 0)
+					throw invalid(i);
+			}
+			else if (encoding.values[character & 0xff] >= 0) {
+				quantum[offset++] = character;
+				if (offset == charactersPerQuantum) {
+					if (encoding.decode(quantum, 0, offset, decoded, position) != 1)
+						throw invalid(i);
+					position += encoding.getBytesPerQuantum();
+					offset = 0;
+				}
+			}
+			else if (character == encoding.getPadding() && encoding.getPadding() != 0 && offset > 0) {
+				position = encoding.decodePartial(quantum, 0, offset, decoded, position);
+				paddingLeft = charactersPerQuantum - offset - 1;
+				padded = true;
+				offset = 0;
+			}
+			else {
+				int special = offset == 0 ? encoding.decodeSpecial(character, decoded, position) : -1;
+				if (special < 0)
+					throw invalid(i);
+				position = special;
+			}
+		}
+		return position;
+	}
+	
+	private IOException invalid(int index) {
+		return new IOException("Invalid character 0x" + Integer.toHexString(readBuffer[index] & 0xff) + " at offset " + (inputOffset + index));
+	}
+	
+	private void write(WritableContainer<ByteBuffer> out, int length) throws IOException {
+		if (length > 0) {
+			// if output is already buffered, it has to go out first
+			int written = outputBuffer.remainingData() == 0 ? (int) out.write(IOUtils.wrap(decoded, 0, length, true)) : 0;
+			if (written < length)
+				outputBuffer.write(decoded, written, length - written);
+		}
+	}
+
+	@Override
+	public void flush(WritableContainer<ByteBuffer> out) throws IOException {
+		// the last quantum was not padded
+		if (offset > 0) {
+			initialize();
+			int position = encoding.decodePartial(quantum, 0, offset, decoded, 0);
+			offset = 0;
+			write(out, position);
+		}
+		IOUtils.copyBytes(outputBuffer, out);
+		if (outputBuffer.remainingData() > 0)
+			throw new IOException("Not enough space in the target to finish the decoding");
+	}
+
+	@Override
+	public void reset() {
+		outputBuffer.truncate();
+		offset = 0;
+		padded = false;
+		paddingLeft = 0;
+		inputOffset = 0;
+	}
+
+	/**
+	 * We don't know how many line feeds or padding characters are in the input
+	 */
+	@Override
+	public long getExactOutputSize(long inputSize) {
+		return -1;
+	}
+
+	@Override
+	public long getMaximumOutputSize(long inputSize) {
+		return encoding.getMaximumDecodedLength(inputSize);
+	}
+
+	public RadixEncoding getEncoding() {
+		return encoding;
+	}
+
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	public void setBlockSize(int blockSize) {
+		if (readBuffer != null)
+			throw new IllegalStateException("Can not change the block size once transcoding has started");
+		this.blockSize = Math.max(1, blockSize);
+	}
+}
@@ -0,0 +1,187 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.utils.codec.impl;
+
+import java.io.IOException;
+
+import be.nabu.utils.codec.api.ResettableTranscoder;
+import be.nabu.utils.codec.api.SizePredictingTranscoder;
+import be.nabu.utils.codec.api.Transcoder;
+import be.nabu.utils.io.IOUtils;
+import be.nabu.utils.io.api.ByteBuffer;
+import be.nabu.utils.io.api.ReadableContainer;
+import be.nabu.utils.io.api.WritableContainer;
+import be.nabu.utils.io.buffers.bytes.DynamicByteBuffer;
+
+/**
+ * Encodes data with a quantum based encoding like base32, Z85 or ascii85
+ * Only full quanta are encoded while streaming, the last partial quantum is encoded (and padded if necessary) when flushing
+ */
+public class RadixEncoder implements Transcoder<ByteBuffer>, SizePredictingTranscoder, ResettableTranscoder {
+
+	private static final byte [] lineBreak = new byte [] { '\r', '\n' };
+	
+	private RadixEncoding encoding;
+	
+	/**
+	 * The amount of characters per line, 0 means no line breaks
+	 */
+	private int bytesPerLine = 0;
+	
+	/**
+	 * The amount of characters written on the current line
+	 */
+	private int lineLength = 0;
+	
+	private DynamicByteBuffer outputBuffer = new DynamicByteBuffer();
+	
+	/**
+	 * The amount of quanta we read in one go
+	 */
+	private int quantaPerBlock = 1024;
+	
+	/**
+	 * The read bytes, a partial quantum at the end is moved to the front for the next run
+	 */
+	private byte [] bytes;
+	
+	private int lastRead = 0;
+	
+	private byte [] encoded, encodedWithLineBreaks;
+	
+	public RadixEncoder(RadixEncoding encoding) {
+		this.encoding = encoding;
+	}
+	
+	@Override
+	public void transcode(ReadableContainer<ByteBuffer> in, WritableContainer<ByteBuffer> out) throws IOException {
+		if (outputBuffer.remainingData() == IOUtils.copyBytes(outputBuffer, out)) {
+			initialize();
+			int read;
+			while (outputBuffer.remainingData() == 0 && (read = (int) in.read(IOUtils.wrap(bytes, lastRead, bytes.length - lastRead, false))) > 0) {
+				int available = lastRead + read;
+				int length = available - (available % encoding.getBytesPerQuantum());
+				int position = encoding.encode(bytes, 0, length, encoded, 0);
+				lastRead = available - length;
+				if (lastRead > 0)
+					System.arraycopy(bytes, length, bytes, 0, lastRead);
+				write(out, position);
+			}
+		}
+	}
+	
+	private void initialize() {
+		if (bytes == null) {
+			bytes = new byte[quantaPerBlock * encoding.getBytesPerQuantum()];
+			encoded = new byte[quantaPerBlock * encoding.getCharactersPerQuantum()];
+			if (bytesPerLine > 0)
+				encodedWithLineBreaks = new byte[encoded.length + (((encoded.length / bytesPerLine) + 1) * lineBreak.length)];
+		}
+	}
+	
+	/**
+	 * Writes the encoded characters to the output (inserting line breaks if necessary), anything that can not be written is buffered
+	 */
+	private void write(WritableContainer<ByteBuffer> out, int length) throws IOException {
+		byte [] bytes = encoded;
+		if (bytesPerLine > 0 && length > 0) {
+			int position = 0;
+			for (int i = 0; i < length;) {
+				if (lineLength == bytesPerLine) {
+					encodedWithLineBreaks[position++] = lineBreak[0];
+					encodedWithLineBreaks[position++] = lineBreak[1];
+					lineLength = 0;
+				}
+				int amount = Math.min(bytesPerLine - lineLength, length - i);
+				System.arraycopy(encoded, i, encodedWithLineBreaks, position, amount);
+				position += amount;
+				lineLength += amount;
+				i += amount;
+			}
+			bytes = encodedWithLineBreaks;
+			length = position;
+		}
+		if (length > 0) {
+			// if output is already buffered, it has to go out first
+			int written = outputBuffer.remainingData() == 0 ? (int) out.write(IOUtils.wrap(bytes, 0, length, true)) : 0;
+			if (written < length)
+				outputBuffer.write(bytes, written, length - written);
+		}
+	}
+
+	@Override
+	public void flush(WritableContainer<ByteBuffer> out) throws IOException {
+		if (lastRead > 0) {
+			initialize();
+			int position = encoding.encodePartial(bytes, 0, lastRead, encoded, 0);
+			if (encoding.getPadding() != 0) {
+				while (position % encoding.getCharactersPerQuantum() != 0)
+					encoded[position++] = encoding.getPadding();
+			}
+			lastRead = 0;
+			write(out, position);
+		}
+		IOUtils.copyBytes(outputBuffer, out);
+		if (outputBuffer.remainingData() > 0)
+			throw new IOException("Not enough space in the target to finish the encoding");
+	}
+
+	@Override
+	public void reset() {
+		outputBuffer.truncate();
+		lineLength = 0;
+		lastRead = 0;
+	}
+
+	@Override
+	public long getExactOutputSize(long inputSize) {
+		return encoding.isFixedLength() ? getMaximumOutputSize(inputSize) : -1;
+	}
+
+	@Override
+	public long getMaximumOutputSize(long inputSize) {
+		long characters = encoding.getMaximumEncodedLength(inputSize);
+		if (bytesPerLine > 0 && characters > 0)
+			characters += ((characters - 1) / bytesPerLine) * lineBreak.length;
+		return characters;
+	}
+
+	public RadixEncoding getEncoding() {
+		return encoding;
+	}
+
+	public int getBytesPerLine() {
+		return bytesPerLine;
+	}
+
+	public void setBytesPerLine(int bytesPerLine) {
+		if (bytes != null)
+			throw new IllegalStateException("Can not change the line length once transcoding has started");
+		this.bytesPerLine = Math.max(0, bytesPerLine);
+	}
+
+	public int getQuantaPerBlock() {
+		return quantaPerBlock;
+	}
+
+	public void setQuantaPerBlock(int quantaPerBlock) {
+		if (bytes != null)
+			throw new IllegalStateException("Can not change the block size once transcoding has started");
+		this.quantaPerBlock = Math.max(1, quantaPerBlock);
+	}
+}
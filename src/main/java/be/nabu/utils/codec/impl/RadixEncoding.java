@@ -0,0 +1,134 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.utils.codec.impl;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Describes a binary-to-text encoding that works on fixed quanta: a number of bytes is encoded into a number of characters
+ * The streaming, carrying of partial quanta, line wrapping and padding is done by the {@link RadixEncoder} and {@link RadixDecoder}
+ * The encodings themselves only implement the inner loops so they can be specialized per encoding
+ */
+abstract public class RadixEncoding {
+
+	private int bytesPerQuantum, charactersPerQuantum;
+	
+	/**
+	 * The padding character, 0 if there is no padding
+	 */
+	private byte padding;
+	
+	protected final byte [] alphabet;
+	
+	/**
+	 * 256 entries, the value of each character in the alphabet, -1 for anything else
+	 */
+	protected final byte [] values;
+	
+	protected RadixEncoding(int bytesPerQuantum, int charactersPerQuantum, String alphabet, char padding) {
+		this.bytesPerQuantum = bytesPerQuantum;
+		this.charactersPerQuantum = charactersPerQuantum;
+		this.alphabet = alphabet.getBytes(Charset.forName("ASCII"));
+		this.padding = (byte) padding;
+		this.values = new byte[256];
+		Arrays.fill(values, (byte) -1);
+		for (int i = 0; i < this.alphabet.length; i++)
+			values[this.alphabet[i]] = (byte) i;
+	}
+	
+	/**
+	 * Encodes the given bytes, the length is always a multiple of the quantum
+	 * Returns the new position in the output
+	 */
+	public abstract int encode(byte [] input, int offset, int length, byte [] output, int position);
+	
+	/**
+	 * Encodes the final partial quantum (without padding), returns the new position in the output
+	 */
+	public abstract int encodePartial(byte [] input, int offset, int length, byte [] output, int position) throws IOException;
+	
+	/**
+	 * Decodes as many full quanta as possible from the given characters, it must stop at the first quantum that contains a character outside of the alphabet
+	 * Returns the amount of quanta that were decoded
+	 */
+	public abstract int decode(byte [] input, int offset, int length, byte [] output, int position) throws IOException;
+	
+	/**
+	 * Decodes a final partial quantum, returns the new position in the output
+	 */
+	public abstract int decodePartial(byte [] input, int offset, int length, byte [] output, int position) throws IOException;
+	
+	/**
+	 * Some encodings have characters outside of the alphabet that stand for an entire quantum (e.g. "z" in ascii85)
+	 * Returns the new position in the output or -1 if it is not a special character
+	 */
+	public int decodeSpecial(byte character, byte [] output, int position) {
+		return -1;
+	}
+	
+	/**
+	 * Whether the character can be skipped when decoding, by default only linefeeds
+	 */
+	public boolean isIgnorable(byte character) {
+		return character == '\r' || character == '\n';
+	}
+	
+	/**
+	 * Whether the encoded length only depends on the input length
+	 */
+	public boolean isFixedLength() {
+		return true;
+	}
+	
+	/**
+	 * The amount of characters (excluding line breaks) the given amount of bytes is encoded into
+	 */
+	public long getMaximumEncodedLength(long length) {
+		long characters = (length / bytesPerQuantum) * charactersPerQuantum;
+		int remainder = (int) (length % bytesPerQuantum);
+		if (remainder > 0)
+			characters += padding != 0 ? charactersPerQuantum : getPartialLength(remainder);
+		return characters;
+	}
+	
+	/**
+	 * The amount of bytes the given amount of characters can decode into
+	 */
+	public long getMaximumDecodedLength(long characters) {
+		return ((characters + charactersPerQuantum - 1) / charactersPerQuantum) * bytesPerQuantum;
+	}
+	
+	/**
+	 * The amount of characters a partial quantum of the given length (in bytes) is encoded into (without padding)
+	 */
+	protected abstract int getPartialLength(int length);
+
+	public int getBytesPerQuantum() {
+		return bytesPerQuantum;
+	}
+
+	public int getCharactersPerQuantum() {
+		return charactersPerQuantum;
+	}
+
+	public byte getPadding() {
+		return padding;
+	}
+}
@@ -0,0 +1,169 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.utils.codec.impl;
+
+import java.io.IOException;
+
+import be.nabu.utils.io.IOUtils;
+import be.nabu.utils.io.api.Buffer;
+import be.nabu.utils.io.api.ByteBuffer;
+import be.nabu.utils.io.api.ReadableContainer;
+
+/**
+ * Decodes base64 but allows you to skip ahead without decoding everything in between
+ * Every 4 characters decode into 3 bytes so we can calculate where a decoded position is in the encoded data
+ * This presumes the data has the layout the encoder generates: full lines of bytesPerLine characters separated by a CRLF (or no line breaks at all if bytesPerLine is 0)
+ * If the parent is a buffer, the encoded data is skipped without even reading it, otherwise it is read and discarded without decoding it
+ * Only forward skipping is supported, combine a skip with a limited readable to decode only a specific window
+ */
+public class SkippableBase64ReadableByteContainer implements ReadableContainer<ByteBuffer> {
+
+	private ReadableContainer<ByteBuffer> parent;
+	
+	private ReadableContainer<ByteBuffer> decoded;
+	
+	private boolean useBase64Url = false;
+	
+	private int bytesPerLine = 76;
+	
+	/**
+	 * The amount of encoded bytes we have taken from the parent
+	 */
+	private long encodedPosition = 0;
+	
+	/**
+	 * The amount of decoded bytes we have returned or skipped
+	 */
+	private long position = 0;
+	
+	private byte [] skipBuffer = new byte[4096];
+	
+	public SkippableBase64ReadableByteContainer(ReadableContainer<ByteBuffer> parent) {
+		this.parent = parent;
+	}
+	
+	@Override
+	public long read(ByteBuffer target) throws IOException {
+		if (decoded == null) {
+			Base64Decoder decoder = new Base64Decoder();
+			decoder.setUseBase64Url(useBase64Url);
+			decoded = new TranscodedReadableByteContainer<ByteBuffer>(new CountingReadableContainer(), decoder);
+		}
+		long read = decoded.read(target);
+		if (read > 0)
+			position += read;
+		return read;
+	}
+	
+	/**
+	 * Skips the given amount of decoded bytes, returns how many were actually skipped
+	 */
+	public long skip(long amount) throws IOException {
+		long start = position;
+		long target = position + amount;
+		// the start of the quantum the target is in
+		long characters = (target / 3) * 4;
+		long encodedTarget = bytesPerLine > 0 ? characters + ((characters / bytesPerLine) * 2) : characters;
+		// if we have already read past it, it is buffered in the decoder and we just decode it
+		if (encodedTarget > encodedPosition) {
+			long skipped = skipEncoded(encodedTarget - encodedPosition);
+			// start a new decoder at the new position
+			decoded = null;
+			if (skipped == encodedTarget - encodedPosition)
+				position = (target / 3) * 3;
+			// the data ended before we reached the target, we calculate how much decoded data we have actually skipped
+			else {
+				long skippedCharacters = bytesPerLine > 0 ? encodedPosition + skipped - (((encodedPosition + skipped) / (bytesPerLine + 2)) * 2) : encodedPosition + skipped;
+				position = (skippedCharacters / 4) * 3;
+			}
+			encodedPosition += skipped;
+		}
+		// the remainder is decoded and discarded
+		while (position < target) {
+			long read = read(IOUtils.wrap(skipBuffer, 0, (int) Math.min(skipBuffer.length, target - position), false));
+			if (read <= 0)
+				break;
+		}
+		return position - start;
+	}
+	
+	/**
+	 * Moves forward to the given decoded position
+	 */
+	public void seek(long position) throws IOException {
+		if (position < this.position)
+			throw new IOException("Can only seek forward, the current position is " + this.position);
+		skip(position - this.position);
+	}
+	
+	@SuppressWarnings("unchecked")
+	private long skipEncoded(long amount) throws IOException {
+		if (parent instanceof Buffer)
+			return ((Buffer<ByteBuffer>) parent).skip(amount);
+		long skipped = 0;
+		while (skipped < amount) {
+			long read = parent.read(IOUtils.wrap(skipBuffer, 0, (int) Math.min(skipBuffer.length, amount - skipped), false));
+			if (read <= 0)
+				break;
+			skipped += read;
+		}
+		return skipped;
+	}
+	
+	public long getPosition() {
+		return position;
+	}
+	
+	@Override
+	public void close() throws IOException {
+		parent.close();
+	}
+
+	public boolean isUseBase64Url() {
+		return useBase64Url;
+	}
+
+	public void setUseBase64Url(boolean useBase64Url) {
+		this.useBase64Url = useBase64Url;
+	}
+
+	public int getBytesPerLine() {
+		return bytesPerLine;
+	}
+
+	public void setBytesPerLine(int bytesPerLine) {
+		this.bytesPerLine = bytesPerLine;
+	}
+	
+	/**
+	 * Keeps track of how much encoded data the decoder has taken
+	 */
+	private class CountingReadableContainer implements ReadableContainer<ByteBuffer> {
+		@Override
+		public long read(ByteBuffer target) throws IOException {
+			long read = parent.read(target);
+			if (read > 0)
+				encodedPosition += read;
+			return read;
+		}
+		@Override
+		public void close() throws IOException {
+			parent.close();
+		}
+	}
+}
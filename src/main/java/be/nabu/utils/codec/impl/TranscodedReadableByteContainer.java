@@ -17,6 +17,7 @@
 
 package be.nabu.utils.codec.impl;
 
+import java.io.Closeable;
 import java.io.IOException;
 
 import be.nabu.utils.codec.api.FinishableTranscoder;
@@ -51,10 +52,17 @@ public class TranscodedReadableByteContainer<T extends Buffer<T>> implements Rea
 	
 	@Override
 	public void close() throws IOException {
-		if (buffer != null) {
-			transcoder.flush(buffer);
-			if (buffer.remainingData() > 0)
-				throw new IOException("Can not close stream as long as there is unflushed data: " + buffer.remainingData() + " byte(s)");
+		try {
+			if (buffer != null) {
+				transcoder.flush(buffer);
+				if (buffer.remainingData() > 0)
+					throw new IOException("Can not close stream as long as there is unflushed data: " + buffer.remainingData() + " byte(s)");
+			}
+		}
+		finally {
+			// release any native state held by the transcoder
+			if (transcoder instanceof Closeable)
+				((Closeable) transcoder).close();
 		}
 		parent.close();
 	}
@@ -17,6 +17,7 @@
 
 package be.nabu.utils.codec.impl;
 
+import java.io.Closeable;
 import java.io.IOException;
 
 import be.nabu.utils.codec.api.Transcoder;
@@ -43,6 +44,9 @@ public class TranscodedWritableByteContainer<T extends Buffer<T>> implements Wri
 			}
 			finally {
 				closed = true;
+				// release any native state held by the transcoder
+				if (transcoder instanceof Closeable)
+					((Closeable) transcoder).close();
 				parent.close();
 			}
 		}
@@ -19,6 +19,8 @@ package be.nabu.utils.codec.impl;
 
 import java.io.IOException;
 
+import be.nabu.utils.codec.api.ResettableTranscoder;
+import be.nabu.utils.codec.api.SizePredictingTranscoder;
 import be.nabu.utils.codec.api.Transcoder;
 import be.nabu.utils.io.IOUtils;
 import be.nabu.utils.io.api.ByteBuffer;
@@ -26,7 +28,7 @@ import be.nabu.utils.io.api.ReadableContainer;
 import be.nabu.utils.io.api.WritableContainer;
 import be.nabu.utils.io.buffers.bytes.ByteBufferFactory;
 
-public class XORMaskTranscoder implements Transcoder<ByteBuffer> {
+public class XORMaskTranscoder implements Transcoder<ByteBuffer>, SizePredictingTranscoder, ResettableTranscoder {
 
 	private byte [] bytes = new byte[4096];
 	private ByteBuffer buffer = ByteBufferFactory.getInstance().newInstance();
@@ -60,6 +62,16 @@ public class XORMaskTranscoder implements Transcoder<ByteBuffer> {
 		}
 	}
 
+	@Override
+	public long getExactOutputSize(long inputSize) {
+		return inputSize;
+	}
+
+	@Override
+	public long getMaximumOutputSize(long inputSize) {
+		return inputSize;
+	}
+
 	@Override
 	public void flush(WritableContainer<ByteBuffer> out) throws IOException {
 		if (buffer.remainingData() > 0 && buffer.remainingData() != out.write(buffer)) {
@@ -67,4 +79,10 @@ public class XORMaskTranscoder implements Transcoder<ByteBuffer> {
 		}
 	}
 
+	@Override
+	public void reset() {
+		buffer.truncate();
+		maskCounter = 0;
+	}
+
 }
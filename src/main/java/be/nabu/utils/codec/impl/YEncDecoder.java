@@ -0,0 +1,231 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.utils.codec.impl;
+
+import java.io.IOException;
+import java.util.zip.CRC32;
+
+import be.nabu.utils.codec.api.ResettableTranscoder;
+import be.nabu.utils.codec.api.SizePredictingTranscoder;
+import be.nabu.utils.codec.api.Transcoder;
+import be.nabu.utils.io.IOUtils;
+import be.nabu.utils.io.api.ByteBuffer;
+import be.nabu.utils.io.api.ReadableContainer;
+import be.nabu.utils.io.api.WritableContainer;
+import be.nabu.utils.io.buffers.bytes.DynamicByteBuffer;
+
+/**
+ * Decodes yEnc data, line breaks are skipped
+ * Keyword lines ("=ybegin", "=ypart", "=yend") are skipped as well, if the "=yend" line contains a size or crc32 it is validated
+ */
+public class YEncDecoder implements Transcoder<ByteBuffer>, SizePredictingTranscoder, ResettableTranscoder {
+
+	/**
+	 * Characters that interrupt a run of data characters
+	 */
+	private static final boolean [] special = new boolean[256]; static {
+		special['\r'] = true;
+		special['\n'] = true;
+		special[YEncEncoder.ESCAPE] = true;
+	}
+	
+	private boolean escaped = false;
+	
+	/**
+	 * The keyword line we are currently reading (can be spread over multiple blocks)
+	 */
+	private StringBuilder keyword;
+	
+	private CRC32 crc = new CRC32();
+	
+	private long size = 0;
+	
+	private boolean validateChecksum = true;
+	
+	private DynamicByteBuffer outputBuffer = new DynamicByteBuffer();
+	
+	private int blockSize = 8192;
+	
+	private byte [] readBuffer;
+	
+	private byte [] decoded;
+	
+	/**
+	 * The position in the decoded block up to which we have calculated the checksum
+	 */
+	private int checksummed;
+	
+	@Override
+	public void transcode(ReadableContainer<ByteBuffer> in, WritableContainer<ByteBuffer> out) throws IOException {
+		if (outputBuffer.remainingData() == IOUtils.copyBytes(outputBuffer, out)) {
+			if (readBuffer == null) {
+				readBuffer = new byte[blockSize];
+				decoded = new byte[blockSize];
+			}
+			int read;
+			while (outputBuffer.remainingData() == 0 && (read = (int) in.read(IOUtils.wrap(readBuffer, false))) > 0) {
+				int position = decodeBlock(read);
+				checksum(position);
+				write(out, position);
+			}
+		}
+	}
+	
+	private int decodeBlock(int length) throws IOException {
+		int position = 0;
+		checksummed = 0;
+		for (int i = 0; i < length; i++) {
+			if (keyword != null) {
+				byte character = readBuffer[i];
+				if (character == '\n') {
+					checksum(position);
+					parseKeyword();
+				}
+				else if (character != '\r')
+					keyword.append((char) (character & 0xff));
+				continue;
+			}
+			if (!escaped) {
+				// decode a run of regular characters
+				while (i < length && !special[readBuffer[i] & 0xff])
+					decoded[position++] = (byte) (readBuffer[i++] - 42);
+				if (i >= length)
+					break;
+			}
+			byte character = readBuffer[i];
+			if (escaped) {
+				// "=y" can not be the result of escaping, it starts a keyword line
+				if (character == 'y')
+					keyword = new StringBuilder("=y");
+				else
+					decoded[position++] = (byte) (character - 64 - 42);
+				escaped = false;
+			}
+			else if (character == YEncEncoder.ESCAPE)
+				escaped = true;
+		}
+		return position;
+	}
+	
+	private void checksum(int position) {
+		if (position > checksummed) {
+			crc.update(decoded, checksummed, position - checksummed);
+			size += position - checksummed;
+			checksummed = position;
+		}
+	}
+	
+	private void parseKeyword() throws IOException {
+		String line = keyword.toString();
+		keyword = null;
+		if (validateChecksum && line.startsWith("=yend")) {
+			Long expectedSize = getNumber(line, "size", 10);
+			if (expectedSize != null && expectedSize != size)
+				throw new IOException("The yEnc data is corrupt, the expected size does not match the actual: " + expectedSize + " != " + size);
+			Long expectedCrc = getNumber(line, "crc32", 16);
+			if (expectedCrc != null && expectedCrc != crc.getValue())
+				throw new IOException("The crc32 of the yEnc data is incorrect");
+		}
+	}
+	
+	private static Long getNumber(String line, String name, int radix) throws IOException {
+		String value = getParameter(line, name);
+		try {
+			return value == null ? null : Long.parseLong(value, radix);
+		}
+		catch (NumberFormatException e) {
+			throw new IOException("The yEnc trailer has an invalid " + name + ": " + value, e);
+		}
+	}
+	
+	private static String getParameter(String line, String name) {
+		for (String part : line.split("[\\s]+")) {
+			if (part.startsWith(name + "="))
+				return part.substring(name.length() + 1).trim();
+		}
+		return null;
+	}
+	
+	private void write(WritableContainer<ByteBuffer> out, int length) throws IOException {
+		if (length > 0) {
+			int written = (int) out.write(IOUtils.wrap(decoded, 0, length, true));
+			if (written < length)
+				outputBuffer.write(decoded, written, length - written);
+		}
+	}
+
+	@Override
+	public void flush(WritableContainer<ByteBuffer> out) throws IOException {
+		if (keyword != null)
+			parseKeyword();
+		if (escaped)
+			throw new IOException("The yEnc data ends with an escape character");
+		IOUtils.copyBytes(outputBuffer, out);
+		if (outputBuffer.remainingData() > 0)
+			throw new IOException("Not enough space in the target to finish the decoding");
+	}
+
+	@Override
+	public void reset() {
+		outputBuffer.truncate();
+		escaped = false;
+		keyword = null;
+		crc.reset();
+		size = 0;
+		checksummed = 0;
+	}
+	
+	@Override
+	public long getExactOutputSize(long inputSize) {
+		return -1;
+	}
+
+	@Override
+	public long getMaximumOutputSize(long inputSize) {
+		return inputSize;
+	}
+
+	public long getChecksum() {
+		return crc.getValue();
+	}
+	
+	public long getSize() {
+		return size;
+	}
+	
+	public boolean isValidateChecksum() {
+		return validateChecksum;
+	}
+
+	/**
+	 * Whether or not to check the size and crc32 in the "=yend" line (if any)
+	 */
+	public void setValidateChecksum(boolean validateChecksum) {
+		this.validateChecksum = validateChecksum;
+	}
+
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	public void setBlockSize(int blockSize) {
+		if (readBuffer != null)
+			throw new IllegalStateException("Can not change the block size once transcoding has started");
+		this.blockSize = Math.max(1, blockSize);
+	}
+}
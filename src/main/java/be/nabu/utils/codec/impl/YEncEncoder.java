@@ -0,0 +1,221 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.utils.codec.impl;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.zip.CRC32;
+
+import be.nabu.utils.codec.api.ResettableTranscoder;
+import be.nabu.utils.codec.api.SizePredictingTranscoder;
+import be.nabu.utils.codec.api.Transcoder;
+import be.nabu.utils.codec.util.ChecksummedReadableByteContainer;
+import be.nabu.utils.io.IOUtils;
+import be.nabu.utils.io.api.ByteBuffer;
+import be.nabu.utils.io.api.ReadableContainer;
+import be.nabu.utils.io.api.WritableContainer;
+import be.nabu.utils.io.buffers.bytes.DynamicByteBuffer;
+
+/**
+ * Encodes binary data using yEnc: every byte is shifted by 42, only the few characters that can not be sent (NUL, CR, LF and the escape character "=") are escaped
+ * This only adds about 1-2% overhead on random data instead of the 33% of base64
+ * Tab, space and dot are escaped at the start of a line and tab and space at the end of a line because transports tend to mangle them
+ * Optionally a "=yend" trailer is added with the size and crc32 of the data
+ */
+public class YEncEncoder implements Transcoder<ByteBuffer>, SizePredictingTranscoder, ResettableTranscoder {
+
+	public static final byte ESCAPE = '=';
+	
+	/**
+	 * Indexed by the shifted byte: whether it must always be escaped
+	 */
+	static final boolean [] critical = new boolean[256]; static {
+		critical[0] = true;
+		critical['\n'] = true;
+		critical['\r'] = true;
+		critical[ESCAPE] = true;
+	}
+	
+	private int lineLength = 128;
+	
+	/**
+	 * The amount of characters on the current line
+	 */
+	private int column = 0;
+	
+	private boolean useTrailer = false, trailerWritten = false;
+	
+	private CRC32 crc = new CRC32();
+	
+	private long size = 0;
+	
+	private DynamicByteBuffer outputBuffer = new DynamicByteBuffer();
+	
+	private int blockSize = 8192;
+	
+	private byte [] bytes;
+	
+	private byte [] encoded;
+	
+	@Override
+	public void transcode(ReadableContainer<ByteBuffer> in, WritableContainer<ByteBuffer> out) throws IOException {
+		if (outputBuffer.remainingData() == IOUtils.copyBytes(outputBuffer, out)) {
+			if (bytes == null) {
+				bytes = new byte[blockSize];
+				// worst case everything is escaped, a line can overflow by one character
+				encoded = new byte[(blockSize * 2) + (((blockSize * 2) / lineLength) + 1) * 2];
+			}
+			ReadableContainer<ByteBuffer> checksummed = useTrailer ? new ChecksummedReadableByteContainer(in, crc) : in;
+			int read;
+			while (outputBuffer.remainingData() == 0 && (read = (int) checksummed.read(IOUtils.wrap(bytes, false))) > 0) {
+				size += read;
+				write(out, encodeBlock(read));
+			}
+		}
+	}
+	
+	private int encodeBlock(int length) {
+		int position = 0;
+		int i = 0;
+		while (i < length) {
+			// inside a line we only have to check for critical characters so we copy runs without any other checks
+			if (column > 0 && column < lineLength - 1) {
+				int end = Math.min(length, i + (lineLength - 1 - column));
+				int start = i;
+				while (i < end) {
+					int shifted = (bytes[i] + 42) & 0xff;
+					if (critical[shifted])
+						break;
+					encoded[position++] = (byte) shifted;
+					i++;
+				}
+				column += i - start;
+				if (i >= length)
+					break;
+			}
+			// the first and last character of a line and critical characters are handled one by one
+			int shifted = (bytes[i++] + 42) & 0xff;
+			if (critical[shifted] || ((column == 0 || column >= lineLength - 1) && (shifted == '\t' || shifted == ' ')) || (column == 0 && shifted == '.')) {
+				encoded[position++] = ESCAPE;
+				encoded[position++] = (byte) (shifted + 64);
+				column += 2;
+			}
+			else {
+				encoded[position++] = (byte) shifted;
+				column++;
+			}
+			if (column >= lineLength) {
+				encoded[position++] = '\r';
+				encoded[position++] = '\n';
+				column = 0;
+			}
+		}
+		return position;
+	}
+	
+	private void write(WritableContainer<ByteBuffer> out, int length) throws IOException {
+		write(out, encoded, length);
+	}
+	
+	private void write(WritableContainer<ByteBuffer> out, byte [] bytes, int length) throws IOException {
+		if (length > 0) {
+			if (outputBuffer.remainingData() == 0) {
+				int written = (int) out.write(IOUtils.wrap(bytes, 0, length, true));
+				if (written < length)
+					outputBuffer.write(bytes, written, length - written);
+			}
+			else
+				outputBuffer.write(bytes, 0, length);
+		}
+	}
+
+	@Override
+	public void flush(WritableContainer<ByteBuffer> out) throws IOException {
+		if (useTrailer && !trailerWritten) {
+			String trailer = (column > 0 ? "\r\n" : "") + "=yend size=" + size + " crc32=" + String.format("%08x", crc.getValue()) + "\r\n";
+			write(out, trailer.getBytes(Charset.forName("ASCII")), trailer.length());
+			column = 0;
+			trailerWritten = true;
+		}
+		IOUtils.copyBytes(outputBuffer, out);
+		if (outputBuffer.remainingData() > 0)
+			throw new IOException("Not enough space in the target to finish the encoding");
+	}
+
+	@Override
+	public void reset() {
+		outputBuffer.truncate();
+		column = 0;
+		trailerWritten = false;
+		crc.reset();
+		size = 0;
+	}
+	
+	/**
+	 * It depends on the amount of characters that need to be escaped
+	 */
+	@Override
+	public long getExactOutputSize(long inputSize) {
+		return -1;
+	}
+
+	@Override
+	public long getMaximumOutputSize(long inputSize) {
+		long characters = inputSize * 2;
+		return characters + ((characters / lineLength) + 1) * 2 + (useTrailer ? 64 : 0);
+	}
+
+	public long getChecksum() {
+		return crc.getValue();
+	}
+	
+	public long getSize() {
+		return size;
+	}
+	
+	public int getLineLength() {
+		return lineLength;
+	}
+
+	public void setLineLength(int lineLength) {
+		if (bytes != null)
+			throw new IllegalStateException("Can not change the line length once transcoding has started");
+		this.lineLength = Math.max(2, lineLength);
+	}
+
+	public boolean isUseTrailer() {
+		return useTrailer;
+	}
+
+	/**
+	 * Adds a "=yend" line with the size and crc32 of the data
+	 */
+	public void setUseTrailer(boolean useTrailer) {
+		this.useTrailer = useTrailer;
+	}
+
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	public void setBlockSize(int blockSize) {
+		if (bytes != null)
+			throw new IllegalStateException("Can not change the block size once transcoding has started");
+		this.blockSize = Math.max(1, blockSize);
+	}
+}
@@ -0,0 +1,84 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.utils.codec.impl;
+
+import java.io.IOException;
+
+/**
+ * The Z85 encoding used by zeromq (rfc 32): 4 bytes are encoded into 5 characters
+ * The alphabet avoids quotes and backslashes so the result can be used in source code, the input must be a multiple of 4 bytes
+ */
+public class Z85Encoding extends RadixEncoding {
+
+	public static final String ALPHABET = "0123456789abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ.-:+=^!/*?&<>()[]{}@%$#";
+	
+	public Z85Encoding() {
+		super(4, 5, ALPHABET, (char) 0);
+	}
+	
+	@Override
+	public int encode(byte [] input, int offset, int length, byte [] output, int position) {
+		for (int i = offset; i < offset + length; i += 4) {
+			long value = ((long) (input[i] & 0xff) << 24) | ((input[i + 1] & 0xff) << 16) | ((input[i + 2] & 0xff) << 8) | (input[i + 3] & 0xff);
+			output[position + 4] = alphabet[(int) (value % 85)];
+			value /= 85;
+			output[position + 3] = alphabet[(int) (value % 85)];
+			value /= 85;
+			output[position + 2] = alphabet[(int) (value % 85)];
+			value /= 85;
+			output[position + 1] = alphabet[(int) (value % 85)];
+			output[position] = alphabet[(int) (value / 85)];
+			position += 5;
+		}
+		return position;
+	}
+
+	@Override
+	public int encodePartial(byte [] input, int offset, int length, byte [] output, int position) throws IOException {
+		throw new IOException("The input for Z85 must be a multiple of 4 bytes");
+	}
+
+	@Override
+	public int decode(byte [] input, int offset, int length, byte [] output, int position) throws IOException {
+		int quanta = 0;
+		for (int i = offset; i + 5 <= offset + length; i += 5) {
+			int a = values[input[i] & 0xff], b = values[input[i + 1] & 0xff], c = values[input[i + 2] & 0xff], d = values[input[i + 3] & 0xff], e = values[input[i + 4] & 0xff];
+			if ((a | b | c | d | e) < 0)
+				break;
+			long value = (((((((long) a * 85) + b) * 85 + c) * 85) + d) * 85) + e;
+			if (value > 0xffffffffL)
+				throw new IOException("Invalid Z85 group, the value is too large");
+			output[position++] = (byte) (value >>> 24);
+			output[position++] = (byte) (value >>> 16);
+			output[position++] = (byte) (value >>> 8);
+			output[position++] = (byte) value;
+			quanta++;
+		}
+		return quanta;
+	}
+
+	@Override
+	public int decodePartial(byte [] input, int offset, int length, byte [] output, int position) throws IOException {
+		throw new IOException("The input for Z85 must be a multiple of 5 characters");
+	}
+	
+	@Override
+	protected int getPartialLength(int length) {
+		return length + 1;
+	}
+}
@@ -0,0 +1,86 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.utils.codec.impl;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Hook to pass nio buffers to zlib, this is the java 8 version which goes through byte arrays
+ * Heap buffers are used as is, direct buffers are copied through the given scratch arrays
+ * When running on java 11+ the multi-release jar contains a version that hands the nio buffers straight to the deflater/inflater
+ * Both methods move the position of the input past the consumed bytes and the position of the output past the written bytes
+ */
+class ZlibBuffers {
+	
+	static boolean isAvailable() {
+		return false;
+	}
+	
+	static int deflate(Deflater deflater, java.nio.ByteBuffer input, java.nio.ByteBuffer output, int flush, byte [] inputScratch, byte [] outputScratch) {
+		int length = setInput(input, inputScratch);
+		long read = deflater.getBytesRead();
+		if (input.hasArray())
+			deflater.setInput(input.array(), input.arrayOffset() + input.position(), length);
+		else
+			deflater.setInput(inputScratch, 0, length);
+		int written;
+		if (output.hasArray()) {
+			written = deflater.deflate(output.array(), output.arrayOffset() + output.position(), output.remaining(), flush);
+			output.position(output.position() + written);
+		}
+		else {
+			written = deflater.deflate(outputScratch, 0, Math.min(output.remaining(), outputScratch.length), flush);
+			output.put(outputScratch, 0, written);
+		}
+		input.position(input.position() + (int) (deflater.getBytesRead() - read));
+		return written;
+	}
+	
+	static int inflate(Inflater inflater, java.nio.ByteBuffer input, java.nio.ByteBuffer output, byte [] inputScratch, byte [] outputScratch) throws DataFormatException {
+		int length = setInput(input, inputScratch);
+		long read = inflater.getBytesRead();
+		if (input.hasArray())
+			inflater.setInput(input.array(), input.arrayOffset() + input.position(), length);
+		else
+			inflater.setInput(inputScratch, 0, length);
+		int written;
+		if (output.hasArray()) {
+			written = inflater.inflate(output.array(), output.arrayOffset() + output.position(), output.remaining());
+			output.position(output.position() + written);
+		}
+		else {
+			written = inflater.inflate(outputScratch, 0, Math.min(output.remaining(), outputScratch.length));
+			output.put(outputScratch, 0, written);
+		}
+		input.position(input.position() + (int) (inflater.getBytesRead() - read));
+		return written;
+	}
+	
+	/**
+	 * Direct buffers are copied to the scratch array (without moving the position), returns the amount of input that is offered
+	 */
+	private static int setInput(java.nio.ByteBuffer input, byte [] inputScratch) {
+		if (input.hasArray())
+			return input.remaining();
+		int length = Math.min(input.remaining(), inputScratch.length);
+		input.duplicate().get(inputScratch, 0, length);
+		return length;
+	}
+}
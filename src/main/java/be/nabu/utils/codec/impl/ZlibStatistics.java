@@ -0,0 +1,150 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.utils.codec.impl;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide accounting of the native zlib state held by the deflate and inflate transcoders
+ * A deflater or inflater is counted from its creation until it is released, one that is dropped without being released is counted until the gc has reclaimed it
+ * The amount of those that were only reclaimed by the gc is available separately, a steadily rising number points to transcoders that are not closed
+ * The sizes are estimates for the default window (15 bits) and memory level (8) the jdk uses, on top of a few kb of state:
+ * - a deflater allocates a 64kb window (twice the 32kb window size), a 64kb prev chain and a 64kb hash head (32k entries of 2 bytes each) and a 64kb pending buffer
+ * - an inflater allocates a 32kb window
+ */
+public class ZlibStatistics {
+	
+	/**
+	 * The window, prev, head and pending buffers of 64kb each and about 6kb of state
+	 */
+	public static final long DEFLATER_SIZE = 4 * (1 << 16) + 6144;
+	
+	public static final long INFLATER_SIZE = (1 << 15) + 7168;
+	
+	private static final AtomicLong deflaters = new AtomicLong(), inflaters = new AtomicLong(), bytes = new AtomicLong(), peak = new AtomicLong(), leaked = new AtomicLong();
+	
+	private static final ReferenceQueue<Object> queue = new ReferenceQueue<Object>();
+	
+	/**
+	 * The allocations that have not been released yet, this keeps the references themselves reachable until they are enqueued
+	 */
+	private static final Set<Allocation> allocations = Collections.newSetFromMap(new ConcurrentHashMap<Allocation, Boolean>());
+	
+	/**
+	 * Finds the allocation for a deflater or inflater without keeping it reachable
+	 */
+	private static final Map<Object, Allocation> owners = Collections.synchronizedMap(new WeakHashMap<Object, Allocation>());
+	
+	static void allocate(Object owner, boolean deflater) {
+		expunge();
+		Allocation allocation = new Allocation(owner, deflater);
+		allocations.add(allocation);
+		owners.put(owner, allocation);
+		(deflater ? deflaters : inflaters).incrementAndGet();
+		long current = bytes.addAndGet(deflater ? DEFLATER_SIZE : INFLATER_SIZE);
+		long previous;
+		while (current > (previous = peak.get()) && !peak.compareAndSet(previous, current));
+	}
+	
+	static void release(Object owner) {
+		Allocation allocation = owners.remove(owner);
+		if (allocation != null && allocations.remove(allocation)) {
+			allocation.clear();
+			subtract(allocation);
+		}
+		expunge();
+	}
+	
+	/**
+	 * Removes the deflaters and inflaters that were reclaimed by the gc without being released
+	 */
+	private static void expunge() {
+		Reference<?> reference;
+		while ((reference = queue.poll()) != null) {
+			Allocation allocation = (Allocation) reference;
+			if (allocations.remove(allocation)) {
+				leaked.incrementAndGet();
+				subtract(allocation);
+			}
+		}
+	}
+	
+	private static void subtract(Allocation allocation) {
+		(allocation.deflater ? deflaters : inflaters).decrementAndGet();
+		bytes.addAndGet(-(allocation.deflater ? DEFLATER_SIZE : INFLATER_SIZE));
+	}
+	
+	public static long getLiveDeflaters() {
+		expunge();
+		return deflaters.get();
+	}
+	
+	public static long getLiveInflaters() {
+		expunge();
+		return inflaters.get();
+	}
+	
+	/**
+	 * The estimated amount of native memory currently held
+	 */
+	public static long getEstimatedBytes() {
+		expunge();
+		return bytes.get();
+	}
+	
+	/**
+	 * The amount of deflaters and inflaters that were never released but reclaimed by the gc
+	 */
+	public static long getLeaked() {
+		expunge();
+		return leaked.get();
+	}
+	
+	/**
+	 * The highest estimated amount of native memory held since startup or the last reset
+	 */
+	public static long getPeakBytes() {
+		return peak.get();
+	}
+	
+	/**
+	 * Resets the peak to the current value
+	 */
+	public static void resetPeak() {
+		expunge();
+		peak.set(bytes.get());
+	}
+	
+	private static class Allocation extends PhantomReference<Object> {
+		
+		private boolean deflater;
+		
+		Allocation(Object owner, boolean deflater) {
+			super(owner, queue);
+			this.deflater = deflater;
+		}
+	}
+}
@@ -0,0 +1,84 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.utils.codec.util;
+
+/**
+ * Combines the crc32 checksums of consecutive pieces of data without access to the data itself (like crc32_combine in zlib)
+ * Appending n bytes to data is a linear operation on the crc so we can apply the effect of n zero bytes using a 32x32 matrix over GF(2) which is squared for every bit of n
+ */
+public class CRC32Utils {
+	
+	/**
+	 * The reversed crc32 polynomial
+	 */
+	private static final long POLYNOMIAL = 0xedb88320L;
+	
+	/**
+	 * Returns the crc32 of the concatenation of two pieces of data, given the crc of the first piece and the crc and length of the second
+	 */
+	public static long combine(long crc1, long crc2, long length2) {
+		if (length2 <= 0)
+			return crc1;
+		
+		long [] even = new long[32];
+		long [] odd = new long[32];
+		
+		// the operator for one zero bit
+		odd[0] = POLYNOMIAL;
+		long row = 1;
+		for (int i = 1; i < 32; i++) {
+			odd[i] = row;
+			row <<= 1;
+		}
+		// two zero bits
+		square(even, odd);
+		// four zero bits
+		square(odd, even);
+		
+		// apply length2 zero bytes to crc1, the first square gives the operator for one zero byte
+		do {
+			square(even, odd);
+			if ((length2 & 1) != 0)
+				crc1 = times(even, crc1);
+			length2 >>= 1;
+			if (length2 == 0)
+				break;
+			square(odd, even);
+			if ((length2 & 1) != 0)
+				crc1 = times(odd, crc1);
+			length2 >>= 1;
+		}
+		while (length2 != 0);
+		
+		return crc1 ^ crc2;
+	}
+	
+	private static long times(long [] matrix, long vector) {
+		long sum = 0;
+		for (int i = 0; vector != 0; i++, vector >>= 1) {
+			if ((vector & 1) != 0)
+				sum ^= matrix[i];
+		}
+		return sum;
+	}
+	
+	private static void square(long [] square, long [] matrix) {
+		for (int i = 0; i < 32; i++)
+			square[i] = times(matrix, matrix[i]);
+	}
+}
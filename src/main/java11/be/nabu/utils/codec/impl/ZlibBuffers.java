@@ -0,0 +1,43 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.utils.codec.impl;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The java 11+ version of the zlib hook, it is packaged in META-INF/versions/11
+ * Since java 11 the deflater and inflater accept nio buffers, direct buffers are read and written by zlib without any copying
+ */
+class ZlibBuffers {
+	
+	static boolean isAvailable() {
+		return true;
+	}
+	
+	static int deflate(Deflater deflater, java.nio.ByteBuffer input, java.nio.ByteBuffer output, int flush, byte [] inputScratch, byte [] outputScratch) {
+		deflater.setInput(input);
+		return deflater.deflate(output, flush);
+	}
+	
+	static int inflate(Inflater inflater, java.nio.ByteBuffer input, java.nio.ByteBuffer output, byte [] inputScratch, byte [] outputScratch) throws DataFormatException {
+		inflater.setInput(input);
+		return inflater.inflate(output);
+	}
+}
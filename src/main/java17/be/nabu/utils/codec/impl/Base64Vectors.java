@@ -0,0 +1,159 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.utils.codec.impl;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShuffle;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The java 17+ version of the base64 hook which uses the vector api, it is packaged in META-INF/versions/17
+ * The vector api is still an incubator module so it has to be enabled explicitly with "--add-modules jdk.incubator.vector", otherwise we fall back to the scalar code
+ * All the actual vector code is in a separate class so this class can be loaded (and report that it is not available) even if the module is missing
+ */
+class Base64Vectors {
+	
+	private static final boolean available = initialize();
+	
+	private static boolean initialize() {
+		try {
+			return Engine.SPECIES.length() == 16;
+		}
+		catch (Throwable e) {
+			return false;
+		}
+	}
+	
+	static boolean isAvailable() {
+		return available;
+	}
+	
+	static int encode(byte [] input, int inputOffset, int length, byte [] output, int outputOffset, boolean useBase64Url) {
+		return available ? Engine.encode(input, inputOffset, length, output, outputOffset, useBase64Url) : 0;
+	}
+	
+	static int decode(byte [] input, int inputOffset, int length, byte [] output, int outputOffset, boolean useBase64Url) {
+		return available ? Engine.decode(input, inputOffset, length, output, outputOffset, useBase64Url) : 0;
+	}
+	
+	/**
+	 * Works on 128 bit vectors: 12 bytes are encoded into 16 characters and 16 characters are decoded into 12 bytes
+	 */
+	private static class Engine {
+		
+		static final VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_128;
+		
+		/**
+		 * Spreads 12 input bytes over 4 int lanes so each (little endian) lane contains the 24 bit value of one quantum
+		 */
+		private static final VectorShuffle<Byte> EXPAND = VectorShuffle.fromValues(SPECIES, 
+			2, 1, 0, 0,
+			5, 4, 3, 3,
+			8, 7, 6, 6,
+			11, 10, 9, 9);
+		
+		/**
+		 * Takes the 3 decoded bytes from each int lane
+		 */
+		private static final VectorShuffle<Byte> PACK = VectorShuffle.fromValues(SPECIES, 
+			0, 1, 2,
+			4, 5, 6,
+			8, 9, 10,
+			12, 13, 14,
+			15, 15, 15, 15);
+		
+		private static final VectorMask<Byte> PACKED = VectorMask.fromLong(SPECIES, 0xfff);
+		
+		static int encode(byte [] input, int inputOffset, int length, byte [] output, int outputOffset, boolean useBase64Url) {
+			byte plus = (byte) (useBase64Url ? '-' : '+');
+			byte slash = (byte) (useBase64Url ? '_' : '/');
+			int end = inputOffset + length;
+			int position = inputOffset;
+			// we only use 12 bytes but we load 16 so they must be within the array
+			while (position + 12 <= end && position + 16 <= input.length && outputOffset + 16 <= output.length) {
+				IntVector quanta = ByteVector.fromArray(SPECIES, input, position)
+					.rearrange(EXPAND)
+					.reinterpretAsInts();
+				// split each quantum in 4 indexes of 6 bits, the first character ends up in the lowest byte
+				IntVector indexes = quanta.lanewise(VectorOperators.LSHR, 18).and(0x3f)
+					.or(quanta.lanewise(VectorOperators.LSHR, 12).and(0x3f).lanewise(VectorOperators.LSHL, 8))
+					.or(quanta.lanewise(VectorOperators.LSHR, 6).and(0x3f).lanewise(VectorOperators.LSHL, 16))
+					.or(quanta.and(0x3f).lanewise(VectorOperators.LSHL, 24));
+				ByteVector index = indexes.reinterpretAsBytes();
+				// map the ranges of the alphabet to their offset: A-Z, a-z, 0-9 and the two special characters
+				ByteVector offset = ByteVector.broadcast(SPECIES, (byte) 'A')
+					.blend((byte) ('a' - 26), index.compare(VectorOperators.GE, (byte) 26))
+					.blend((byte) ('0' - 52), index.compare(VectorOperators.GE, (byte) 52))
+					.blend((byte) (plus - 62), index.compare(VectorOperators.EQ, (byte) 62))
+					.blend((byte) (slash - 63), index.compare(VectorOperators.EQ, (byte) 63));
+				index.add(offset).intoArray(output, outputOffset);
+				position += 12;
+				outputOffset += 16;
+			}
+			return position - inputOffset;
+		}
+		
+		static int decode(byte [] input, int inputOffset, int length, byte [] output, int outputOffset, boolean useBase64Url) {
+			byte plus = (byte) (useBase64Url ? '-' : '+');
+			byte slash = (byte) (useBase64Url ? '_' : '/');
+			int end = inputOffset + length;
+			int position = inputOffset;
+			while (position + 16 <= end) {
+				ByteVector characters = ByteVector.fromArray(SPECIES, input, position);
+				// classify the characters by range, anything that is not in a range (including everything above 127 which is negative) is invalid
+				VectorMask<Byte> upper = characters.compare(VectorOperators.GE, (byte) 'A').and(characters.compare(VectorOperators.LE, (byte) 'Z'));
+				VectorMask<Byte> lower = characters.compare(VectorOperators.GE, (byte) 'a').and(characters.compare(VectorOperators.LE, (byte) 'z'));
+				VectorMask<Byte> digit = characters.compare(VectorOperators.GE, (byte) '0').and(characters.compare(VectorOperators.LE, (byte) '9'));
+				VectorMask<Byte> first = characters.compare(VectorOperators.EQ, plus);
+				VectorMask<Byte> second = characters.compare(VectorOperators.EQ, slash);
+				if (!upper.or(lower).or(digit).or(first).or(second).allTrue()) {
+					break;
+				}
+				ByteVector offset = ByteVector.zero(SPECIES)
+					.blend((byte) -'A', upper)
+					.blend((byte) (26 - 'a'), lower)
+					.blend((byte) (52 - '0'), digit)
+					.blend((byte) (62 - plus), first)
+					.blend((byte) (63 - slash), second);
+				IntVector values = characters.add(offset).reinterpretAsInts();
+				// each lane contains 4 values of 6 bits with the first value in the lowest byte, combine them into 24 bits
+				IntVector quanta = values.and(0xff).lanewise(VectorOperators.LSHL, 18)
+					.or(values.lanewise(VectorOperators.LSHR, 8).and(0xff).lanewise(VectorOperators.LSHL, 12))
+					.or(values.lanewise(VectorOperators.LSHR, 16).and(0xff).lanewise(VectorOperators.LSHL, 6))
+					.or(values.lanewise(VectorOperators.LSHR, 24));
+				// swap the bytes so the first decoded byte is the lowest one
+				IntVector bytes = quanta.lanewise(VectorOperators.LSHR, 16).and(0xff)
+					.or(quanta.and(0xff00))
+					.or(quanta.and(0xff).lanewise(VectorOperators.LSHL, 16));
+				ByteVector packed = bytes.reinterpretAsBytes().rearrange(PACK);
+				if (outputOffset + 16 <= output.length) {
+					packed.intoArray(output, outputOffset);
+				}
+				else {
+					packed.intoArray(output, outputOffset, PACKED);
+				}
+				position += 16;
+				outputOffset += 12;
+			}
+			return position - inputOffset;
+		}
+	}
+}
@@ -19,11 +19,17 @@ package be.nabu.utils.codec;
 
 import java.io.IOException;
 import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 import junit.framework.TestCase;
 import be.nabu.utils.codec.TranscoderUtils;
+import be.nabu.utils.codec.impl.Base64CharDecoder;
+import be.nabu.utils.codec.impl.Base64CharEncoder;
 import be.nabu.utils.codec.impl.Base64Decoder;
 import be.nabu.utils.codec.impl.Base64Encoder;
+import be.nabu.utils.codec.impl.SkippableBase64ReadableByteContainer;
 import be.nabu.utils.io.IOUtils;
 import be.nabu.utils.io.api.ByteBuffer;
 import be.nabu.utils.io.api.CharBuffer;
@@ -70,6 +76,129 @@ public class TestBase64 extends TestCase {
 		assertEquals(expected, new String(IOUtils.toBytes(target), "ASCII"));
 	}
 	
+	public void testEncodeMultipleBlocks() throws IOException {
+		byte [] bytes = new byte[10000];
+		new Random(1).nextBytes(bytes);
+		Base64Encoder encoder = new Base64Encoder();
+		// force a block size that does not align with the line length
+		encoder.setBlockSize(100);
+		ReadableContainer<ByteBuffer> readable = TranscoderUtils.wrapReadable(IOUtils.wrap(bytes, true), encoder);
+		Container<ByteBuffer> target = IOUtils.newByteBuffer();
+		IOUtils.copy(readable, target, IOUtils.newByteBuffer(33, true));
+		assertEquals(new String(java.util.Base64.getMimeEncoder().encode(bytes), "ASCII"), new String(IOUtils.toBytes(target), "ASCII"));
+	}
+	
+	public void testDecodeMultipleBlocks() throws IOException {
+		byte [] bytes = new byte[10000];
+		new Random(2).nextBytes(bytes);
+		Base64Decoder decoder = new Base64Decoder();
+		// make sure quanta and line feeds are split across blocks
+		decoder.setBlockSize(99);
+		ReadableContainer<ByteBuffer> readable = TranscoderUtils.wrapReadable(IOUtils.wrap(java.util.Base64.getMimeEncoder().encode(bytes), true), decoder);
+		Container<ByteBuffer> target = IOUtils.newByteBuffer();
+		IOUtils.copy(readable, target, IOUtils.newByteBuffer(20, true));
+		assertTrue(Arrays.equals(bytes, IOUtils.toBytes(target)));
+	}
+	
+	public void testWideTables() throws IOException {
+		byte [] bytes = new byte[5000];
+		new Random(3).nextBytes(bytes);
+		Base64Encoder encoder = new Base64Encoder();
+		encoder.setUseWideTables(true);
+		byte [] encoded = IOUtils.toBytes(TranscoderUtils.transcodeBytes(IOUtils.wrap(bytes, true), encoder));
+		assertEquals(new String(java.util.Base64.getMimeEncoder().encode(bytes), "ASCII"), new String(encoded, "ASCII"));
+		
+		Base64Decoder decoder = new Base64Decoder();
+		decoder.setUseWideTables(true);
+		assertTrue(Arrays.equals(bytes, IOUtils.toBytes(TranscoderUtils.transcodeBytes(IOUtils.wrap(encoded, true), decoder))));
+	}
+	
+	public void testIntrinsics() throws IOException {
+		byte [] bytes = new byte[20000];
+		new Random(4).nextBytes(bytes);
+		Base64Encoder encoder = new Base64Encoder();
+		encoder.setUseIntrinsics(true);
+		byte [] encoded = IOUtils.toBytes(TranscoderUtils.transcodeBytes(IOUtils.wrap(bytes, true), encoder));
+		assertEquals(new String(java.util.Base64.getMimeEncoder().encode(bytes), "ASCII"), new String(encoded, "ASCII"));
+		
+		Base64Decoder decoder = new Base64Decoder();
+		decoder.setUseIntrinsics(true);
+		assertTrue(Arrays.equals(bytes, IOUtils.toBytes(TranscoderUtils.transcodeBytes(IOUtils.wrap(encoded, true), decoder))));
+	}
+	
+	public void testPredictedSize() throws IOException {
+		for (int size : new int[] { 0, 1, 2, 3, 56, 57, 58, 1000 }) {
+			byte [] bytes = new byte[size];
+			Base64Encoder encoder = new Base64Encoder();
+			assertEquals(java.util.Base64.getMimeEncoder().encode(bytes).length, encoder.getExactOutputSize(size));
+			assertEquals(encoder.getExactOutputSize(size), IOUtils.toBytes(TranscoderUtils.transcodeBytes(IOUtils.wrap(bytes, true), encoder)).length);
+		}
+	}
+	
+	public void testParallel() throws IOException {
+		byte [] bytes = new byte[100000];
+		new Random(5).nextBytes(bytes);
+		byte [] encoded = Base64Utils.encode(bytes, 0, bytes.length, false, 76, ForkJoinPool.commonPool(), 1000);
+		assertEquals(new String(java.util.Base64.getMimeEncoder().encode(bytes), "ASCII"), new String(encoded, "ASCII"));
+		assertTrue(Arrays.equals(bytes, Base64Utils.decode(encoded, 0, encoded.length, false, ForkJoinPool.commonPool(), 1000)));
+	}
+	
+	public void testParallelBlankLines() throws IOException {
+		byte [] bytes = new byte[3000];
+		new Random(7).nextBytes(bytes);
+		String string = new String(java.util.Base64.getEncoder().encode(bytes), "ASCII");
+		// lines that split the quanta, separated by runs of blank lines that are longer than a segment
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < string.length(); i += 7) {
+			builder.append(string.substring(i, Math.min(i + 7, string.length())));
+			for (int j = 0; j < 1 + ((i / 7) % 3) * 20; j++)
+				builder.append("\r\n");
+		}
+		byte [] encoded = builder.toString().getBytes("ASCII");
+		for (int segmentSize : new int[] { 4, 7, 16, 100 })
+			assertTrue(Arrays.equals(bytes, Base64Utils.decode(encoded, 0, encoded.length, false, ForkJoinPool.commonPool(), segmentSize)));
+	}
+	
+	public void testCharEncoding() throws IOException {
+		String string = "something new é!";
+		Container<CharBuffer> chars = IOUtils.newCharBuffer();
+		Base64CharEncoder encoder = new Base64CharEncoder(chars);
+		encoder.write(IOUtils.wrap(string.getBytes("UTF-8"), true));
+		encoder.flush();
+		String encoded = IOUtils.toString(chars);
+		assertEquals("c29tZXRoaW5nIG5ldyDDqSE=", encoded);
+		
+		Base64CharDecoder decoder = new Base64CharDecoder(IOUtils.wrap(encoded));
+		assertEquals(string, new String(IOUtils.toBytes(decoder), "UTF-8"));
+	}
+	
+	public void testSkip() throws IOException {
+		byte [] bytes = new byte[10000];
+		new Random(3).nextBytes(bytes);
+		byte [] encoded = Base64Utils.encode(bytes, false, 76);
+		SkippableBase64ReadableByteContainer container = new SkippableBase64ReadableByteContainer(IOUtils.wrap(encoded, true));
+		assertEquals(4321, container.skip(4321));
+		assertTrue(Arrays.equals(Arrays.copyOfRange(bytes, 4321, 4421), IOUtils.toBytes(IOUtils.limitReadable(container, 100))));
+		container.seek(8000);
+		assertTrue(Arrays.equals(Arrays.copyOfRange(bytes, 8000, bytes.length), IOUtils.toBytes(container)));
+	}
+	
+	public void testValidation() throws IOException {
+		Base64Decoder decoder = new Base64Decoder();
+		decoder.setValidation(Base64Decoder.Validation.LENIENT);
+		assertEquals("test", new String(IOUtils.toBytes(TranscoderUtils.transcodeBytes(IOUtils.wrap("d G\tV*z\r\ndA==".getBytes("ASCII"), true), decoder)), "ASCII"));
+		
+		decoder = new Base64Decoder();
+		decoder.setValidation(Base64Decoder.Validation.STRICT);
+		try {
+			IOUtils.toBytes(TranscoderUtils.transcodeBytes(IOUtils.wrap("dGVzd*A==".getBytes("ASCII"), true), decoder));
+			fail("Strict decoding should not allow invalid characters");
+		}
+		catch (IOException e) {
+			assertTrue(e.getMessage().endsWith("offset 5"));
+		}
+	}
+	
 	public void testEncode() throws IOException {
 		String string = "something new é!";
 		String expected = "c29tZXRoaW5nIG5ldyDD";
@@ -0,0 +1,72 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.utils.codec;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import junit.framework.TestCase;
+
+public class TestEncodedWord extends TestCase {
+	
+	public void testEncode() throws IOException {
+		Charset charset = Charset.forName("UTF-8");
+		// mostly ascii is shorter in Q
+		assertEquals("=?UTF-8?Q?caf=C3=A9_au_lait?=", EncodedWordUtils.encode("caf\u00e9 au lait", charset));
+		// mostly non-ascii is shorter in B
+		assertEquals("=?UTF-8?B?w6nDqMOg?=", EncodedWordUtils.encode("\u00e9\u00e8\u00e0", charset));
+	}
+	
+	public void testSplit() throws IOException {
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < 50; i++)
+			builder.append("\u65e5\u672c");
+		String encoded = EncodedWordUtils.encode(builder.toString(), Charset.forName("UTF-8"));
+		for (String word : encoded.split("\r\n ")) {
+			assertTrue(word.length() <= EncodedWordUtils.MAX_WORD_LENGTH);
+			// every word must be decodable on its own
+			assertFalse(EncodedWordUtils.decode(word).contains("\ufffd"));
+		}
+		assertEquals(builder.toString(), EncodedWordUtils.decode(encoded));
+	}
+	
+	public void testStatefulCharset() throws IOException {
+		StringBuilder builder = new StringBuilder();
+		// the words are split in a run of japanese characters
+		for (int i = 0; i < 30; i++)
+			builder.append("\u65e5\u672c\u8a9e");
+		String encoded = EncodedWordUtils.encode(builder.toString(), Charset.forName("ISO-2022-JP"));
+		// each word must switch to the japanese set and back to ascii on its own
+		StringBuilder decoded = new StringBuilder();
+		for (String word : encoded.split("\r\n ")) {
+			assertTrue(word.length() <= EncodedWordUtils.MAX_WORD_LENGTH);
+			decoded.append(EncodedWordUtils.decode(word));
+		}
+		assertTrue(encoded.contains("\r\n "));
+		assertEquals(builder.toString(), decoded.toString());
+	}
+	
+	public void testDecode() throws IOException {
+		assertEquals("Re: Andr\u00e9 Pirard (ab)", EncodedWordUtils.decode("Re: =?ISO-8859-1?Q?Andr=E9?= Pirard (=?ISO-8859-1?Q?a?= =?ISO-8859-1?Q?b?=)"));
+		// a character that is split over two words
+		assertEquals("caf\u00e9", EncodedWordUtils.decode("=?UTF-8?Q?caf=C3?= =?UTF-8?Q?=A9?="));
+		// the whitespace between adjacent words is dropped even if the charsets differ
+		assertEquals("ab", EncodedWordUtils.decode("=?UTF-8?Q?a?= \r\n =?ISO-8859-1?Q?b?="));
+		assertEquals("a x b", EncodedWordUtils.decode("=?UTF-8?Q?a?= x =?ISO-8859-1?Q?b?="));
+	}
+}
@@ -17,15 +17,26 @@
 
 package be.nabu.utils.codec;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
 import junit.framework.TestCase;
+import be.nabu.utils.codec.impl.BGZFDecoder;
+import be.nabu.utils.codec.impl.BGZFEncoder;
 import be.nabu.utils.codec.impl.DeflateTranscoder;
 import be.nabu.utils.codec.impl.GZIPDecoder;
 import be.nabu.utils.codec.impl.GZIPEncoder;
+import be.nabu.utils.codec.impl.GZIPIndex;
 import be.nabu.utils.codec.impl.InflateTranscoder;
+import be.nabu.utils.codec.impl.ParallelGZIPEncoder;
+import be.nabu.utils.codec.impl.ZlibStatistics;
 import be.nabu.utils.io.IOUtils;
 import be.nabu.utils.io.api.ByteBuffer;
 import be.nabu.utils.io.api.Container;
@@ -103,4 +114,288 @@ public class TestGZIP extends TestCase {
 		
 		assertEquals(string, new String(IOUtils.toBytes(container)));
 	}
+	
+	public void testNioGZIPEncoder() throws IOException {
+		String string = "testing this with direct buffers";
+		java.nio.ByteBuffer input = java.nio.ByteBuffer.allocateDirect(100);
+		input.put(string.getBytes("UTF-8"));
+		input.flip();
+		java.nio.ByteBuffer output = java.nio.ByteBuffer.allocateDirect(7);
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		GZIPEncoder encoder = new GZIPEncoder();
+		encoder.setBufferSize(64);
+		while (!encoder.isFinished()) {
+			output.clear();
+			encoder.deflate(input, output, !input.hasRemaining());
+			output.flip();
+			while (output.hasRemaining())
+				compressed.write(output.get());
+		}
+		GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(compressed.toByteArray()));
+		try {
+			byte [] result = new byte[102400];
+			int read = gzip.read(result);
+			assertEquals(string, new String(result, 0, read, "UTF-8"));
+		}
+		finally {
+			gzip.close();
+		}
+	}
+	
+	public void testNioGZIPDecoder() throws IOException {
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		for (int i = 0; i < 2; i++) {
+			GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+			gzip.write(("member " + i + " decoded with direct buffers").getBytes("UTF-8"));
+			gzip.finish();
+		}
+		java.nio.ByteBuffer input = java.nio.ByteBuffer.allocateDirect(compressed.size());
+		input.put(compressed.toByteArray());
+		input.flip();
+		java.nio.ByteBuffer output = java.nio.ByteBuffer.allocateDirect(7);
+		ByteArrayOutputStream decompressed = new ByteArrayOutputStream();
+		long inflaters = ZlibStatistics.getLiveInflaters();
+		GZIPDecoder decoder = new GZIPDecoder();
+		decoder.setBufferSize(64);
+		// the input is offered a few bytes at a time so the header and footer are split
+		int offered = 0;
+		while (offered < compressed.size() || !decoder.isFinished()) {
+			offered = Math.min(compressed.size(), offered + 5);
+			input.limit(offered);
+			do {
+				output.clear();
+				decoder.inflate(input, output);
+				output.flip();
+				while (output.hasRemaining())
+					decompressed.write(output.get());
+			}
+			while (output.limit() == output.capacity());
+		}
+		assertEquals("member 0 decoded with direct buffersmember 1 decoded with direct buffers", new String(decompressed.toByteArray(), "UTF-8"));
+		assertEquals(2, decoder.getMembers());
+		assertEquals(inflaters, ZlibStatistics.getLiveInflaters());
+	}
+	
+	public void testNativeReclaimed() throws InterruptedException {
+		long deflaters = ZlibStatistics.getLiveDeflaters();
+		long leaked = ZlibStatistics.getLeaked();
+		// dropped without closing
+		new DeflateTranscoder();
+		assertEquals(deflaters + 1, ZlibStatistics.getLiveDeflaters());
+		for (int i = 0; i < 100 && ZlibStatistics.getLiveDeflaters() > deflaters; i++) {
+			System.gc();
+			Thread.sleep(10);
+		}
+		assertEquals(deflaters, ZlibStatistics.getLiveDeflaters());
+		assertEquals(leaked + 1, ZlibStatistics.getLeaked());
+	}
+	
+	public void testNativeRelease() throws IOException {
+		long deflaters = ZlibStatistics.getLiveDeflaters();
+		GZIPEncoder encoder = new GZIPEncoder();
+		assertEquals(deflaters + 1, ZlibStatistics.getLiveDeflaters());
+		byte [] bytes = IOUtils.toBytes(TranscoderUtils.transcodeBytes(IOUtils.wrap("testing this".getBytes("UTF-8"), true), encoder));
+		// finishing the stream releases the deflater
+		assertEquals(deflaters, ZlibStatistics.getLiveDeflaters());
+		assertTrue(bytes.length > 18);
+		
+		long inflaters = ZlibStatistics.getLiveInflaters();
+		InflateTranscoder inflater = new InflateTranscoder();
+		assertEquals(inflaters + 1, ZlibStatistics.getLiveInflaters());
+		inflater.close();
+		assertEquals(inflaters, ZlibStatistics.getLiveInflaters());
+	}
+	
+	public void testParallelGZIPEncoder() throws IOException {
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < 10000; i++)
+			builder.append("line " + i + " of the parallel compression test\n");
+		byte [] bytes = builder.toString().getBytes("UTF-8");
+		ParallelGZIPEncoder encoder = new ParallelGZIPEncoder();
+		// make sure we have plenty of blocks
+		encoder.setBlockSize(4096);
+		byte [] compressed = IOUtils.toBytes(TranscoderUtils.transcodeBytes(IOUtils.wrap(bytes, true), encoder));
+		// the blocks are stitched into a single member that the jdk can read
+		GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(compressed));
+		try {
+			ByteArrayOutputStream output = new ByteArrayOutputStream();
+			byte [] buffer = new byte[8192];
+			int read;
+			while ((read = gzip.read(buffer)) > 0)
+				output.write(buffer, 0, read);
+			assertTrue(Arrays.equals(bytes, output.toByteArray()));
+		}
+		finally {
+			gzip.close();
+		}
+		assertTrue(Arrays.equals(bytes, IOUtils.toBytes(TranscoderUtils.transcodeBytes(IOUtils.wrap(compressed, true), new GZIPDecoder()))));
+	}
+	
+	public void testMultiMemberGZIPDecoder() throws IOException {
+		// concatenated gzip files form a valid gzip file
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		for (int i = 0; i < 3; i++) {
+			byte [] bytes = ("member " + i + " of the concatenated file\n").getBytes("UTF-8");
+			expected.write(bytes);
+			GZIPOutputStream gzip = new GZIPOutputStream(output);
+			gzip.write(bytes);
+			gzip.finish();
+		}
+		// trailing zeroes (e.g. from block padding) are ignored
+		output.write(new byte[5]);
+		GZIPDecoder decoder = new GZIPDecoder();
+		byte [] decompressed = IOUtils.toBytes(TranscoderUtils.transcodeBytes(IOUtils.wrap(output.toByteArray(), true), decoder));
+		assertEquals(new String(expected.toByteArray(), "UTF-8"), new String(decompressed, "UTF-8"));
+		assertEquals(3, decoder.getMembers());
+		assertTrue(decoder.isFinished());
+	}
+	
+	public void testMultiMemberTrickle() throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		for (int i = 0; i < 3; i++) {
+			byte [] bytes = ("member " + i + " of the trickled file\n").getBytes("UTF-8");
+			expected.write(bytes);
+			GZIPOutputStream gzip = new GZIPOutputStream(output);
+			gzip.write(bytes);
+			gzip.finish();
+		}
+		final ByteBuffer compressed = IOUtils.wrap(output.toByteArray(), true);
+		// the input only returns a few bytes per read so the members are never available in one go
+		ReadableContainer<ByteBuffer> trickle = new ReadableContainer<ByteBuffer>() {
+			@Override
+			public long read(ByteBuffer target) throws IOException {
+				return compressed.remainingData() == 0 ? -1 : IOUtils.limitReadable(compressed, 3).read(target);
+			}
+			@Override
+			public void close() throws IOException {
+				// do nothing
+			}
+		};
+		long inflaters = ZlibStatistics.getLiveInflaters();
+		GZIPDecoder decoder = new GZIPDecoder();
+		ReadableContainer<ByteBuffer> readable = TranscoderUtils.wrapReadable(trickle, decoder);
+		ByteBuffer result = IOUtils.newByteBuffer();
+		ByteBuffer buffer = IOUtils.newByteBuffer(16, true);
+		while (readable.read(buffer) >= 0)
+			IOUtils.copyBytes(buffer, result);
+		IOUtils.copyBytes(buffer, result);
+		assertEquals(new String(expected.toByteArray(), "UTF-8"), new String(IOUtils.toBytes(result), "UTF-8"));
+		assertEquals(3, decoder.getMembers());
+		// the native state is released at the end of the stream
+		assertEquals(inflaters, ZlibStatistics.getLiveInflaters());
+	}
+	
+	public void testBGZF() throws IOException {
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < 20000; i++)
+			builder.append("line " + i + " of the blocked compression test\n");
+		byte [] bytes = builder.toString().getBytes("UTF-8");
+		byte [] compressed = IOUtils.toBytes(TranscoderUtils.transcodeBytes(IOUtils.wrap(bytes, true), new BGZFEncoder()));
+		// every block records its size so we can walk them without inflating
+		int position = 0;
+		while (position < compressed.length) {
+			int blockSize = ((compressed[position + 16] & 0xff) | ((compressed[position + 17] & 0xff) << 8)) + 1;
+			assertTrue(blockSize <= BGZFEncoder.MAX_BLOCK_SIZE);
+			position += blockSize;
+		}
+		assertEquals(compressed.length, position);
+		// it is still a valid gzip file
+		GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(compressed));
+		try {
+			ByteArrayOutputStream output = new ByteArrayOutputStream();
+			byte [] buffer = new byte[8192];
+			int read;
+			while ((read = gzip.read(buffer)) > 0)
+				output.write(buffer, 0, read);
+			assertTrue(Arrays.equals(bytes, output.toByteArray()));
+		}
+		finally {
+			gzip.close();
+		}
+		assertTrue(Arrays.equals(bytes, IOUtils.toBytes(TranscoderUtils.transcodeBytes(IOUtils.wrap(compressed, true), new BGZFDecoder()))));
+		assertTrue(Arrays.equals(bytes, IOUtils.toBytes(TranscoderUtils.transcodeBytes(IOUtils.wrap(compressed, true), new GZIPDecoder()))));
+	}
+	
+	public void testGZIPIndex() throws IOException {
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < 20000; i++)
+			builder.append("line " + i + " of the random access test\n");
+		byte [] bytes = builder.toString().getBytes("UTF-8");
+		ParallelGZIPEncoder encoder = new ParallelGZIPEncoder();
+		// every block ends with a sync flush which is a point where inflation can restart
+		encoder.setBlockSize(16384);
+		Path file = Files.createTempFile("index", ".gz");
+		try {
+			Files.write(file, IOUtils.toBytes(TranscoderUtils.transcodeBytes(IOUtils.wrap(bytes, true), encoder)));
+			SeekableByteChannel channel = Files.newByteChannel(file);
+			try {
+				GZIPIndex index = GZIPIndex.build(channel, true, 65536);
+				assertEquals(bytes.length, index.getUncompressedSize());
+				assertTrue(index.getCheckpoints().size() > 5);
+				// the index survives a round trip to a sidecar file
+				ByteArrayOutputStream output = new ByteArrayOutputStream();
+				index.marshal(output);
+				GZIPIndex copy = GZIPIndex.unmarshal(new ByteArrayInputStream(output.toByteArray()));
+				assertEquals(index.getCheckpoints().size(), copy.getCheckpoints().size());
+				for (int offset : new int[] { 0, 100000, 333333, bytes.length - 10 }) {
+					ReadableContainer<ByteBuffer> readable = copy.read(channel, offset);
+					try {
+						byte [] read = IOUtils.toBytes(IOUtils.limitReadable(readable, 1000));
+						assertTrue(Arrays.equals(Arrays.copyOfRange(bytes, offset, Math.min(bytes.length, offset + 1000)), read));
+					}
+					finally {
+						readable.close();
+					}
+				}
+			}
+			finally {
+				channel.close();
+			}
+		}
+		finally {
+			Files.delete(file);
+		}
+	}
+	
+	public void testGZIPIndexEmbedded() throws IOException {
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < 20000; i++)
+			builder.append("line " + i + " of the embedded random access test\n");
+		byte [] bytes = builder.toString().getBytes("UTF-8");
+		ParallelGZIPEncoder encoder = new ParallelGZIPEncoder();
+		encoder.setBlockSize(16384);
+		byte [] compressed = IOUtils.toBytes(TranscoderUtils.transcodeBytes(IOUtils.wrap(bytes, true), encoder));
+		// the gzip data does not start at the beginning of the file
+		byte [] file = new byte[1000 + compressed.length];
+		System.arraycopy(compressed, 0, file, 1000, compressed.length);
+		Path path = Files.createTempFile("index", ".bin");
+		try {
+			Files.write(path, file);
+			SeekableByteChannel channel = Files.newByteChannel(path);
+			try {
+				channel.position(1000);
+				GZIPIndex index = GZIPIndex.build(channel, true, 65536);
+				assertEquals(compressed.length, index.getCompressedSize());
+				assertEquals(1000, index.getCheckpoints().get(0).getCompressedOffset());
+				for (int offset : new int[] { 0, 200000, bytes.length - 10 }) {
+					ReadableContainer<ByteBuffer> readable = index.read(channel, offset);
+					try {
+						byte [] read = IOUtils.toBytes(IOUtils.limitReadable(readable, 1000));
+						assertTrue(Arrays.equals(Arrays.copyOfRange(bytes, offset, Math.min(bytes.length, offset + 1000)), read));
+					}
+					finally {
+						readable.close();
+					}
+				}
+			}
+			finally {
+				channel.close();
+			}
+		}
+		finally {
+			Files.delete(path);
+		}
+	}
 }
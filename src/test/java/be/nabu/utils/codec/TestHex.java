@@ -0,0 +1,61 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.utils.codec;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import be.nabu.utils.codec.impl.HexDecoder;
+import be.nabu.utils.codec.impl.HexEncoder;
+import be.nabu.utils.io.IOUtils;
+import junit.framework.TestCase;
+
+public class TestHex extends TestCase {
+	
+	public void testEncode() throws IOException {
+		byte [] bytes = new byte [] { 0, 1, (byte) 0xab, 127, (byte) 0xff };
+		assertEquals("0001ab7fff", new String(IOUtils.toBytes(TranscoderUtils.transcodeBytes(IOUtils.wrap(bytes, true), new HexEncoder())), "ASCII"));
+		
+		HexEncoder encoder = new HexEncoder();
+		encoder.setUseUppercase(true);
+		encoder.setSeparator(":");
+		assertEquals("00:01:AB:7F:FF", new String(IOUtils.toBytes(TranscoderUtils.transcodeBytes(IOUtils.wrap(bytes, true), encoder)), "ASCII"));
+	}
+	
+	public void testRoundTrip() throws IOException {
+		byte [] bytes = new byte[10000];
+		new Random(1).nextBytes(bytes);
+		HexEncoder encoder = new HexEncoder();
+		encoder.setSeparator(" ");
+		byte [] encoded = IOUtils.toBytes(TranscoderUtils.transcodeBytes(IOUtils.wrap(bytes, true), encoder));
+		HexDecoder decoder = new HexDecoder();
+		decoder.setSeparator(" ");
+		assertTrue(Arrays.equals(bytes, IOUtils.toBytes(TranscoderUtils.transcodeBytes(IOUtils.wrap(encoded, true), decoder))));
+	}
+	
+	public void testInvalid() throws IOException {
+		try {
+			IOUtils.toBytes(TranscoderUtils.transcodeBytes(IOUtils.wrap("00ag".getBytes("ASCII"), true), new HexDecoder()));
+			fail("Invalid hex should not be decoded");
+		}
+		catch (IOException e) {
+			assertTrue(e.getMessage().endsWith("offset 3"));
+		}
+	}
+}
@@ -42,4 +42,18 @@ public class TestInflater extends TestCase {
 		assertEquals(test, new String(IOUtils.toBytes(container)));
 	}
 	
+	public void testDeflaterClosedBeforeRead() throws IOException {
+		String test = "testing this string";
+		Container<ByteBuffer> container = IOUtils.newByteBuffer();
+		// the deflating side is closed before it is read
+		container = IOUtils.wrap(
+			TranscoderUtils.wrapReadable(container, new DeflateTranscoder()),
+			TranscoderUtils.wrapWritable(container, new DeflateTranscoder())
+		);
+		container.write(IOUtils.wrap(test.getBytes(), true));
+		container.close();
+		
+		byte [] compressed = IOUtils.toBytes(TranscoderUtils.transcodeBytes(IOUtils.wrap(IOUtils.toBytes(container), true), new InflateTranscoder()));
+		assertEquals(test, new String(IOUtils.toBytes(TranscoderUtils.transcodeBytes(IOUtils.wrap(compressed, true), new InflateTranscoder()))));
+	}
 }
@@ -0,0 +1,115 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.utils.codec;
+
+import java.io.IOException;
+import java.net.URLEncoder;
+
+import be.nabu.utils.codec.api.Transcoder;
+import be.nabu.utils.codec.impl.PercentDecoder;
+import be.nabu.utils.codec.impl.PercentEncoder;
+import be.nabu.utils.codec.impl.PercentEncoding;
+import be.nabu.utils.io.IOUtils;
+import be.nabu.utils.io.api.ByteBuffer;
+import junit.framework.TestCase;
+
+public class TestPercent extends TestCase {
+	
+	public void testForm() throws IOException {
+		String string = "a test & some more=\"special\" characters: é~*";
+		String encoded = transcode(string.getBytes("UTF-8"), new PercentEncoder(PercentEncoding.FORM));
+		assertEquals(URLEncoder.encode(string, "UTF-8"), encoded);
+		assertEquals(string, new String(IOUtils.toBytes(TranscoderUtils.transcodeBytes(IOUtils.wrap(encoded.getBytes("ASCII"), true), new PercentDecoder(PercentEncoding.FORM))), "UTF-8"));
+	}
+	
+	public void testURI() throws IOException {
+		assertEquals("a%20b%2Bc~d%2F%C3%A9", transcode("a b+c~d/é".getBytes("UTF-8"), new PercentEncoder(PercentEncoding.URI)));
+		assertEquals("a%20b+c~d/%C3%A9", transcode("a b+c~d/é".getBytes("UTF-8"), new PercentEncoder("~+/", false)));
+		// a plus is not a space outside of forms
+		assertEquals("a+b c", transcode("a+b%20c".getBytes("ASCII"), new PercentDecoder(PercentEncoding.URI)));
+	}
+	
+	public void testInvalid() throws IOException {
+		try {
+			transcode("abc%4g".getBytes("ASCII"), new PercentDecoder(PercentEncoding.URI));
+			fail("Invalid escape should not be decoded");
+		}
+		catch (IOException e) {
+			// expected
+		}
+		PercentDecoder decoder = new PercentDecoder(PercentEncoding.FORM);
+		decoder.setLenient(true);
+		assertEquals("a%zz %4A%", transcode("a%zz+%4%41%".getBytes("ASCII"), decoder));
+	}
+	
+	public void testBlockSizes() throws IOException {
+		String string = "a test & some more=\"special\" characters: é~*";
+		byte [] encoded = URLEncoder.encode(string, "UTF-8").getBytes("ASCII");
+		// small blocks split the escape sequences at every possible position
+		for (int blockSize = 1; blockSize <= 8; blockSize++) {
+			for (boolean lenient : new boolean [] { false, true }) {
+				PercentDecoder decoder = new PercentDecoder(PercentEncoding.FORM);
+				decoder.setBlockSize(blockSize);
+				decoder.setLenient(lenient);
+				assertEquals(string, new String(IOUtils.toBytes(TranscoderUtils.transcodeBytes(IOUtils.wrap(encoded, true), decoder)), "UTF-8"));
+			}
+		}
+	}
+	
+	public void testInvalidBlockSizes() throws IOException {
+		for (int blockSize = 1; blockSize <= 8; blockSize++) {
+			PercentDecoder decoder = new PercentDecoder(PercentEncoding.FORM);
+			decoder.setBlockSize(blockSize);
+			decoder.setLenient(true);
+			assertEquals("a%zz %4A%", transcode("a%zz+%4%41%".getBytes("ASCII"), decoder));
+			
+			// an invalid escape that was split over blocks is written before the full next block
+			decoder = new PercentDecoder(PercentEncoding.URI);
+			decoder.setBlockSize(blockSize);
+			decoder.setLenient(true);
+			assertEquals("abc%4zzzzzzzzz", transcode("abc%4zzzzzzzzz".getBytes("ASCII"), decoder));
+			
+			decoder = new PercentDecoder(PercentEncoding.URI);
+			decoder.setBlockSize(blockSize);
+			try {
+				transcode("abc%4gabc".getBytes("ASCII"), decoder);
+				fail("Invalid escape should not be decoded");
+			}
+			catch (IOException e) {
+				// the offset is counted over all the blocks
+				assertTrue(e.getMessage(), e.getMessage().contains("at offset 5 "));
+			}
+			
+			for (String truncated : new String [] { "abc%", "abc%4" }) {
+				decoder = new PercentDecoder(PercentEncoding.URI);
+				decoder.setBlockSize(blockSize);
+				try {
+					transcode(truncated.getBytes("ASCII"), decoder);
+					fail("Truncated escape should not be decoded");
+				}
+				catch (IOException e) {
+					// expected
+				}
+			}
+		}
+	}
+	
+	private String transcode(byte [] bytes, Transcoder<ByteBuffer> transcoder) throws IOException {
+		return new String(IOUtils.toBytes(TranscoderUtils.transcodeBytes(IOUtils.wrap(bytes, true), transcoder)), "ISO-8859-1");
+	}
+}
@@ -25,6 +25,7 @@ import be.nabu.utils.codec.TranscoderUtils;
 import be.nabu.utils.codec.api.Transcoder;
 import be.nabu.utils.codec.impl.GZIPDecoder;
 import be.nabu.utils.codec.impl.GZIPEncoder;
+import be.nabu.utils.codec.impl.QuotedPrintableCharacterSet;
 import be.nabu.utils.codec.impl.QuotedPrintableDecoder;
 import be.nabu.utils.codec.impl.QuotedPrintableEncoder;
 import be.nabu.utils.codec.impl.QuotedPrintableEncoding;
@@ -74,6 +75,62 @@ public class TestQuotedPrintable extends TestCase {
 		assertEquals(string, IOUtils.toString(container));
 	}
 	
+	public void testLineLength() throws IOException {
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < 74; i++)
+			builder.append('a');
+		builder.append("\u00e9 b  \r\nc");
+		byte [] encoded = IOUtils.toBytes(TranscoderUtils.transcodeBytes(IOUtils.wrap(builder.toString().getBytes("UTF-8"), true), new QuotedPrintableEncoder(QuotedPrintableEncoding.DEFAULT)));
+		assertEquals(builder.substring(0, 74) + "=\r\n=C3=A9 b=20=20=0D=0Ac", new String(encoded, "ASCII"));
+	}
+	
+	public void testCustomCharacterSet() throws IOException {
+		// only the attribute-char of rfc2231 can be written as is
+		QuotedPrintableCharacterSet characterSet = QuotedPrintableCharacterSet.literal("abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789!#$&+-.^_`|~", Integer.MAX_VALUE, false);
+		byte [] bytes = "name=\"t\u00e9st file.txt\"".getBytes("UTF-8");
+		byte [] encoded = IOUtils.toBytes(TranscoderUtils.transcodeBytes(IOUtils.wrap(bytes, true), new QuotedPrintableEncoder(characterSet)));
+		assertEquals("name=3D=22t=C3=A9st file.txt=22", new String(encoded, "ASCII"));
+		assertEquals(QuotedPrintableCharacterSet.ESCAPE, characterSet.classify('"'));
+		assertEquals(QuotedPrintableCharacterSet.LITERAL, characterSet.classify('a'));
+		assertEquals(new String(bytes, "UTF-8"), new String(IOUtils.toBytes(TranscoderUtils.transcodeBytes(IOUtils.wrap(encoded, true), new QuotedPrintableDecoder(characterSet))), "UTF-8"));
+	}
+	
+	public void testReservedCharacters() throws IOException {
+		// the escape character and the underscore for spaces can not be literal
+		QuotedPrintableCharacterSet characterSet = QuotedPrintableCharacterSet.literal("abc=_", Integer.MAX_VALUE, true);
+		assertEquals(QuotedPrintableCharacterSet.ESCAPE, characterSet.classify('='));
+		assertEquals(QuotedPrintableCharacterSet.ESCAPE, characterSet.classify('_'));
+		byte [] bytes = "a=b_c a".getBytes("ASCII");
+		byte [] encoded = IOUtils.toBytes(TranscoderUtils.transcodeBytes(IOUtils.wrap(bytes, true), new QuotedPrintableEncoder(characterSet)));
+		assertEquals("a=3Db=5Fc_a", new String(encoded, "ASCII"));
+		assertEquals("a=b_c a", new String(IOUtils.toBytes(TranscoderUtils.transcodeBytes(IOUtils.wrap(encoded, true), new QuotedPrintableDecoder(characterSet))), "ASCII"));
+		// without encoded spaces the underscore is fine as is
+		assertEquals(QuotedPrintableCharacterSet.LITERAL, new QuotedPrintableCharacterSet("", 76, false).classify('_'));
+		assertEquals(QuotedPrintableCharacterSet.ESCAPE, new QuotedPrintableCharacterSet("", 76, false).classify('='));
+	}
+	
+	public void testShortLines() throws IOException {
+		QuotedPrintableCharacterSet characterSet = new QuotedPrintableCharacterSet(QuotedPrintableEncoding.DEFAULT.getCharactersToEncode(), 4, false);
+		byte [] bytes = "t\u00e9st=".getBytes("UTF-8");
+		byte [] encoded = IOUtils.toBytes(TranscoderUtils.transcodeBytes(IOUtils.wrap(bytes, true), new QuotedPrintableEncoder(characterSet)));
+		for (String line : new String(encoded, "ASCII").split("\r\n"))
+			assertTrue(line.length() <= 4);
+		assertEquals(new String(bytes, "UTF-8"), new String(IOUtils.toBytes(TranscoderUtils.transcodeBytes(IOUtils.wrap(encoded, true), new QuotedPrintableDecoder(characterSet))), "UTF-8"));
+		try {
+			new QuotedPrintableCharacterSet(QuotedPrintableEncoding.DEFAULT.getCharactersToEncode(), 3, false);
+			fail("A line can not be shorter than an escaped byte and a soft line break");
+		}
+		catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+	
+	public void testDecodeLineBreaks() throws IOException {
+		byte [] encoded = "some=\r\n text  \r\nwith=3Dspaces=20 \r\nend".getBytes("ASCII");
+		byte [] decoded = IOUtils.toBytes(TranscoderUtils.transcodeBytes(IOUtils.wrap(encoded, true), new QuotedPrintableDecoder(QuotedPrintableEncoding.DEFAULT)));
+		assertEquals("some text\r\nwith=spaces \r\nend", new String(decoded, "ASCII"));
+	}
+	
 	public void testBinaryData() throws IOException {
 		String string = "this is just some data, it doesn't matter what";
 		Container<ByteBuffer> encoded = IOUtils.newByteBuffer();
@@ -0,0 +1,101 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.utils.codec;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import be.nabu.utils.codec.api.Transcoder;
+import be.nabu.utils.codec.impl.Ascii85Encoding;
+import be.nabu.utils.codec.impl.Base32Encoding;
+import be.nabu.utils.codec.impl.RadixDecoder;
+import be.nabu.utils.codec.impl.RadixEncoder;
+import be.nabu.utils.codec.impl.RadixEncoding;
+import be.nabu.utils.codec.impl.Z85Encoding;
+import be.nabu.utils.io.IOUtils;
+import be.nabu.utils.io.api.ByteBuffer;
+import junit.framework.TestCase;
+
+public class TestRadix extends TestCase {
+	
+	public void testBase32() throws IOException {
+		assertEquals("MZXW6YTBOI======", encode(new Base32Encoding(), "foobar".getBytes("ASCII")));
+		assertEquals("CPNMUOJ1E8======", encode(new Base32Encoding(true), "foobar".getBytes("ASCII")));
+		assertEquals("foobar", new String(transcode(new RadixDecoder(new Base32Encoding()), "MZXW6YTBOI======".getBytes("ASCII")), "ASCII"));
+		// padding is optional
+		assertEquals("fooba", new String(transcode(new RadixDecoder(new Base32Encoding()), "MZXW6YTB".getBytes("ASCII")), "ASCII"));
+	}
+	
+	public void testZ85() throws IOException {
+		byte [] bytes = new byte [] { (byte) 0x86, 0x4f, (byte) 0xd2, 0x6f, (byte) 0xb5, 0x59, (byte) 0xf7, 0x5b };
+		assertEquals("HelloWorld", encode(new Z85Encoding(), bytes));
+		assertTrue(Arrays.equals(bytes, transcode(new RadixDecoder(new Z85Encoding()), "HelloWorld".getBytes("ASCII"))));
+	}
+	
+	public void testAscii85() throws IOException {
+		assertEquals("9jqo^z!!", encode(new Ascii85Encoding(), new byte [] { 'M', 'a', 'n', ' ', 0, 0, 0, 0, 0 }));
+		assertTrue(Arrays.equals(new byte [] { 'M', 'a', 'n', ' ', 0, 0, 0, 0, 0 }, transcode(new RadixDecoder(new Ascii85Encoding()), "9jqo^ z\r\n!!".getBytes("ASCII"))));
+	}
+	
+	public void testRoundTrip() throws IOException {
+		byte [] bytes = new byte[10001];
+		new Random(2).nextBytes(bytes);
+		for (RadixEncoding encoding : new RadixEncoding [] { new Base32Encoding(), new Base32Encoding(true), new Ascii85Encoding() }) {
+			RadixEncoder encoder = new RadixEncoder(encoding);
+			encoder.setBytesPerLine(76);
+			byte [] encoded = transcode(encoder, bytes);
+			assertTrue(encoder.getMaximumOutputSize(bytes.length) >= encoded.length);
+			assertTrue(Arrays.equals(bytes, transcode(new RadixDecoder(encoding), encoded)));
+		}
+	}
+	
+	public void testSmallTarget() throws IOException {
+		byte [] bytes = new byte[1001];
+		new Random(3).nextBytes(bytes);
+		byte [] encoded = transcode(new RadixEncoder(new Base32Encoding()), bytes);
+		// the last partial quantum is only encoded when flushing
+		assertTrue(Arrays.equals(encoded, transcodeSmall(new RadixEncoder(new Base32Encoding()), bytes)));
+		// without padding the last partial quantum is only decoded when flushing
+		encoded = new String(encoded, "ASCII").replace("=", "").getBytes("ASCII");
+		assertTrue(Arrays.equals(bytes, transcodeSmall(new RadixDecoder(new Base32Encoding()), encoded)));
+	}
+	
+	/**
+	 * Transcodes into a target that can only hold a few bytes, the rest is pushed back into the transcoder
+	 */
+	private static byte [] transcodeSmall(Transcoder<ByteBuffer> transcoder, byte [] bytes) throws IOException {
+		ByteBuffer input = IOUtils.wrap(bytes, true);
+		ByteBuffer target = IOUtils.newByteBuffer(7, false);
+		ByteBuffer result = IOUtils.newByteBuffer();
+		while (input.remainingData() > 0) {
+			transcoder.transcode(input, target);
+			IOUtils.copyBytes(target, result);
+		}
+		transcoder.flush(result);
+		return IOUtils.toBytes(result);
+	}
+	
+	private static String encode(RadixEncoding encoding, byte [] bytes) throws IOException {
+		return new String(transcode(new RadixEncoder(encoding), bytes), "ASCII");
+	}
+	
+	private static byte [] transcode(Transcoder<ByteBuffer> transcoder, byte [] bytes) throws IOException {
+		return IOUtils.toBytes(TranscoderUtils.transcodeBytes(IOUtils.wrap(bytes, true), transcoder));
+	}
+}
@@ -0,0 +1,95 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.utils.codec;
+
+import java.io.IOException;
+
+import be.nabu.utils.codec.impl.Base64Decoder;
+import be.nabu.utils.codec.impl.Base64Decoder.Validation;
+import be.nabu.utils.codec.impl.Base64Encoder;
+import be.nabu.utils.codec.impl.DeflateTranscoder.DeflaterLevel;
+import be.nabu.utils.codec.impl.GZIPDecoder;
+import be.nabu.utils.codec.impl.GZIPEncoder;
+import be.nabu.utils.io.IOUtils;
+import junit.framework.TestCase;
+
+public class TestTranscoderPool extends TestCase {
+	
+	public void testReset() throws IOException {
+		Base64Encoder encoder = new Base64Encoder();
+		assertEquals("dGVzdGluZw==", new String(IOUtils.toBytes(TranscoderUtils.transcodeBytes(IOUtils.wrap("testing".getBytes("ASCII"), true), encoder)), "ASCII"));
+		encoder.reset();
+		assertEquals("YWdhaW4=", new String(IOUtils.toBytes(TranscoderUtils.transcodeBytes(IOUtils.wrap("again".getBytes("ASCII"), true), encoder)), "ASCII"));
+	}
+	
+	public void testGZIPPool() throws IOException {
+		TranscoderPool<GZIPEncoder> encoders = TranscoderUtils.getGZIPEncoderPool(DeflaterLevel.BEST_SPEED);
+		TranscoderPool<GZIPDecoder> decoders = TranscoderUtils.getGZIPDecoderPool();
+		GZIPEncoder first = null;
+		for (int i = 0; i < 3; i++) {
+			String string = "testing this for the " + i + " time";
+			GZIPEncoder encoder = encoders.borrow();
+			// we keep getting the same encoder
+			if (first == null)
+				first = encoder;
+			else
+				assertSame(first, encoder);
+			byte [] compressed = IOUtils.toBytes(TranscoderUtils.transcodeBytes(IOUtils.wrap(string.getBytes("UTF-8"), true), encoder));
+			encoders.release(encoder);
+			GZIPDecoder decoder = decoders.borrow();
+			assertEquals(string, new String(IOUtils.toBytes(TranscoderUtils.transcodeBytes(IOUtils.wrap(compressed, true), decoder)), "UTF-8"));
+			decoders.release(decoder);
+		}
+	}
+	
+	public void testBase64PoolConfiguration() throws IOException {
+		TranscoderPool<Base64Encoder> encoders = TranscoderUtils.getBase64EncoderPool(false, 0);
+		Base64Encoder encoder = encoders.borrow();
+		// a borrower changes the settings
+		encoder.setUseBase64Url(true);
+		encoder.setBytesPerLine(4);
+		encoder.setUseWideTables(true);
+		encoder.setUseIntrinsics(true);
+		encoders.release(encoder);
+		encoder = encoders.borrow();
+		assertFalse(encoder.isUseBase64Url());
+		assertEquals(0, encoder.getBytesPerLine());
+		assertFalse(encoder.isUseWideTables());
+		assertFalse(encoder.isUseIntrinsics());
+		assertEquals("+/8=", new String(IOUtils.toBytes(TranscoderUtils.transcodeBytes(IOUtils.wrap(new byte [] { (byte) 0xfb, (byte) 0xff }, true), encoder)), "ASCII"));
+		encoders.release(encoder);
+		
+		TranscoderPool<Base64Decoder> decoders = TranscoderUtils.getBase64DecoderPool(false);
+		Base64Decoder decoder = decoders.borrow();
+		decoder.setUseBase64Url(true);
+		decoder.setValidation(Validation.STRICT);
+		decoder.setUseWideTables(true);
+		decoder.setUseIntrinsics(true);
+		decoders.release(decoder);
+		decoder = decoders.borrow();
+		assertFalse(decoder.isUseBase64Url());
+		assertEquals(Validation.NONE, decoder.getValidation());
+		assertFalse(decoder.isUseWideTables());
+		assertFalse(decoder.isUseIntrinsics());
+		byte [] decoded = IOUtils.toBytes(TranscoderUtils.transcodeBytes(IOUtils.wrap("+/8=".getBytes("ASCII"), true), decoder));
+		assertEquals(2, decoded.length);
+		assertEquals((byte) 0xfb, decoded[0]);
+		assertEquals((byte) 0xff, decoded[1]);
+		decoders.release(decoder);
+	}
+}
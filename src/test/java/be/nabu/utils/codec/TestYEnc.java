@@ -0,0 +1,77 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.utils.codec;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import be.nabu.utils.codec.impl.YEncDecoder;
+import be.nabu.utils.codec.impl.YEncEncoder;
+import be.nabu.utils.io.IOUtils;
+import junit.framework.TestCase;
+
+public class TestYEnc extends TestCase {
+	
+	public void testEscape() throws IOException {
+		// these bytes end up as NUL, LF, CR and "=" after shifting
+		byte [] bytes = new byte [] { (byte) 214, (byte) 224, (byte) 227, 19, 'a' };
+		byte [] encoded = IOUtils.toBytes(TranscoderUtils.transcodeBytes(IOUtils.wrap(bytes, true), new YEncEncoder()));
+		assertEquals("=@=J=M=}\u008b", new String(encoded, "ISO-8859-1"));
+		assertTrue(Arrays.equals(bytes, IOUtils.toBytes(TranscoderUtils.transcodeBytes(IOUtils.wrap(encoded, true), new YEncDecoder()))));
+	}
+	
+	public void testTrailer() throws IOException {
+		byte [] bytes = new byte[10000];
+		new Random(4).nextBytes(bytes);
+		YEncEncoder encoder = new YEncEncoder();
+		encoder.setUseTrailer(true);
+		byte [] encoded = IOUtils.toBytes(TranscoderUtils.transcodeBytes(IOUtils.wrap(bytes, true), encoder));
+		CRC32 crc = new CRC32();
+		crc.update(bytes);
+		assertTrue(new String(encoded, "ISO-8859-1").endsWith("=yend size=10000 crc32=" + String.format("%08x", crc.getValue()) + "\r\n"));
+		
+		YEncDecoder decoder = new YEncDecoder();
+		assertTrue(Arrays.equals(bytes, IOUtils.toBytes(TranscoderUtils.transcodeBytes(IOUtils.wrap(encoded, true), decoder))));
+		assertEquals(crc.getValue(), decoder.getChecksum());
+		
+		// corrupt the data
+		encoded[10]++;
+		try {
+			IOUtils.toBytes(TranscoderUtils.transcodeBytes(IOUtils.wrap(encoded, true), new YEncDecoder()));
+			fail("The checksum should not match");
+		}
+		catch (IOException e) {
+			// expected
+		}
+	}
+	
+	public void testInvalidTrailer() throws IOException {
+		for (String trailer : new String [] { "=yend size=abc crc32=00000000\r\n", "=yend size=1 crc32=xyz\r\n" }) {
+			byte [] encoded = ("k" + trailer).getBytes("ISO-8859-1");
+			try {
+				IOUtils.toBytes(TranscoderUtils.transcodeBytes(IOUtils.wrap(encoded, true), new YEncDecoder()));
+				fail("The trailer should not be accepted");
+			}
+			catch (IOException e) {
+				assertTrue(e.getMessage().contains(trailer.contains("abc") ? "size" : "crc32"));
+			}
+		}
+	}
+}
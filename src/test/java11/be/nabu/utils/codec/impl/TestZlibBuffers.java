@@ -0,0 +1,87 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.utils.codec.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Runs the nio deflating and inflating through the java 11 layer which hands the buffers straight to zlib, this only runs in the java 11 profile
+ */
+public class TestZlibBuffers extends TestCase {
+	
+	public void testAvailable() {
+		assertTrue("The java 11 layer is not used", ZlibBuffers.isAvailable());
+	}
+	
+	public void testDirectBuffers() throws IOException {
+		Random random = new Random(19);
+		for (int i = 0; i < 20; i++) {
+			byte [] bytes = new byte[random.nextInt(200000)];
+			random.nextBytes(bytes);
+			// make part of it compressible
+			for (int j = 0; j < bytes.length / 2; j++)
+				bytes[j] = (byte) ('a' + (bytes[j] & 3));
+			boolean direct = i % 2 == 0;
+			byte [] compressed = deflate(bytes, direct, 1 + random.nextInt(5000));
+			assertTrue(Arrays.equals(bytes, inflate(compressed, direct, 1 + random.nextInt(5000))));
+		}
+	}
+	
+	private static byte [] deflate(byte [] bytes, boolean direct, int outputSize) throws IOException {
+		java.nio.ByteBuffer input = allocate(bytes.length, direct);
+		input.put(bytes);
+		input.flip();
+		java.nio.ByteBuffer output = allocate(outputSize, direct);
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		GZIPEncoder encoder = new GZIPEncoder();
+		while (!encoder.isFinished()) {
+			output.clear();
+			encoder.deflate(input, output, !input.hasRemaining());
+			output.flip();
+			while (output.hasRemaining())
+				compressed.write(output.get());
+		}
+		return compressed.toByteArray();
+	}
+	
+	private static byte [] inflate(byte [] bytes, boolean direct, int outputSize) throws IOException {
+		java.nio.ByteBuffer input = allocate(bytes.length, direct);
+		input.put(bytes);
+		input.flip();
+		java.nio.ByteBuffer output = allocate(outputSize, direct);
+		ByteArrayOutputStream decompressed = new ByteArrayOutputStream();
+		GZIPDecoder decoder = new GZIPDecoder();
+		while (!decoder.isFinished()) {
+			output.clear();
+			decoder.inflate(input, output);
+			output.flip();
+			while (output.hasRemaining())
+				decompressed.write(output.get());
+		}
+		return decompressed.toByteArray();
+	}
+	
+	private static java.nio.ByteBuffer allocate(int size, boolean direct) {
+		return direct ? java.nio.ByteBuffer.allocateDirect(size) : java.nio.ByteBuffer.allocate(size);
+	}
+}
@@ -0,0 +1,94 @@
+/*
+* Copyright (C) 2014 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.utils.codec.impl;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import be.nabu.utils.codec.TranscoderUtils;
+import be.nabu.utils.io.IOUtils;
+
+/**
+ * Compares the vectorized base64 layer with the jdk codec, this only runs in the java 17 profile
+ */
+public class TestBase64Vectors extends TestCase {
+	
+	public void testAvailable() {
+		assertTrue("The vector api is not enabled", Base64Vectors.isAvailable());
+	}
+	
+	public void testEncode() {
+		Random random = new Random(11);
+		for (boolean useBase64Url : new boolean[] { false, true }) {
+			java.util.Base64.Encoder jdk = useBase64Url ? java.util.Base64.getUrlEncoder() : java.util.Base64.getEncoder();
+			for (int i = 0; i < 500; i++) {
+				// includes the lengths below a single block of 12 bytes
+				int length = i < 40 ? i : random.nextInt(1000);
+				byte [] bytes = new byte[length];
+				random.nextBytes(bytes);
+				byte [] encoded = new byte[((length + 2) / 3) * 4];
+				int consumed = Base64Vectors.encode(bytes, 0, length, encoded, 0, useBase64Url);
+				assertEquals(0, consumed % 12);
+				// only the tail that does not fit in a vector load is left over
+				assertTrue(length - consumed < 16);
+				byte [] expected = jdk.encode(Arrays.copyOf(bytes, consumed));
+				assertTrue(Arrays.equals(expected, Arrays.copyOf(encoded, expected.length)));
+			}
+		}
+	}
+	
+	public void testDecode() {
+		Random random = new Random(13);
+		for (boolean useBase64Url : new boolean[] { false, true }) {
+			java.util.Base64.Encoder jdk = (useBase64Url ? java.util.Base64.getUrlEncoder() : java.util.Base64.getEncoder()).withoutPadding();
+			for (int i = 0; i < 500; i++) {
+				// includes the lengths below a single block of 16 characters
+				int length = i < 40 ? i : random.nextInt(1000);
+				byte [] bytes = new byte[length];
+				random.nextBytes(bytes);
+				byte [] encoded = jdk.encode(bytes);
+				byte [] decoded = new byte[length];
+				int consumed = Base64Vectors.decode(encoded, 0, encoded.length, decoded, 0, useBase64Url);
+				assertEquals(0, consumed % 16);
+				assertTrue(encoded.length - consumed < 16);
+				int amount = (consumed / 4) * 3;
+				assertTrue(Arrays.equals(Arrays.copyOf(bytes, amount), Arrays.copyOf(decoded, amount)));
+			}
+		}
+	}
+	
+	public void testDecodeStopsAtInvalidBlock() {
+		byte [] encoded = java.util.Base64.getEncoder().encode(new byte[48]);
+		encoded[20] = '\n';
+		assertEquals(16, Base64Vectors.decode(encoded, 0, encoded.length, new byte[48], 0, false));
+	}
+	
+	public void testTranscoders() throws IOException {
+		Random random = new Random(17);
+		for (int i = 0; i < 200; i++) {
+			int length = i < 40 ? i : random.nextInt(5000);
+			byte [] bytes = new byte[length];
+			random.nextBytes(bytes);
+			byte [] encoded = IOUtils.toBytes(TranscoderUtils.transcodeBytes(IOUtils.wrap(bytes, true), new Base64Encoder()));
+			assertTrue(Arrays.equals(java.util.Base64.getMimeEncoder().encode(bytes), encoded));
+			assertTrue(Arrays.equals(bytes, IOUtils.toBytes(TranscoderUtils.transcodeBytes(IOUtils.wrap(encoded, true), new Base64Decoder()))));
+		}
+	}
+}